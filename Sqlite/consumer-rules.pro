@@ -0,0 +1,22 @@
+# Called back from native code
+-keepclassmembers class com.thelqn.sqlite3.SQLiteCheckpointManager {
+    void onWalThreshold(int);
+}
+-keepclassmembers class com.thelqn.sqlite3.SQLiteFunctionBinding {
+    com.thelqn.sqlite3.SQLiteFunctionContext context;
+    void onCall(long, long, int);
+    java.lang.Object onCreateState();
+    void onStep(java.lang.Object, long, long, int);
+    void onFinal(java.lang.Object, long);
+}
+-keepclassmembers class com.thelqn.sqlite3.SQLiteTracer {
+    void onSlowStatement(java.lang.String, long, long, long);
+}
+-keepclassmembers class com.thelqn.sqlite3.SQLiteChangeFeed {
+    boolean commitPending;
+}
+-keepclassmembers class com.thelqn.sqlite3.SQLiteFunctionContext {
+    byte[] types;
+    long[] longs;
+    double[] doubles;
+}
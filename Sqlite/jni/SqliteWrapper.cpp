@@ -1,6 +1,15 @@
 #include <android/log.h>
+#include <algorithm>
+#include <atomic>
+#include <cstdlib>
 #include <cstring>
 #include <jni.h>
+#include <mutex>
+#include <string>
+#include <time.h>
+#include <unistd.h>
+#include <unordered_map>
+#include <vector>
 #include "sqlite/sqlite3.h"
 #include "NativeByteBuffer.h"
 #include "BuffersStorage.h"
@@ -11,7 +20,890 @@ JavaVM *java;
 void throw_sqlite3_exception(JNIEnv *env, sqlite3 *handle, int errcode) {
     const char *errmsg = sqlite3_errmsg(handle);
     jclass exClass = env->FindClass("com/thelqn/sqlite3/SQLiteException");
-    env->ThrowNew(exClass, errmsg);
+    jmethodID init = env->GetMethodID(exClass, "<init>", "(ILjava/lang/String;)V");
+    jstring message = env->NewStringUTF(errmsg);
+    env->Throw((jthrowable) env->NewObject(exClass, init, errcode, message));
+    env->DeleteLocalRef(message);
+}
+
+// keep in sync with SQLiteArguments.TYPE_*
+enum BindType {
+    BIND_TYPE_NULL = 0,
+    BIND_TYPE_LONG = 1,
+    BIND_TYPE_DOUBLE = 2,
+    BIND_TYPE_STRING = 3,
+    BIND_TYPE_BYTE_ARRAY = 4,
+    BIND_TYPE_BYTE_BUFFER = 5,
+    BIND_TYPE_ZERO_BLOB = 6
+};
+
+int bind_values(JNIEnv *env, sqlite3_stmt *handle, const jbyte *types, const jlong *longs,
+                const jdouble *doubles, jobjectArray objects, int offset, int count) {
+    for (int a = 0; a < count; a++) {
+        int slot = offset + a;
+        int index = a + 1;
+        int errcode = SQLITE_OK;
+        switch (types[slot]) {
+            case BIND_TYPE_LONG:
+                errcode = sqlite3_bind_int64(handle, index, longs[slot]);
+                break;
+            case BIND_TYPE_DOUBLE:
+                errcode = sqlite3_bind_double(handle, index, doubles[slot]);
+                break;
+            case BIND_TYPE_STRING: {
+                jstring value = (jstring) env->GetObjectArrayElement(objects, slot);
+                char const *valueStr = env->GetStringUTFChars(value, 0);
+                errcode = sqlite3_bind_text(handle, index, valueStr, -1, SQLITE_TRANSIENT);
+                env->ReleaseStringUTFChars(value, valueStr);
+                env->DeleteLocalRef(value);
+                break;
+            }
+            case BIND_TYPE_BYTE_ARRAY: {
+                jbyteArray value = (jbyteArray) env->GetObjectArrayElement(objects, slot);
+                jsize length = env->GetArrayLength(value);
+                if (longs[slot] < length) {
+                    length = (jsize) longs[slot];
+                }
+                jbyte *buf = env->GetByteArrayElements(value, 0);
+                errcode = sqlite3_bind_blob(handle, index, buf, length, SQLITE_TRANSIENT);
+                env->ReleaseByteArrayElements(value, buf, JNI_ABORT);
+                env->DeleteLocalRef(value);
+                break;
+            }
+            case BIND_TYPE_BYTE_BUFFER: {
+                jobject value = env->GetObjectArrayElement(objects, slot);
+                void *buf = env->GetDirectBufferAddress(value);
+                errcode = sqlite3_bind_blob(handle, index, buf, (int) longs[slot], SQLITE_TRANSIENT);
+                env->DeleteLocalRef(value);
+                break;
+            }
+            case BIND_TYPE_ZERO_BLOB:
+                errcode = sqlite3_bind_zeroblob(handle, index, (int) longs[slot]);
+                break;
+            default:
+                errcode = sqlite3_bind_null(handle, index);
+                break;
+        }
+        if (SQLITE_OK != errcode) {
+            return errcode;
+        }
+    }
+    return SQLITE_OK;
+}
+
+// keep in sync with SQLiteCursor.WINDOW_*
+#define WINDOW_HEADER_SIZE 16
+#define WINDOW_FLAG_DONE 1
+#define WINDOW_FLAG_PENDING 2
+#define WINDOW_FLAG_BUSY 4
+
+uint32_t window_row_size(sqlite3_stmt *handle, int columnCount, std::vector<int> &types) {
+    uint32_t size = 0;
+    for (int a = 0; a < columnCount; a++) {
+        int type = sqlite3_column_type(handle, a);
+        types[a] = type;
+        if (SQLITE_INTEGER == type || SQLITE_FLOAT == type) {
+            size += 8;
+        } else if (SQLITE_TEXT == type) {
+            sqlite3_column_text(handle, a);
+            size += 4 + sqlite3_column_bytes(handle, a);
+        } else if (SQLITE_BLOB == type) {
+            sqlite3_column_blob(handle, a);
+            size += 4 + sqlite3_column_bytes(handle, a);
+        }
+    }
+    return size;
+}
+
+void window_write_row(NativeByteBuffer *buffer, sqlite3_stmt *handle, int columnCount,
+                      std::vector<int> &types, std::vector<int32_t> &cells) {
+    for (int a = 0; a < columnCount; a++) {
+        int type = types[a];
+        cells.push_back(type);
+        cells.push_back(SQLITE_NULL == type ? 0 : buffer->position());
+        if (SQLITE_INTEGER == type) {
+            buffer->writeInt64(sqlite3_column_int64(handle, a));
+        } else if (SQLITE_FLOAT == type) {
+            buffer->writeDouble(sqlite3_column_double(handle, a));
+        } else if (SQLITE_TEXT == type || SQLITE_BLOB == type) {
+            const uint8_t *data = SQLITE_TEXT == type ? sqlite3_column_text(handle, a) : (const uint8_t *) sqlite3_column_blob(handle, a);
+            uint32_t length = (uint32_t) sqlite3_column_bytes(handle, a);
+            buffer->writeInt32(length);
+            if (length > 0) {
+                buffer->writeBytes((uint8_t *) data, length);
+            }
+        }
+    }
+}
+
+jlong column_long(sqlite3_stmt *handle, int column) {
+    return sqlite3_column_int64(handle, column);
+}
+
+jint column_int(sqlite3_stmt *handle, int column) {
+    return sqlite3_column_int(handle, column);
+}
+
+jdouble column_double(sqlite3_stmt *handle, int column) {
+    return sqlite3_column_double(handle, column);
+}
+
+// steps rows until the array is full or the statement is done,
+// returns the number of stored values or -1 - count if the database was busy
+template<typename T, typename A>
+jint drain_column(JNIEnv *env, sqlite3_stmt *handle, jint column, A array, jint offset,
+                  jboolean hasPendingRow, T (*get)(sqlite3_stmt *, int),
+                  void (JNIEnv::*setRegion)(A, jsize, jsize, const T *)) {
+    const int chunkSize = 256;
+    T chunk[chunkSize];
+    int chunkCount = 0;
+    jsize length = env->GetArrayLength(array);
+    jint position = offset;
+    bool pending = hasPendingRow;
+    bool busy = false;
+    while (position + chunkCount < length) {
+        if (!pending) {
+            int errcode = sqlite3_step(handle);
+            if (SQLITE_DONE == errcode) {
+                break;
+            } else if (SQLITE_BUSY == errcode) {
+                busy = true;
+                break;
+            } else if (SQLITE_ROW != errcode) {
+                (env->*setRegion)(array, position, chunkCount, chunk);
+                throw_sqlite3_exception(env, sqlite3_db_handle(handle), errcode);
+                return 0;
+            }
+        }
+        pending = false;
+        chunk[chunkCount++] = get(handle, column);
+        if (chunkCount == chunkSize) {
+            (env->*setRegion)(array, position, chunkCount, chunk);
+            position += chunkCount;
+            chunkCount = 0;
+        }
+    }
+    if (chunkCount > 0) {
+        (env->*setRegion)(array, position, chunkCount, chunk);
+        position += chunkCount;
+    }
+    jint count = position - offset;
+    return busy ? -1 - count : count;
+}
+
+// keep in sync with SQLiteBusyPolicy.MODE_*
+#define BUSY_MODE_NONE 0
+#define BUSY_MODE_TIMEOUT 1
+#define BUSY_MODE_BACKOFF 2
+
+struct BusyState {
+    int initialDelayMs = 1;
+    int maxDelayMs = 100;
+    int timeoutMs = 0;
+    int64_t waitStartNs = 0;
+    std::atomic<int64_t> waitCount;
+    std::atomic<int64_t> blockedNs;
+
+    BusyState() : waitCount(0), blockedNs(0) {
+    }
+};
+
+int64_t monotonic_ns() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t) ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+int busy_backoff_handler(void *data, int count) {
+    BusyState *state = (BusyState *) data;
+    int64_t now = monotonic_ns();
+    if (count == 0) {
+        state->waitStartNs = now;
+    }
+    int64_t waitedMs = (now - state->waitStartNs) / 1000000;
+    if (waitedMs >= state->timeoutMs) {
+        return 0;
+    }
+    int64_t delay = state->maxDelayMs;
+    if (count < 30) {
+        delay = std::min((int64_t) state->initialDelayMs << count, (int64_t) state->maxDelayMs);
+    }
+    // equal jitter, a random delay in the upper half, keeps waiting connections from waking in lockstep
+    delay = delay / 2 + rand() % (delay / 2 + 1);
+    if (waitedMs + delay > state->timeoutMs) {
+        delay = state->timeoutMs - waitedMs;
+    }
+    usleep((useconds_t) (delay * 1000));
+    state->waitCount++;
+    state->blockedNs += monotonic_ns() - now;
+    return 1;
+}
+
+// keep in sync with SQLiteDatabase.GUARD_*
+enum GuardReason {
+    GUARD_NONE = 0,
+    GUARD_CANCELLED = 1,
+    GUARD_DEADLINE = 2
+};
+
+struct GuardState {
+    std::atomic<int64_t> deadlineNs;
+    std::atomic<bool> cancelled;
+    std::atomic<int> reason;
+
+    GuardState() : deadlineNs(0), cancelled(false), reason(GUARD_NONE) {
+    }
+};
+
+int guard_progress_handler(void *data) {
+    GuardState *state = (GuardState *) data;
+    if (state->cancelled.load(std::memory_order_relaxed)) {
+        state->reason = GUARD_CANCELLED;
+        return 1;
+    }
+    int64_t deadline = state->deadlineNs.load(std::memory_order_relaxed);
+    if (deadline != 0 && monotonic_ns() >= deadline) {
+        state->reason = GUARD_DEADLINE;
+        return 1;
+    }
+    return 0;
+}
+
+struct WalState {
+    jobject manager = nullptr;
+    jmethodID onWalThreshold = nullptr;
+    std::atomic<int> thresholdFrames;
+    std::atomic<int> frames;
+    std::atomic<int64_t> commits;
+    std::atomic<bool> pending;
+    int autocheckpointFrames = 0;
+
+    WalState() : thresholdFrames(0), frames(0), commits(0), pending(false) {
+    }
+};
+
+int wal_hook(void *data, sqlite3 *handle, const char *dbName, int pages) {
+    WalState *state = (WalState *) data;
+    state->frames = pages;
+    state->commits++;
+    if (pages >= state->thresholdFrames && !state->pending.exchange(true)) {
+        JNIEnv *env = nullptr;
+        if (java->GetEnv((void **) &env, JNI_VERSION_1_6) == JNI_OK) {
+            env->CallVoidMethod(state->manager, state->onWalThreshold, (jint) pages);
+            if (env->ExceptionCheck()) {
+                env->ExceptionClear();
+                state->pending = false;
+            }
+        } else {
+            state->pending = false;
+        }
+    }
+    return SQLITE_OK;
+}
+
+struct FunctionState {
+    jobject binding = nullptr;
+    jobject context = nullptr;
+    jbyteArray types = nullptr;
+    jlongArray longs = nullptr;
+    jdoubleArray doubles = nullptr;
+    int capacity = 0;
+};
+
+jmethodID jmethod_onCall = nullptr;
+jmethodID jmethod_onCreateState = nullptr;
+jmethodID jmethod_onStep = nullptr;
+jmethodID jmethod_onFinal = nullptr;
+jfieldID jfield_bindingContext = nullptr;
+jfieldID jfield_contextTypes = nullptr;
+jfieldID jfield_contextLongs = nullptr;
+jfieldID jfield_contextDoubles = nullptr;
+
+// functions run on the thread stepping the statement, the env of every thread is looked up once
+thread_local JNIEnv *functionEnv = nullptr;
+
+JNIEnv *function_env() {
+    if (functionEnv == nullptr) {
+        JNIEnv *env = nullptr;
+        if (java->GetEnv((void **) &env, JNI_VERSION_1_6) == JNI_OK) {
+            functionEnv = env;
+        }
+    }
+    return functionEnv;
+}
+
+void function_init_ids(JNIEnv *env, jobject binding) {
+    if (jmethod_onCall != nullptr) {
+        return;
+    }
+    jclass bindingClass = env->GetObjectClass(binding);
+    jmethod_onCreateState = env->GetMethodID(bindingClass, "onCreateState", "()Ljava/lang/Object;");
+    jmethod_onStep = env->GetMethodID(bindingClass, "onStep", "(Ljava/lang/Object;JJI)V");
+    jmethod_onFinal = env->GetMethodID(bindingClass, "onFinal", "(Ljava/lang/Object;J)V");
+    jfield_bindingContext = env->GetFieldID(bindingClass, "context", "Lcom/thelqn/sqlite3/SQLiteFunctionContext;");
+    jclass contextClass = env->FindClass("com/thelqn/sqlite3/SQLiteFunctionContext");
+    jfield_contextTypes = env->GetFieldID(contextClass, "types", "[B");
+    jfield_contextLongs = env->GetFieldID(contextClass, "longs", "[J");
+    jfield_contextDoubles = env->GetFieldID(contextClass, "doubles", "[D");
+    jmethod_onCall = env->GetMethodID(bindingClass, "onCall", "(JJI)V");
+}
+
+void function_load_arguments(JNIEnv *env, FunctionState *state, int argc, sqlite3_value **argv) {
+    if (argc > state->capacity) {
+        int capacity = std::max(argc, state->capacity * 2);
+        jbyteArray types = env->NewByteArray(capacity);
+        jlongArray longs = env->NewLongArray(capacity);
+        jdoubleArray doubles = env->NewDoubleArray(capacity);
+        env->SetObjectField(state->context, jfield_contextTypes, types);
+        env->SetObjectField(state->context, jfield_contextLongs, longs);
+        env->SetObjectField(state->context, jfield_contextDoubles, doubles);
+        env->DeleteGlobalRef(state->types);
+        env->DeleteGlobalRef(state->longs);
+        env->DeleteGlobalRef(state->doubles);
+        state->types = (jbyteArray) env->NewGlobalRef(types);
+        state->longs = (jlongArray) env->NewGlobalRef(longs);
+        state->doubles = (jdoubleArray) env->NewGlobalRef(doubles);
+        env->DeleteLocalRef(types);
+        env->DeleteLocalRef(longs);
+        env->DeleteLocalRef(doubles);
+        state->capacity = capacity;
+    }
+    if (argc == 0) {
+        return;
+    }
+    jbyte types[16];
+    jlong longs[16];
+    jdouble doubles[16];
+    std::vector<jbyte> typesHeap;
+    std::vector<jlong> longsHeap;
+    std::vector<jdouble> doublesHeap;
+    jbyte *typesPtr = types;
+    jlong *longsPtr = longs;
+    jdouble *doublesPtr = doubles;
+    if (argc > 16) {
+        typesHeap.resize((size_t) argc);
+        longsHeap.resize((size_t) argc);
+        doublesHeap.resize((size_t) argc);
+        typesPtr = typesHeap.data();
+        longsPtr = longsHeap.data();
+        doublesPtr = doublesHeap.data();
+    }
+    for (int a = 0; a < argc; a++) {
+        int type = sqlite3_value_type(argv[a]);
+        typesPtr[a] = (jbyte) type;
+        if (type == SQLITE_INTEGER || type == SQLITE_FLOAT) {
+            longsPtr[a] = sqlite3_value_int64(argv[a]);
+            doublesPtr[a] = sqlite3_value_double(argv[a]);
+        } else {
+            longsPtr[a] = 0;
+            doublesPtr[a] = 0;
+        }
+    }
+    env->SetByteArrayRegion(state->types, 0, argc, typesPtr);
+    env->SetLongArrayRegion(state->longs, 0, argc, longsPtr);
+    env->SetDoubleArrayRegion(state->doubles, 0, argc, doublesPtr);
+}
+
+bool function_check_exception(JNIEnv *env, sqlite3_context *context) {
+    if (env->ExceptionCheck()) {
+        env->ExceptionClear();
+        sqlite3_result_error(context, "java exception in function", -1);
+        return true;
+    }
+    return false;
+}
+
+void function_call(sqlite3_context *context, int argc, sqlite3_value **argv) {
+    FunctionState *state = (FunctionState *) sqlite3_user_data(context);
+    JNIEnv *env = function_env();
+    if (env == nullptr) {
+        sqlite3_result_error(context, "function called on a thread not attached to the vm", -1);
+        return;
+    }
+    function_load_arguments(env, state, argc, argv);
+    env->CallVoidMethod(state->binding, jmethod_onCall, (jlong) (intptr_t) context, (jlong) (intptr_t) argv, (jint) argc);
+    function_check_exception(env, context);
+}
+
+void aggregate_step(sqlite3_context *context, int argc, sqlite3_value **argv) {
+    FunctionState *state = (FunctionState *) sqlite3_user_data(context);
+    JNIEnv *env = function_env();
+    if (env == nullptr) {
+        sqlite3_result_error(context, "function called on a thread not attached to the vm", -1);
+        return;
+    }
+    jobject *slot = (jobject *) sqlite3_aggregate_context(context, sizeof(jobject));
+    if (slot == nullptr) {
+        sqlite3_result_error_nomem(context);
+        return;
+    }
+    if (*slot == nullptr) {
+        jobject groupState = env->CallObjectMethod(state->binding, jmethod_onCreateState);
+        if (function_check_exception(env, context)) {
+            return;
+        }
+        *slot = env->NewGlobalRef(groupState);
+        env->DeleteLocalRef(groupState);
+    }
+    function_load_arguments(env, state, argc, argv);
+    env->CallVoidMethod(state->binding, jmethod_onStep, *slot, (jlong) (intptr_t) context, (jlong) (intptr_t) argv, (jint) argc);
+    function_check_exception(env, context);
+}
+
+void aggregate_final(sqlite3_context *context) {
+    FunctionState *state = (FunctionState *) sqlite3_user_data(context);
+    JNIEnv *env = function_env();
+    if (env == nullptr) {
+        sqlite3_result_error(context, "function called on a thread not attached to the vm", -1);
+        return;
+    }
+    jobject *slot = (jobject *) sqlite3_aggregate_context(context, 0);
+    jobject groupState = slot != nullptr ? *slot : nullptr;
+    bool emptyGroup = groupState == nullptr;
+    if (emptyGroup) {
+        groupState = env->CallObjectMethod(state->binding, jmethod_onCreateState);
+        if (function_check_exception(env, context)) {
+            return;
+        }
+    }
+    env->CallVoidMethod(state->binding, jmethod_onFinal, groupState, (jlong) (intptr_t) context);
+    function_check_exception(env, context);
+    if (emptyGroup) {
+        env->DeleteLocalRef(groupState);
+    } else {
+        env->DeleteGlobalRef(groupState);
+        *slot = nullptr;
+    }
+}
+
+void function_destroy(void *data) {
+    FunctionState *state = (FunctionState *) data;
+    JNIEnv *env = function_env();
+    if (env != nullptr) {
+        env->DeleteGlobalRef(state->binding);
+        env->DeleteGlobalRef(state->context);
+        env->DeleteGlobalRef(state->types);
+        env->DeleteGlobalRef(state->longs);
+        env->DeleteGlobalRef(state->doubles);
+    }
+    delete state;
+}
+
+// rowids kept per table and transaction, past that the table is reported as fully changed
+#define CHANGE_FEED_MAX_ROWIDS 16384
+
+struct TableChanges {
+    std::string table;
+    std::vector<sqlite3_int64> rowIds;
+    bool overflow = false;
+};
+
+struct ChangeFeedState {
+    jobject feed = nullptr;
+    std::mutex mutex;
+    bool allTables = false;
+    std::vector<std::string> tables;
+    std::vector<TableChanges> transaction;
+    std::vector<TableChanges> committed;
+};
+
+jfieldID jfield_commitPending = nullptr;
+
+TableChanges *change_feed_table(std::vector<TableChanges> &changes, const char *table) {
+    for (size_t a = 0; a < changes.size(); a++) {
+        if (sqlite3_stricmp(changes[a].table.c_str(), table) == 0) {
+            return &changes[a];
+        }
+    }
+    changes.emplace_back();
+    changes.back().table = table;
+    return &changes.back();
+}
+
+void change_feed_add(TableChanges *changes, sqlite3_int64 rowId) {
+    if (changes->overflow) {
+        return;
+    }
+    if (changes->rowIds.size() >= CHANGE_FEED_MAX_ROWIDS) {
+        changes->overflow = true;
+        std::vector<sqlite3_int64>().swap(changes->rowIds);
+        return;
+    }
+    changes->rowIds.push_back(rowId);
+}
+
+void change_feed_update(void *data, int op, const char *dbName, const char *table, sqlite3_int64 rowId) {
+    ChangeFeedState *state = (ChangeFeedState *) data;
+    std::lock_guard<std::mutex> lock(state->mutex);
+    if (!state->allTables) {
+        bool subscribed = false;
+        for (size_t a = 0; a < state->tables.size(); a++) {
+            if (sqlite3_stricmp(state->tables[a].c_str(), table) == 0) {
+                subscribed = true;
+                break;
+            }
+        }
+        if (!subscribed) {
+            return;
+        }
+    }
+    change_feed_add(change_feed_table(state->transaction, table), rowId);
+}
+
+int change_feed_commit(void *data) {
+    ChangeFeedState *state = (ChangeFeedState *) data;
+    bool pending;
+    {
+        std::lock_guard<std::mutex> lock(state->mutex);
+        for (size_t a = 0; a < state->transaction.size(); a++) {
+            TableChanges &changes = state->transaction[a];
+            TableChanges *target = change_feed_table(state->committed, changes.table.c_str());
+            if (changes.overflow) {
+                target->overflow = true;
+                std::vector<sqlite3_int64>().swap(target->rowIds);
+            } else {
+                for (size_t b = 0; b < changes.rowIds.size(); b++) {
+                    change_feed_add(target, changes.rowIds[b]);
+                }
+            }
+        }
+        state->transaction.clear();
+        pending = !state->committed.empty();
+    }
+    if (pending) {
+        JNIEnv *env = function_env();
+        if (env != nullptr) {
+            env->SetBooleanField(state->feed, jfield_commitPending, JNI_TRUE);
+        }
+    }
+    return 0;
+}
+
+void change_feed_rollback(void *data) {
+    ChangeFeedState *state = (ChangeFeedState *) data;
+    std::lock_guard<std::mutex> lock(state->mutex);
+    // committed is dropped as well: it is delivered as soon as the committing statement returns,
+    // so anything left there belongs to a commit that failed and is now rolled back
+    state->transaction.clear();
+    state->committed.clear();
+}
+
+int read_tables_authorizer(void *data, int action, const char *arg1, const char *arg2,
+                           const char *dbName, const char *trigger) {
+    if (action != SQLITE_READ || arg1 == nullptr || sqlite3_strnicmp(arg1, "sqlite_", 7) == 0) {
+        return SQLITE_OK;
+    }
+    std::vector<std::string> *tables = (std::vector<std::string> *) data;
+    for (size_t a = 0; a < tables->size(); a++) {
+        if (sqlite3_stricmp((*tables)[a].c_str(), arg1) == 0) {
+            return SQLITE_OK;
+        }
+    }
+    tables->push_back(arg1);
+    return SQLITE_OK;
+}
+
+// keep in sync with SQLiteTraceStats.BUCKET_COUNT
+#define TRACE_BUCKETS 128
+#define TRACE_MAX_FINGERPRINTS 1024
+#define TRACE_MAX_STATEMENTS 1024
+
+struct TraceStats {
+    std::string fingerprint;
+    std::atomic<uint64_t> count;
+    std::atomic<uint64_t> rows;
+    std::atomic<uint64_t> totalNanos;
+    std::atomic<uint64_t> maxNanos;
+    std::atomic<uint32_t> buckets[TRACE_BUCKETS];
+
+    TraceStats() : count(0), rows(0), totalNanos(0), maxNanos(0) {
+        for (int a = 0; a < TRACE_BUCKETS; a++) {
+            buckets[a].store(0, std::memory_order_relaxed);
+        }
+    }
+};
+
+struct TraceStatement {
+    std::string sql;
+    TraceStats *stats = nullptr;
+    uint64_t rows = 0;
+};
+
+struct TraceState {
+    sqlite3 *handle = nullptr;
+    std::mutex mutex;
+    std::unordered_map<std::string, TraceStats *> fingerprints;
+    std::vector<TraceStats *> stats;
+    std::unordered_map<sqlite3_stmt *, TraceStatement> statements;
+    sqlite3_stmt *lastStmt = nullptr;
+    TraceStatement *lastStatement = nullptr;
+    std::atomic<int64_t> slowNanos;
+    std::atomic<int64_t> captureNanos;
+    jobject tracer = nullptr;
+    jmethodID onSlowStatement = nullptr;
+    bool enabled = false;
+
+    TraceState() : slowNanos(0), captureNanos(0) {
+    }
+
+    ~TraceState() {
+        for (size_t a = 0; a < stats.size(); a++) {
+            delete stats[a];
+        }
+    }
+};
+
+bool trace_is_ident(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || (c & 0x80) != 0;
+}
+
+void trace_append_param(std::string &out) {
+    // collapse lists of parameters like IN (?, ?, ?) into a single one
+    size_t length = out.size();
+    if ((length >= 2 && out[length - 2] == '?' && out[length - 1] == ',') ||
+        (length >= 3 && out[length - 3] == '?' && out[length - 2] == ',' && out[length - 1] == ' ')) {
+        out.resize(out[length - 1] == ',' ? length - 1 : length - 2);
+        return;
+    }
+    out += '?';
+}
+
+// replaces literals and named parameters with ?, drops comments and collapses whitespace
+std::string trace_fingerprint(const char *sql) {
+    std::string out;
+    out.reserve(strlen(sql));
+    bool space = false;
+    const char *c = sql;
+    while (*c) {
+        if (*c == ' ' || *c == '\t' || *c == '\n' || *c == '\r') {
+            space = true;
+            c++;
+            continue;
+        }
+        if (c[0] == '-' && c[1] == '-') {
+            while (*c && *c != '\n') {
+                c++;
+            }
+            space = true;
+            continue;
+        }
+        if (c[0] == '/' && c[1] == '*') {
+            c += 2;
+            while (*c && !(c[0] == '*' && c[1] == '/')) {
+                c++;
+            }
+            if (*c) {
+                c += 2;
+            }
+            space = true;
+            continue;
+        }
+        if (space && !out.empty()) {
+            out += ' ';
+        }
+        space = false;
+        char prev = out.empty() ? ' ' : out[out.size() - 1];
+        if ((*c == 'x' || *c == 'X') && c[1] == '\'' && !trace_is_ident(prev)) {
+            // blob literal
+            c++;
+        }
+        if (*c == '\'') {
+            c++;
+            while (*c) {
+                if (c[0] == '\'' && c[1] == '\'') {
+                    c += 2;
+                } else if (*c == '\'') {
+                    c++;
+                    break;
+                } else {
+                    c++;
+                }
+            }
+            trace_append_param(out);
+        } else if (*c == '"' || *c == '`' || *c == '[') {
+            char end = *c == '[' ? ']' : *c;
+            const char *start = c++;
+            while (*c && *c != end) {
+                c++;
+            }
+            if (*c) {
+                c++;
+            }
+            out.append(start, c - start);
+        } else if ((*c >= '0' && *c <= '9' && !trace_is_ident(prev)) || (*c == '.' && c[1] >= '0' && c[1] <= '9' && !trace_is_ident(prev))) {
+            while (trace_is_ident(*c) || *c == '.' || ((*c == '+' || *c == '-') && (c[-1] == 'e' || c[-1] == 'E'))) {
+                c++;
+            }
+            trace_append_param(out);
+        } else if (*c == '?' || ((*c == ':' || *c == '@' || *c == '$') && trace_is_ident(c[1]))) {
+            c++;
+            while (trace_is_ident(*c)) {
+                c++;
+            }
+            trace_append_param(out);
+        } else {
+            out += *c;
+            c++;
+        }
+    }
+    while (!out.empty() && (out[out.size() - 1] == ';' || out[out.size() - 1] == ' ')) {
+        out.resize(out.size() - 1);
+    }
+    return out;
+}
+
+TraceStats *trace_stats(TraceState *state, const std::string &fingerprint) {
+    std::lock_guard<std::mutex> lock(state->mutex);
+    auto iterator = state->fingerprints.find(fingerprint);
+    if (iterator != state->fingerprints.end()) {
+        return iterator->second;
+    }
+    TraceStats *stats = new TraceStats();
+    if (state->fingerprints.size() >= TRACE_MAX_FINGERPRINTS) {
+        stats->fingerprint = "<other>";
+        auto other = state->fingerprints.find(stats->fingerprint);
+        if (other != state->fingerprints.end()) {
+            delete stats;
+            return other->second;
+        }
+    } else {
+        stats->fingerprint = fingerprint;
+    }
+    state->fingerprints[stats->fingerprint] = stats;
+    state->stats.push_back(stats);
+    return stats;
+}
+
+TraceStatement *trace_statement(TraceState *state, sqlite3_stmt *stmt, bool validate) {
+    TraceStatement *statement = nullptr;
+    if (stmt == state->lastStmt) {
+        statement = state->lastStatement;
+    } else {
+        auto iterator = state->statements.find(stmt);
+        if (iterator != state->statements.end()) {
+            statement = &iterator->second;
+        }
+    }
+    const char *sql = sqlite3_sql(stmt);
+    if (sql == nullptr) {
+        return nullptr;
+    }
+    if (statement == nullptr || (validate && statement->sql != sql)) {
+        // a handle can be reused by sqlite for a statement with different sql after finalize
+        if (statement == nullptr && state->statements.size() >= TRACE_MAX_STATEMENTS) {
+            state->statements.clear();
+        }
+        statement = &state->statements[stmt];
+        statement->sql = sql;
+        statement->stats = trace_stats(state, trace_fingerprint(sql));
+        statement->rows = 0;
+    }
+    state->lastStmt = stmt;
+    state->lastStatement = statement;
+    return statement;
+}
+
+int trace_bucket(uint64_t nanos) {
+    uint64_t micros = nanos / 1000;
+    if (micros < 4) {
+        return (int) micros;
+    }
+    int msb = 63 - __builtin_clzll(micros);
+    int index = (msb - 1) * 4 + (int) ((micros >> (msb - 2)) & 3);
+    return index < TRACE_BUCKETS ? index : TRACE_BUCKETS - 1;
+}
+
+void trace_record(TraceStats *stats, uint64_t nanos, uint64_t rows) {
+    stats->count.fetch_add(1, std::memory_order_relaxed);
+    stats->rows.fetch_add(rows, std::memory_order_relaxed);
+    stats->totalNanos.fetch_add(nanos, std::memory_order_relaxed);
+    stats->buckets[trace_bucket(nanos)].fetch_add(1, std::memory_order_relaxed);
+    uint64_t max = stats->maxNanos.load(std::memory_order_relaxed);
+    while (nanos > max && !stats->maxNanos.compare_exchange_weak(max, nanos, std::memory_order_relaxed)) {
+    }
+}
+
+void trace_capture(TraceState *state, sqlite3_stmt *stmt, sqlite3_int64 nanos, uint64_t rows) {
+    JNIEnv *env = nullptr;
+    if (state->tracer == nullptr || java->GetEnv((void **) &env, JNI_VERSION_1_6) != JNI_OK) {
+        return;
+    }
+    // the argument types are recorded by the Java statement that bound them
+    jstring sqlStr = env->NewStringUTF(sqlite3_sql(stmt));
+    env->CallVoidMethod(state->tracer, state->onSlowStatement, sqlStr, (jlong) (intptr_t) stmt, (jlong) nanos, (jlong) rows);
+    if (env->ExceptionCheck()) {
+        env->ExceptionClear();
+    }
+    env->DeleteLocalRef(sqlStr);
+}
+
+int trace_callback(unsigned type, void *data, void *p, void *x) {
+    TraceState *state = (TraceState *) data;
+    sqlite3_stmt *stmt = (sqlite3_stmt *) p;
+    if (type == SQLITE_TRACE_ROW) {
+        TraceStatement *statement = trace_statement(state, stmt, false);
+        if (statement != nullptr) {
+            statement->rows++;
+        }
+    } else if (type == SQLITE_TRACE_STMT) {
+        const char *text = (const char *) x;
+        if (text != nullptr && text[0] == '-' && text[1] == '-') {
+            // trigger program, counted with the statement that fired it
+            return 0;
+        }
+        TraceStatement *statement = trace_statement(state, stmt, true);
+        if (statement != nullptr) {
+            statement->rows = 0;
+        }
+    } else if (type == SQLITE_TRACE_PROFILE) {
+        TraceStatement *statement = trace_statement(state, stmt, false);
+        if (statement == nullptr) {
+            return 0;
+        }
+        sqlite3_int64 nanos = *(sqlite3_int64 *) x;
+        trace_record(statement->stats, (uint64_t) nanos, statement->rows);
+        int64_t slowNanos = state->slowNanos.load(std::memory_order_relaxed);
+        if (slowNanos > 0 && nanos >= slowNanos) {
+            __android_log_print(ANDROID_LOG_DEBUG, APPNAMEFORLOG, "sqlite query %s took %lld ms, %llu rows",
+                                statement->stats->fingerprint.c_str(), (long long) (nanos / 1000000),
+                                (unsigned long long) statement->rows);
+        }
+        int64_t captureNanos = state->captureNanos.load(std::memory_order_relaxed);
+        if (captureNanos > 0 && nanos >= captureNanos) {
+            trace_capture(state, stmt, nanos, statement->rows);
+        }
+        statement->rows = 0;
+    }
+    return 0;
+}
+
+// keep in sync with SQLiteStatementStats.INDEX_*
+#define STMT_STATUS_COUNT 7
+
+void stmt_status(sqlite3_stmt *stmt, jlong *out, bool reset) {
+    static const int ops[] = {SQLITE_STMTSTATUS_FULLSCAN_STEP, SQLITE_STMTSTATUS_SORT, SQLITE_STMTSTATUS_AUTOINDEX,
+                              SQLITE_STMTSTATUS_VM_STEP, SQLITE_STMTSTATUS_REPREPARE, SQLITE_STMTSTATUS_RUN};
+    for (int a = 0; a < STMT_STATUS_COUNT - 1; a++) {
+        out[a] = sqlite3_stmt_status(stmt, ops[a], reset ? 1 : 0);
+    }
+    out[STMT_STATUS_COUNT - 1] = sqlite3_stmt_status(stmt, SQLITE_STMTSTATUS_MEMUSED, 0);
+}
+
+int read_columns_authorizer(void *data, int action, const char *arg1, const char *arg2,
+                            const char *dbName, const char *trigger) {
+    if (action != SQLITE_READ || arg1 == nullptr || arg2 == nullptr || arg2[0] == 0 ||
+        sqlite3_strnicmp(arg1, "sqlite_", 7) == 0) {
+        return SQLITE_OK;
+    }
+    std::vector<std::string> *columns = (std::vector<std::string> *) data;
+    for (size_t a = 0; a + 1 < columns->size(); a += 2) {
+        if (sqlite3_stricmp((*columns)[a].c_str(), arg1) == 0 && sqlite3_stricmp((*columns)[a + 1].c_str(), arg2) == 0) {
+            return SQLITE_OK;
+        }
+    }
+    columns->push_back(arg1);
+    columns->push_back(arg2);
+    return SQLITE_OK;
 }
 
 extern "C" {
@@ -76,6 +968,100 @@ JNIEXPORT jint Java_com_thelqn_sqlite3_SQLitePreparedStatement_step(JNIEnv *env,
     return 0;
 }
 
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLitePreparedStatement_bindArguments(JNIEnv *env, jobject object,
+                                                              jlong statementHandle, jint count,
+                                                              jbyteArray types, jlongArray longs,
+                                                              jdoubleArray doubles,
+                                                              jobjectArray objects) {
+    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
+
+    int errcode = sqlite3_reset(handle);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, sqlite3_db_handle(handle), errcode);
+        return;
+    }
+    if (count == 0) {
+        return;
+    }
+
+    jbyte *typesArr = env->GetByteArrayElements(types, 0);
+    jlong *longsArr = env->GetLongArrayElements(longs, 0);
+    jdouble *doublesArr = env->GetDoubleArrayElements(doubles, 0);
+
+    errcode = bind_values(env, handle, typesArr, longsArr, doublesArr, objects, 0, count);
+
+    env->ReleaseDoubleArrayElements(doubles, doublesArr, JNI_ABORT);
+    env->ReleaseLongArrayElements(longs, longsArr, JNI_ABORT);
+    env->ReleaseByteArrayElements(types, typesArr, JNI_ABORT);
+
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, sqlite3_db_handle(handle), errcode);
+    }
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLitePreparedStatement_executeBatch(JNIEnv *env, jobject object,
+                                                             jlong statementHandle,
+                                                             jint columnCount, jint rowCount,
+                                                             jbyteArray types, jlongArray longs,
+                                                             jdoubleArray doubles,
+                                                             jobjectArray objects,
+                                                             jintArray results,
+                                                             jboolean stopOnError) {
+    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
+
+    jbyte *typesArr = env->GetByteArrayElements(types, 0);
+    jlong *longsArr = env->GetLongArrayElements(longs, 0);
+    jdouble *doublesArr = env->GetDoubleArrayElements(doubles, 0);
+    jint *resultsArr = results != nullptr ? env->GetIntArrayElements(results, 0) : nullptr;
+
+    sqlite3_reset(handle);
+
+    int succeeded = 0;
+    int failedCode = SQLITE_OK;
+    int row;
+    for (row = 0; row < rowCount; row++) {
+        int errcode = bind_values(env, handle, typesArr, longsArr, doublesArr, objects,
+                                  row * columnCount, columnCount);
+        if (SQLITE_OK == errcode) {
+            errcode = sqlite3_step(handle);
+            if (SQLITE_ROW == errcode || SQLITE_DONE == errcode) {
+                errcode = SQLITE_OK;
+            }
+        }
+        sqlite3_reset(handle);
+        if (resultsArr != nullptr) {
+            resultsArr[row] = errcode;
+        }
+        if (SQLITE_OK == errcode) {
+            succeeded++;
+        } else if (stopOnError) {
+            failedCode = errcode;
+            row++;
+            break;
+        }
+    }
+    if (resultsArr != nullptr) {
+        for (; row < rowCount; row++) {
+            resultsArr[row] = -1;
+        }
+    }
+    sqlite3_clear_bindings(handle);
+
+    if (resultsArr != nullptr) {
+        env->ReleaseIntArrayElements(results, resultsArr, 0);
+    }
+    env->ReleaseDoubleArrayElements(doubles, doublesArr, JNI_ABORT);
+    env->ReleaseLongArrayElements(longs, longsArr, JNI_ABORT);
+    env->ReleaseByteArrayElements(types, typesArr, JNI_ABORT);
+
+    if (SQLITE_OK != failedCode) {
+        throw_sqlite3_exception(env, sqlite3_db_handle(handle), failedCode);
+    }
+    return succeeded;
+}
+
 JNIEXPORT jlong Java_com_thelqn_sqlite3_SQLitePreparedStatement_prepare(JNIEnv *env, jobject object,
                                                                         jlong sqliteHandle,
                                                                         jstring sql) {
@@ -114,6 +1100,18 @@ JNIEXPORT void Java_com_thelqn_sqlite3_SQLitePreparedStatement_finalize(JNIEnv *
     sqlite3_finalize((sqlite3_stmt *) (intptr_t) statementHandle);
 }
 
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLitePreparedStatement_clearBindings(JNIEnv *env, jobject object,
+                                                              jlong statementHandle) {
+    sqlite3_clear_bindings((sqlite3_stmt *) (intptr_t) statementHandle);
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteStatementCache_finalizeStatement(JNIEnv *env, jclass c,
+                                                               jlong statementHandle) {
+    sqlite3_finalize((sqlite3_stmt *) (intptr_t) statementHandle);
+}
+
 JNIEXPORT void
 Java_com_thelqn_sqlite3_SQLitePreparedStatement_bindByteBuffer(JNIEnv *env, jobject object,
                                                                jlong statementHandle, jint index,
@@ -191,75 +1189,930 @@ JNIEXPORT void Java_com_thelqn_sqlite3_SQLitePreparedStatement_bindNull(JNIEnv *
 }
 
 JNIEXPORT void
-Java_com_thelqn_sqlite3_SQLiteDatabase_closedb(JNIEnv *env, jobject object, jlong sqliteHandle) {
-    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
-    int err = sqlite3_close(handle);
-    if (SQLITE_OK != err) {
-        throw_sqlite3_exception(env, handle, err);
-    }
-}
-
-JNIEXPORT void Java_com_thelqn_sqlite3_SQLiteDatabase_beginTransaction(JNIEnv *env, jobject object,
-                                                                       jlong sqliteHandle) {
-    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
-    sqlite3_exec(handle, "BEGIN", 0, 0, 0);
-}
+Java_com_thelqn_sqlite3_SQLitePreparedStatement_bindZeroBlob(JNIEnv *env, jobject object,
+                                                             jlong statementHandle, jint index,
+                                                             jint length) {
+    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
 
-JNIEXPORT void Java_com_thelqn_sqlite3_SQLiteDatabase_commitTransaction(JNIEnv *env, jobject object,
-                                                                        jlong sqliteHandle) {
-    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
-    sqlite3_exec(handle, "COMMIT", 0, 0, 0);
+    int errcode = sqlite3_bind_zeroblob(handle, index, length);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, sqlite3_db_handle(handle), errcode);
+    }
 }
 
 JNIEXPORT jlong
-Java_com_thelqn_sqlite3_SQLiteDatabase_opendb(JNIEnv *env, jobject object, jstring fileName,
-                                              jstring tempDir) {
-    char const *fileNameStr = env->GetStringUTFChars(fileName, 0);
-    char const *tempDirStr = env->GetStringUTFChars(tempDir, 0);
-
-    if (sqlite3_temp_directory != 0 && strcmp(sqlite3_temp_directory, tempDirStr)) {
-        sqlite3_free(sqlite3_temp_directory);
+Java_com_thelqn_sqlite3_SQLiteDatabase_setBusyPolicy(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                                     jlong busyHandle, jint mode,
+                                                     jint initialDelayMs, jint maxDelayMs,
+                                                     jint timeoutMs) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    BusyState *state = (BusyState *) (intptr_t) busyHandle;
+    if (state == nullptr) {
+        state = new BusyState();
     }
-    if (sqlite3_temp_directory == 0) {
-        sqlite3_temp_directory = sqlite3_mprintf("%s", tempDirStr);
+    if (BUSY_MODE_BACKOFF == mode) {
+        state->initialDelayMs = initialDelayMs;
+        state->maxDelayMs = maxDelayMs;
+        state->timeoutMs = timeoutMs;
+        sqlite3_busy_handler(handle, busy_backoff_handler, state);
+    } else if (BUSY_MODE_TIMEOUT == mode) {
+        sqlite3_busy_timeout(handle, timeoutMs);
+    } else {
+        sqlite3_busy_handler(handle, nullptr, nullptr);
     }
+    return (jlong) (intptr_t) state;
+}
 
-    sqlite3 *handle = 0;
-    int err = sqlite3_open(fileNameStr, &handle);
-    if (SQLITE_OK != err) {
-        throw_sqlite3_exception(env, handle, err);
-    }
-    if (fileNameStr != 0) {
-        env->ReleaseStringUTFChars(fileName, fileNameStr);
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteDatabase_guardArm(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                                jlong guardHandle, jint ops, jlong timeoutNanos,
+                                                jboolean cancelled) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    GuardState *state = (GuardState *) (intptr_t) guardHandle;
+    if (state == nullptr) {
+        state = new GuardState();
     }
-    if (tempDirStr != 0) {
-        env->ReleaseStringUTFChars(tempDir, tempDirStr);
+    state->deadlineNs = timeoutNanos > 0 ? monotonic_ns() + timeoutNanos : 0;
+    state->cancelled = cancelled != 0;
+    state->reason = GUARD_NONE;
+    if (ops > 0) {
+        sqlite3_progress_handler(handle, ops, guard_progress_handler, state);
+    } else {
+        sqlite3_progress_handler(handle, 0, nullptr, nullptr);
     }
-    return (jlong) handle;
+    return (jlong) (intptr_t) state;
 }
 
-JNIEXPORT jint Java_com_thelqn_sqlite3_SQLiteCursor_columnCount(JNIEnv *env, jobject object,
-                                                                jlong statementHandle) {
-    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
-    return sqlite3_column_count(handle);
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteDatabase_guardCancel(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                                   jlong guardHandle) {
+    ((GuardState *) (intptr_t) guardHandle)->cancelled = true;
+    sqlite3_interrupt((sqlite3 *) (intptr_t) sqliteHandle);
 }
 
 JNIEXPORT jint
-Java_com_thelqn_sqlite3_SQLiteCursor_columnType(JNIEnv *env, jobject object, jlong statementHandle,
-                                                jint columnIndex) {
-    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
-    return sqlite3_column_type(handle, columnIndex);
+Java_com_thelqn_sqlite3_SQLiteDatabase_guardReason(JNIEnv *env, jobject object, jlong guardHandle) {
+    GuardState *state = (GuardState *) (intptr_t) guardHandle;
+    int reason = state->reason.load();
+    if (reason == GUARD_NONE && state->cancelled.load()) {
+        // cancelled by sqlite3_interrupt before the progress handler ran
+        reason = GUARD_CANCELLED;
+    }
+    return reason;
 }
 
-JNIEXPORT jint Java_com_thelqn_sqlite3_SQLiteCursor_columnIsNull(JNIEnv *env, jobject object,
-                                                                 jlong statementHandle,
-                                                                 jint columnIndex) {
-    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
-    int valType = sqlite3_column_type(handle, columnIndex);
-    return SQLITE_NULL == valType ? 1 : 0;
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteDatabase_guardRelease(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                                    jlong guardHandle) {
+    sqlite3_progress_handler((sqlite3 *) (intptr_t) sqliteHandle, 0, nullptr, nullptr);
+    delete (GuardState *) (intptr_t) guardHandle;
 }
 
-JNIEXPORT jint Java_com_thelqn_sqlite3_SQLiteCursor_columnIntValue(JNIEnv *env, jobject object,
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteDatabase_busyWaitCount(JNIEnv *env, jobject object, jlong busyHandle) {
+    return ((BusyState *) (intptr_t) busyHandle)->waitCount.load();
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteDatabase_busyBlockedNanos(JNIEnv *env, jobject object,
+                                                        jlong busyHandle) {
+    return ((BusyState *) (intptr_t) busyHandle)->blockedNs.load();
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteDatabase_busyResetStats(JNIEnv *env, jobject object,
+                                                      jlong busyHandle) {
+    BusyState *state = (BusyState *) (intptr_t) busyHandle;
+    state->waitCount = 0;
+    state->blockedNs = 0;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteDatabase_busyRelease(JNIEnv *env, jobject object, jlong busyHandle) {
+    delete (BusyState *) (intptr_t) busyHandle;
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteCheckpointManager_walHookInstall(JNIEnv *env, jobject object,
+                                                               jlong sqliteHandle,
+                                                               jint thresholdFrames,
+                                                               jint autocheckpointFrames) {
+    WalState *state = new WalState();
+    state->autocheckpointFrames = autocheckpointFrames;
+    state->manager = env->NewGlobalRef(object);
+    state->onWalThreshold = env->GetMethodID(env->GetObjectClass(object), "onWalThreshold", "(I)V");
+    state->thresholdFrames = thresholdFrames;
+    sqlite3_wal_hook((sqlite3 *) (intptr_t) sqliteHandle, wal_hook, state);
+    return (jlong) (intptr_t) state;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteCheckpointManager_walHookRelease(JNIEnv *env, jobject object,
+                                                               jlong sqliteHandle, jlong walHandle) {
+    WalState *state = (WalState *) (intptr_t) walHandle;
+    // replaces the hook with the autocheckpoint the connection was configured with
+    sqlite3_wal_autocheckpoint((sqlite3 *) (intptr_t) sqliteHandle, state->autocheckpointFrames);
+    env->DeleteGlobalRef(state->manager);
+    delete state;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteCheckpointManager_walSetThreshold(JNIEnv *env, jobject object,
+                                                                jlong walHandle,
+                                                                jint thresholdFrames) {
+    ((WalState *) (intptr_t) walHandle)->thresholdFrames = thresholdFrames;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteCheckpointManager_walClearPending(JNIEnv *env, jobject object,
+                                                                jlong walHandle) {
+    ((WalState *) (intptr_t) walHandle)->pending = false;
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteCheckpointManager_walFrames(JNIEnv *env, jobject object,
+                                                          jlong walHandle) {
+    return ((WalState *) (intptr_t) walHandle)->frames.load();
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteCheckpointManager_walCommits(JNIEnv *env, jobject object,
+                                                           jlong walHandle) {
+    return ((WalState *) (intptr_t) walHandle)->commits.load();
+}
+
+JNIEXPORT jboolean
+Java_com_thelqn_sqlite3_SQLiteCheckpointManager_checkpoint(JNIEnv *env, jobject object,
+                                                           jlong sqliteHandle, jint mode,
+                                                           jintArray frames) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    int logFrames = -1;
+    int checkpointedFrames = -1;
+    int errcode = sqlite3_wal_checkpoint_v2(handle, nullptr, mode, &logFrames, &checkpointedFrames);
+    jint values[2] = {logFrames, checkpointedFrames};
+    env->SetIntArrayRegion(frames, 0, 2, values);
+    if (SQLITE_BUSY == errcode) {
+        return JNI_FALSE;
+    }
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, handle, errcode);
+        return JNI_FALSE;
+    }
+    return logFrames == checkpointedFrames ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteDatabase_lastInsertRowId(JNIEnv *env, jobject object,
+                                                       jlong sqliteHandle) {
+    return sqlite3_last_insert_rowid((sqlite3 *) (intptr_t) sqliteHandle);
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteDatabase_serialize(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                                 jstring schema) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    char const *schemaStr = env->GetStringUTFChars(schema, 0);
+    sqlite3_int64 size = 0;
+    unsigned char *data = sqlite3_serialize(handle, schemaStr, &size, 0);
+    env->ReleaseStringUTFChars(schema, schemaStr);
+    if (data == nullptr || size > INT32_MAX) {
+        sqlite3_free(data);
+        jclass exClass = env->FindClass("com/thelqn/sqlite3/SQLiteException");
+        env->ThrowNew(exClass, data == nullptr ? "serialize failed" : "database too large to serialize");
+        return 0;
+    }
+    NativeByteBuffer *buffer = BuffersStorage::getInstance().getFreeBuffer((uint32_t) size);
+    memcpy(buffer->bytes(), data, (size_t) size);
+    sqlite3_free(data);
+    return (jlong) (intptr_t) buffer;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteDatabase_deserialize(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                                   jstring schema, jobject data, jint length,
+                                                   jboolean readOnly) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    unsigned char *copy = (unsigned char *) sqlite3_malloc64((sqlite3_uint64) std::max(length, 1));
+    if (copy == nullptr) {
+        throw_sqlite3_exception(env, handle, SQLITE_NOMEM);
+        return;
+    }
+    memcpy(copy, env->GetDirectBufferAddress(data), (size_t) length);
+    // sqlite owns the copy from here on and frees it when the schema is closed or replaced
+    unsigned int flags = SQLITE_DESERIALIZE_FREEONCLOSE;
+    flags |= readOnly ? SQLITE_DESERIALIZE_READONLY : SQLITE_DESERIALIZE_RESIZEABLE;
+    char const *schemaStr = env->GetStringUTFChars(schema, 0);
+    int errcode = sqlite3_deserialize(handle, schemaStr, copy, length, length, flags);
+    env->ReleaseStringUTFChars(schema, schemaStr);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, handle, errcode);
+    }
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteBackup_init(JNIEnv *env, jobject object, jlong destinationHandle,
+                                          jstring destinationName, jlong sourceHandle,
+                                          jstring sourceName) {
+    sqlite3 *destination = (sqlite3 *) (intptr_t) destinationHandle;
+    char const *destinationStr = env->GetStringUTFChars(destinationName, 0);
+    char const *sourceStr = env->GetStringUTFChars(sourceName, 0);
+    sqlite3_backup *backup = sqlite3_backup_init(destination, destinationStr,
+                                                 (sqlite3 *) (intptr_t) sourceHandle, sourceStr);
+    env->ReleaseStringUTFChars(destinationName, destinationStr);
+    env->ReleaseStringUTFChars(sourceName, sourceStr);
+    if (backup == nullptr) {
+        throw_sqlite3_exception(env, destination, sqlite3_errcode(destination));
+        return 0;
+    }
+    return (jlong) (intptr_t) backup;
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteBackup_step(JNIEnv *env, jobject object, jlong backupHandle,
+                                          jint pages) {
+    return sqlite3_backup_step((sqlite3_backup *) (intptr_t) backupHandle, pages);
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteBackup_remaining(JNIEnv *env, jobject object, jlong backupHandle) {
+    return sqlite3_backup_remaining((sqlite3_backup *) (intptr_t) backupHandle);
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteBackup_pageCount(JNIEnv *env, jobject object, jlong backupHandle) {
+    return sqlite3_backup_pagecount((sqlite3_backup *) (intptr_t) backupHandle);
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteBackup_finish(JNIEnv *env, jobject object, jlong backupHandle) {
+    return sqlite3_backup_finish((sqlite3_backup *) (intptr_t) backupHandle);
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteDatabase_createFunction(JNIEnv *env, jobject object,
+                                                      jlong sqliteHandle, jstring name,
+                                                      jint argCount, jint flags, jobject binding,
+                                                      jboolean aggregate) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    function_init_ids(env, binding);
+    FunctionState *state = new FunctionState();
+    state->binding = env->NewGlobalRef(binding);
+    jobject context = env->GetObjectField(binding, jfield_bindingContext);
+    state->context = env->NewGlobalRef(context);
+    jobject types = env->GetObjectField(context, jfield_contextTypes);
+    jobject longs = env->GetObjectField(context, jfield_contextLongs);
+    jobject doubles = env->GetObjectField(context, jfield_contextDoubles);
+    state->types = (jbyteArray) env->NewGlobalRef(types);
+    state->longs = (jlongArray) env->NewGlobalRef(longs);
+    state->doubles = (jdoubleArray) env->NewGlobalRef(doubles);
+    state->capacity = env->GetArrayLength((jarray) types);
+    env->DeleteLocalRef(context);
+    env->DeleteLocalRef(types);
+    env->DeleteLocalRef(longs);
+    env->DeleteLocalRef(doubles);
+
+    char const *nameStr = env->GetStringUTFChars(name, 0);
+    // sqlite calls function_destroy for the state if registering fails
+    int errcode = sqlite3_create_function_v2(handle, nameStr, argCount, SQLITE_UTF8 | flags, state,
+                                             aggregate ? nullptr : function_call,
+                                             aggregate ? aggregate_step : nullptr,
+                                             aggregate ? aggregate_final : nullptr,
+                                             function_destroy);
+    env->ReleaseStringUTFChars(name, nameStr);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, handle, errcode);
+    }
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteDatabase_removeFunction(JNIEnv *env, jobject object,
+                                                      jlong sqliteHandle, jstring name,
+                                                      jint argCount) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    char const *nameStr = env->GetStringUTFChars(name, 0);
+    int errcode = sqlite3_create_function_v2(handle, nameStr, argCount, SQLITE_UTF8, nullptr,
+                                             nullptr, nullptr, nullptr, nullptr);
+    env->ReleaseStringUTFChars(name, nameStr);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, handle, errcode);
+    }
+}
+
+JNIEXPORT jstring
+Java_com_thelqn_sqlite3_SQLiteFunctionContext_valueText(JNIEnv *env, jclass c, jlong argvHandle,
+                                                        jint index) {
+    sqlite3_value **argv = (sqlite3_value **) (intptr_t) argvHandle;
+    const char *text = (const char *) sqlite3_value_text(argv[index]);
+    if (text == nullptr) {
+        return nullptr;
+    }
+    return env->NewStringUTF(text);
+}
+
+JNIEXPORT jobject
+Java_com_thelqn_sqlite3_SQLiteFunctionContext_valueBlob(JNIEnv *env, jclass c, jlong argvHandle,
+                                                        jint index) {
+    sqlite3_value **argv = (sqlite3_value **) (intptr_t) argvHandle;
+    const void *blob = sqlite3_value_blob(argv[index]);
+    int length = sqlite3_value_bytes(argv[index]);
+    if (blob == nullptr || length <= 0) {
+        return nullptr;
+    }
+    return env->NewDirectByteBuffer((void *) blob, length);
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteFunctionContext_resultLong(JNIEnv *env, jclass c,
+                                                         jlong contextHandle, jlong value) {
+    sqlite3_result_int64((sqlite3_context *) (intptr_t) contextHandle, value);
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteFunctionContext_resultDouble(JNIEnv *env, jclass c,
+                                                           jlong contextHandle, jdouble value) {
+    sqlite3_result_double((sqlite3_context *) (intptr_t) contextHandle, value);
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteFunctionContext_resultText(JNIEnv *env, jclass c,
+                                                         jlong contextHandle, jstring value) {
+    char const *valueStr = env->GetStringUTFChars(value, 0);
+    sqlite3_result_text((sqlite3_context *) (intptr_t) contextHandle, valueStr, -1, SQLITE_TRANSIENT);
+    env->ReleaseStringUTFChars(value, valueStr);
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteFunctionContext_resultBlob(JNIEnv *env, jclass c,
+                                                         jlong contextHandle, jbyteArray value,
+                                                         jint length) {
+    jbyte *buf = env->GetByteArrayElements(value, 0);
+    sqlite3_result_blob((sqlite3_context *) (intptr_t) contextHandle, buf, length, SQLITE_TRANSIENT);
+    env->ReleaseByteArrayElements(value, buf, JNI_ABORT);
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteFunctionContext_resultNull(JNIEnv *env, jclass c,
+                                                         jlong contextHandle) {
+    sqlite3_result_null((sqlite3_context *) (intptr_t) contextHandle);
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteFunctionContext_resultError(JNIEnv *env, jclass c,
+                                                          jlong contextHandle, jstring message) {
+    char const *messageStr = env->GetStringUTFChars(message, 0);
+    sqlite3_result_error((sqlite3_context *) (intptr_t) contextHandle, messageStr, -1);
+    env->ReleaseStringUTFChars(message, messageStr);
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteChangeFeed_install(JNIEnv *env, jobject object, jlong sqliteHandle) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    if (jfield_commitPending == nullptr) {
+        jfield_commitPending = env->GetFieldID(env->GetObjectClass(object), "commitPending", "Z");
+    }
+    ChangeFeedState *state = new ChangeFeedState();
+    state->feed = env->NewGlobalRef(object);
+    sqlite3_update_hook(handle, change_feed_update, state);
+    sqlite3_commit_hook(handle, change_feed_commit, state);
+    sqlite3_rollback_hook(handle, change_feed_rollback, state);
+    return (jlong) (intptr_t) state;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteChangeFeed_release(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                                 jlong feedHandle) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    ChangeFeedState *state = (ChangeFeedState *) (intptr_t) feedHandle;
+    sqlite3_update_hook(handle, nullptr, nullptr);
+    sqlite3_commit_hook(handle, nullptr, nullptr);
+    sqlite3_rollback_hook(handle, nullptr, nullptr);
+    env->DeleteGlobalRef(state->feed);
+    delete state;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteChangeFeed_setTables(JNIEnv *env, jobject object, jlong feedHandle,
+                                                   jobjectArray tables, jboolean allTables) {
+    ChangeFeedState *state = (ChangeFeedState *) (intptr_t) feedHandle;
+    std::vector<std::string> names;
+    jsize count = env->GetArrayLength(tables);
+    for (jsize a = 0; a < count; a++) {
+        jstring table = (jstring) env->GetObjectArrayElement(tables, a);
+        char const *tableStr = env->GetStringUTFChars(table, 0);
+        names.push_back(tableStr);
+        env->ReleaseStringUTFChars(table, tableStr);
+        env->DeleteLocalRef(table);
+    }
+    std::lock_guard<std::mutex> lock(state->mutex);
+    state->tables.swap(names);
+    state->allTables = allTables != 0;
+}
+
+JNIEXPORT jobjectArray
+Java_com_thelqn_sqlite3_SQLiteChangeFeed_takeChanges(JNIEnv *env, jobject object,
+                                                     jlong sqliteHandle, jlong feedHandle) {
+    ChangeFeedState *state = (ChangeFeedState *) (intptr_t) feedHandle;
+    std::vector<TableChanges> changes;
+    {
+        std::lock_guard<std::mutex> lock(state->mutex);
+        // a commit that failed with SQLITE_BUSY leaves the transaction open, wait for the retry
+        if (state->committed.empty() || !sqlite3_get_autocommit((sqlite3 *) (intptr_t) sqliteHandle)) {
+            return nullptr;
+        }
+        changes.swap(state->committed);
+    }
+    jsize count = (jsize) changes.size();
+    jobjectArray tables = env->NewObjectArray(count, env->FindClass("java/lang/String"), nullptr);
+    jobjectArray rowIds = env->NewObjectArray(count, env->FindClass("[J"), nullptr);
+    for (jsize a = 0; a < count; a++) {
+        TableChanges &table = changes[a];
+        jstring name = env->NewStringUTF(table.table.c_str());
+        env->SetObjectArrayElement(tables, a, name);
+        env->DeleteLocalRef(name);
+        if (!table.overflow) {
+            std::sort(table.rowIds.begin(), table.rowIds.end());
+            table.rowIds.erase(std::unique(table.rowIds.begin(), table.rowIds.end()), table.rowIds.end());
+            jsize size = (jsize) table.rowIds.size();
+            jlongArray ids = env->NewLongArray(size);
+            env->SetLongArrayRegion(ids, 0, size, (const jlong *) table.rowIds.data());
+            env->SetObjectArrayElement(rowIds, a, ids);
+            env->DeleteLocalRef(ids);
+        }
+    }
+    jobjectArray result = env->NewObjectArray(2, env->FindClass("java/lang/Object"), nullptr);
+    env->SetObjectArrayElement(result, 0, tables);
+    env->SetObjectArrayElement(result, 1, rowIds);
+    return result;
+}
+
+typedef int (*authorizer_callback)(void *, int, const char *, const char *, const char *, const char *);
+
+jobjectArray read_authorized(JNIEnv *env, jlong sqliteHandle, jstring sql, authorizer_callback authorizer) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    std::vector<std::string> names;
+    sqlite3_stmt *stmt = nullptr;
+    char const *sqlStr = env->GetStringUTFChars(sql, 0);
+    sqlite3_set_authorizer(handle, authorizer, &names);
+    int errcode = sqlite3_prepare_v2(handle, sqlStr, -1, &stmt, 0);
+    sqlite3_set_authorizer(handle, nullptr, nullptr);
+    env->ReleaseStringUTFChars(sql, sqlStr);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, handle, errcode);
+        return nullptr;
+    }
+    sqlite3_finalize(stmt);
+    jobjectArray result = env->NewObjectArray((jsize) names.size(), env->FindClass("java/lang/String"), nullptr);
+    for (size_t a = 0; a < names.size(); a++) {
+        jstring name = env->NewStringUTF(names[a].c_str());
+        env->SetObjectArrayElement(result, (jsize) a, name);
+        env->DeleteLocalRef(name);
+    }
+    return result;
+}
+
+JNIEXPORT jobjectArray
+Java_com_thelqn_sqlite3_SQLiteDatabase_readTables(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                                  jstring sql) {
+    return read_authorized(env, sqliteHandle, sql, read_tables_authorizer);
+}
+
+JNIEXPORT jobjectArray
+Java_com_thelqn_sqlite3_SQLiteDatabase_readColumns(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                                   jstring sql) {
+    return read_authorized(env, sqliteHandle, sql, read_columns_authorizer);
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteTracer_install(JNIEnv *env, jobject object, jlong sqliteHandle) {
+    TraceState *state = new TraceState();
+    state->handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    state->tracer = env->NewGlobalRef(object);
+    state->onSlowStatement = env->GetMethodID(env->GetObjectClass(object), "onSlowStatement",
+                                              "(Ljava/lang/String;JJJ)V");
+    return (jlong) (intptr_t) state;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteTracer_setEnabled(JNIEnv *env, jobject object, jlong traceHandle,
+                                               jboolean enabled) {
+    TraceState *state = (TraceState *) (intptr_t) traceHandle;
+    if (state->enabled == (bool) enabled) {
+        return;
+    }
+    state->enabled = enabled;
+    if (enabled) {
+        // handles seen before may have been finalized while tracing was off
+        state->statements.clear();
+        state->lastStmt = nullptr;
+        state->lastStatement = nullptr;
+        sqlite3_trace_v2(state->handle, SQLITE_TRACE_STMT | SQLITE_TRACE_PROFILE | SQLITE_TRACE_ROW,
+                         trace_callback, state);
+    } else {
+        sqlite3_trace_v2(state->handle, 0, nullptr, nullptr);
+    }
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteTracer_setSlowNanos(JNIEnv *env, jobject object, jlong traceHandle,
+                                                 jlong slowNanos) {
+    ((TraceState *) (intptr_t) traceHandle)->slowNanos = slowNanos;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteTracer_setCaptureNanos(JNIEnv *env, jobject object, jlong traceHandle,
+                                                    jlong captureNanos) {
+    ((TraceState *) (intptr_t) traceHandle)->captureNanos = captureNanos;
+}
+
+JNIEXPORT jstring
+Java_com_thelqn_sqlite3_SQLiteTracer_fingerprint(JNIEnv *env, jclass c, jstring sql) {
+    char const *sqlStr = env->GetStringUTFChars(sql, 0);
+    std::string fingerprint = trace_fingerprint(sqlStr);
+    env->ReleaseStringUTFChars(sql, sqlStr);
+    return env->NewStringUTF(fingerprint.c_str());
+}
+
+JNIEXPORT jobjectArray
+Java_com_thelqn_sqlite3_SQLiteTracer_snapshot(JNIEnv *env, jobject object, jlong traceHandle) {
+    TraceState *state = (TraceState *) (intptr_t) traceHandle;
+    std::lock_guard<std::mutex> lock(state->mutex);
+    jsize count = (jsize) state->stats.size();
+    jobjectArray fingerprints = env->NewObjectArray(count, env->FindClass("java/lang/String"), nullptr);
+    jlongArray counters = env->NewLongArray(count * 4);
+    jintArray buckets = env->NewIntArray(count * TRACE_BUCKETS);
+    if (fingerprints == nullptr || counters == nullptr || buckets == nullptr) {
+        return nullptr;
+    }
+    jlong *countersArr = env->GetLongArrayElements(counters, nullptr);
+    jint *bucketsArr = env->GetIntArrayElements(buckets, nullptr);
+    for (jsize a = 0; a < count; a++) {
+        TraceStats *stats = state->stats[a];
+        jstring fingerprint = env->NewStringUTF(stats->fingerprint.c_str());
+        env->SetObjectArrayElement(fingerprints, a, fingerprint);
+        env->DeleteLocalRef(fingerprint);
+        countersArr[a * 4] = (jlong) stats->count.load(std::memory_order_relaxed);
+        countersArr[a * 4 + 1] = (jlong) stats->rows.load(std::memory_order_relaxed);
+        countersArr[a * 4 + 2] = (jlong) stats->totalNanos.load(std::memory_order_relaxed);
+        countersArr[a * 4 + 3] = (jlong) stats->maxNanos.load(std::memory_order_relaxed);
+        for (int b = 0; b < TRACE_BUCKETS; b++) {
+            bucketsArr[a * TRACE_BUCKETS + b] = (jint) stats->buckets[b].load(std::memory_order_relaxed);
+        }
+    }
+    env->ReleaseLongArrayElements(counters, countersArr, 0);
+    env->ReleaseIntArrayElements(buckets, bucketsArr, 0);
+    jobjectArray result = env->NewObjectArray(3, env->FindClass("java/lang/Object"), nullptr);
+    env->SetObjectArrayElement(result, 0, fingerprints);
+    env->SetObjectArrayElement(result, 1, counters);
+    env->SetObjectArrayElement(result, 2, buckets);
+    return result;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteTracer_reset(JNIEnv *env, jobject object, jlong traceHandle) {
+    TraceState *state = (TraceState *) (intptr_t) traceHandle;
+    std::lock_guard<std::mutex> lock(state->mutex);
+    for (size_t a = 0; a < state->stats.size(); a++) {
+        TraceStats *stats = state->stats[a];
+        stats->count.store(0, std::memory_order_relaxed);
+        stats->rows.store(0, std::memory_order_relaxed);
+        stats->totalNanos.store(0, std::memory_order_relaxed);
+        stats->maxNanos.store(0, std::memory_order_relaxed);
+        for (int b = 0; b < TRACE_BUCKETS; b++) {
+            stats->buckets[b].store(0, std::memory_order_relaxed);
+        }
+    }
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteTracer_release(JNIEnv *env, jobject object, jlong traceHandle) {
+    TraceState *state = (TraceState *) (intptr_t) traceHandle;
+    sqlite3_trace_v2(state->handle, 0, nullptr, nullptr);
+    env->DeleteGlobalRef(state->tracer);
+    delete state;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteDatabase_dbStatus(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                               jlongArray values, jboolean reset) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    // keep in sync with SQLiteDbStats.INDEX_*
+    jlong out[17];
+    int current, highwater;
+    int resetFlag = reset ? 1 : 0;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_LOOKASIDE_USED, &current, &highwater, resetFlag);
+    out[0] = current;
+    out[1] = highwater;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_CACHE_USED, &current, &highwater, 0);
+    out[2] = current;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_SCHEMA_USED, &current, &highwater, 0);
+    out[3] = current;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_STMT_USED, &current, &highwater, 0);
+    out[4] = current;
+    // the lookaside counters are reported as the high water mark
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_LOOKASIDE_HIT, &current, &highwater, resetFlag);
+    out[5] = highwater;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_LOOKASIDE_MISS_SIZE, &current, &highwater, resetFlag);
+    out[6] = highwater;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_LOOKASIDE_MISS_FULL, &current, &highwater, resetFlag);
+    out[7] = highwater;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_CACHE_HIT, &current, &highwater, resetFlag);
+    out[8] = current;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_CACHE_MISS, &current, &highwater, resetFlag);
+    out[9] = current;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_CACHE_WRITE, &current, &highwater, resetFlag);
+    out[10] = current;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_CACHE_SPILL, &current, &highwater, resetFlag);
+    out[11] = current;
+    sqlite3_db_status(handle, SQLITE_DBSTATUS_DEFERRED_FKS, &current, &highwater, 0);
+    out[12] = current;
+    sqlite3_int64 current64, highwater64;
+    // process wide, resetting it here would change the numbers every other connection reports
+    sqlite3_status64(SQLITE_STATUS_MEMORY_USED, &current64, &highwater64, 0);
+    out[13] = current64;
+    out[14] = highwater64;
+    sqlite3_status64(SQLITE_STATUS_MALLOC_COUNT, &current64, &highwater64, 0);
+    out[15] = current64;
+    sqlite3_status64(SQLITE_STATUS_PAGECACHE_OVERFLOW, &current64, &highwater64, 0);
+    out[16] = current64;
+    env->SetLongArrayRegion(values, 0, 17, out);
+}
+
+JNIEXPORT jobjectArray
+Java_com_thelqn_sqlite3_SQLiteDatabase_statementStatus(JNIEnv *env, jobject object,
+                                                      jlong sqliteHandle, jboolean reset) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    std::vector<sqlite3_stmt *> statements;
+    for (sqlite3_stmt *stmt = sqlite3_next_stmt(handle, nullptr); stmt != nullptr; stmt = sqlite3_next_stmt(handle, stmt)) {
+        statements.push_back(stmt);
+    }
+    jsize count = (jsize) statements.size();
+    jobjectArray sqls = env->NewObjectArray(count, env->FindClass("java/lang/String"), nullptr);
+    jlongArray counters = env->NewLongArray(count * STMT_STATUS_COUNT);
+    if (sqls == nullptr || counters == nullptr) {
+        return nullptr;
+    }
+    jlong out[STMT_STATUS_COUNT];
+    for (jsize a = 0; a < count; a++) {
+        const char *sql = sqlite3_sql(statements[a]);
+        jstring text = env->NewStringUTF(sql != nullptr ? sql : "");
+        env->SetObjectArrayElement(sqls, a, text);
+        env->DeleteLocalRef(text);
+        stmt_status(statements[a], out, reset);
+        env->SetLongArrayRegion(counters, a * STMT_STATUS_COUNT, STMT_STATUS_COUNT, out);
+    }
+    jobjectArray result = env->NewObjectArray(2, env->FindClass("java/lang/Object"), nullptr);
+    env->SetObjectArrayElement(result, 0, sqls);
+    env->SetObjectArrayElement(result, 1, counters);
+    return result;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLitePreparedStatement_stmtStatus(JNIEnv *env, jobject object,
+                                                          jlong statementHandle, jlongArray values,
+                                                          jboolean reset) {
+    jlong out[STMT_STATUS_COUNT];
+    stmt_status((sqlite3_stmt *) (intptr_t) statementHandle, out, reset);
+    env->SetLongArrayRegion(values, 0, STMT_STATUS_COUNT, out);
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteDatabase_changes(JNIEnv *env, jobject object, jlong sqliteHandle) {
+    return sqlite3_changes((sqlite3 *) (intptr_t) sqliteHandle);
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteDatabase_interrupt(JNIEnv *env, jobject object, jlong sqliteHandle) {
+    sqlite3_interrupt((sqlite3 *) (intptr_t) sqliteHandle);
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteBlob_open(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                        jstring dbName, jstring table, jstring column,
+                                        jlong rowId, jboolean writable) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+
+    char const *dbNameStr = env->GetStringUTFChars(dbName, 0);
+    char const *tableStr = env->GetStringUTFChars(table, 0);
+    char const *columnStr = env->GetStringUTFChars(column, 0);
+
+    sqlite3_blob *blob = nullptr;
+    int errcode = sqlite3_blob_open(handle, dbNameStr, tableStr, columnStr, rowId, writable ? 1 : 0, &blob);
+
+    env->ReleaseStringUTFChars(column, columnStr);
+    env->ReleaseStringUTFChars(table, tableStr);
+    env->ReleaseStringUTFChars(dbName, dbNameStr);
+
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, handle, errcode);
+        return 0;
+    }
+    return (jlong) (intptr_t) blob;
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteBlob_reopen(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                          jlong blobHandle, jlong rowId) {
+    int errcode = sqlite3_blob_reopen((sqlite3_blob *) (intptr_t) blobHandle, rowId);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, (sqlite3 *) (intptr_t) sqliteHandle, errcode);
+    }
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteBlob_bytes(JNIEnv *env, jobject object, jlong blobHandle) {
+    return sqlite3_blob_bytes((sqlite3_blob *) (intptr_t) blobHandle);
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteBlob_readBytes(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                             jlong blobHandle, jbyteArray dst, jint offset,
+                                             jint count, jint blobOffset) {
+    sqlite3_blob *blob = (sqlite3_blob *) (intptr_t) blobHandle;
+    const int chunkSize = 8192;
+    jbyte chunk[chunkSize];
+    while (count > 0) {
+        int length = count < chunkSize ? count : chunkSize;
+        int errcode = sqlite3_blob_read(blob, chunk, length, blobOffset);
+        if (SQLITE_OK != errcode) {
+            throw_sqlite3_exception(env, (sqlite3 *) (intptr_t) sqliteHandle, errcode);
+            return;
+        }
+        env->SetByteArrayRegion(dst, offset, length, chunk);
+        offset += length;
+        blobOffset += length;
+        count -= length;
+    }
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteBlob_readDirect(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                              jlong blobHandle, jobject dst, jint offset,
+                                              jint count, jint blobOffset) {
+    uint8_t *buf = (uint8_t *) env->GetDirectBufferAddress(dst);
+    int errcode = sqlite3_blob_read((sqlite3_blob *) (intptr_t) blobHandle, buf + offset, count, blobOffset);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, (sqlite3 *) (intptr_t) sqliteHandle, errcode);
+    }
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteBlob_writeBytes(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                              jlong blobHandle, jbyteArray src, jint offset,
+                                              jint count, jint blobOffset) {
+    sqlite3_blob *blob = (sqlite3_blob *) (intptr_t) blobHandle;
+    const int chunkSize = 8192;
+    jbyte chunk[chunkSize];
+    while (count > 0) {
+        int length = count < chunkSize ? count : chunkSize;
+        env->GetByteArrayRegion(src, offset, length, chunk);
+        int errcode = sqlite3_blob_write(blob, chunk, length, blobOffset);
+        if (SQLITE_OK != errcode) {
+            throw_sqlite3_exception(env, (sqlite3 *) (intptr_t) sqliteHandle, errcode);
+            return;
+        }
+        offset += length;
+        blobOffset += length;
+        count -= length;
+    }
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteBlob_writeDirect(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                               jlong blobHandle, jobject src, jint offset,
+                                               jint count, jint blobOffset) {
+    uint8_t *buf = (uint8_t *) env->GetDirectBufferAddress(src);
+    int errcode = sqlite3_blob_write((sqlite3_blob *) (intptr_t) blobHandle, buf + offset, count, blobOffset);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, (sqlite3 *) (intptr_t) sqliteHandle, errcode);
+    }
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteBlob_close(JNIEnv *env, jobject object, jlong sqliteHandle,
+                                         jlong blobHandle) {
+    int errcode = sqlite3_blob_close((sqlite3_blob *) (intptr_t) blobHandle);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, (sqlite3 *) (intptr_t) sqliteHandle, errcode);
+    }
+}
+
+JNIEXPORT void
+Java_com_thelqn_sqlite3_SQLiteDatabase_closedb(JNIEnv *env, jobject object, jlong sqliteHandle) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    int err = sqlite3_close(handle);
+    if (SQLITE_OK != err) {
+        throw_sqlite3_exception(env, handle, err);
+    }
+}
+
+JNIEXPORT void Java_com_thelqn_sqlite3_SQLiteDatabase_beginTransaction(JNIEnv *env, jobject object,
+                                                                       jlong sqliteHandle,
+                                                                       jint mode) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    const char *sql = "BEGIN";
+    if (mode == 1) {
+        sql = "BEGIN IMMEDIATE";
+    } else if (mode == 2) {
+        sql = "BEGIN EXCLUSIVE";
+    }
+    int errcode = sqlite3_exec(handle, sql, 0, 0, 0);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, handle, errcode);
+    }
+}
+
+JNIEXPORT void Java_com_thelqn_sqlite3_SQLiteDatabase_commitTransaction(JNIEnv *env, jobject object,
+                                                                        jlong sqliteHandle) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    int errcode = sqlite3_exec(handle, "COMMIT", 0, 0, 0);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, handle, errcode);
+    }
+}
+
+JNIEXPORT void Java_com_thelqn_sqlite3_SQLiteDatabase_rollbackTransaction(JNIEnv *env, jobject object,
+                                                                          jlong sqliteHandle) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    int errcode = sqlite3_exec(handle, "ROLLBACK", 0, 0, 0);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, handle, errcode);
+    }
+}
+
+JNIEXPORT void Java_com_thelqn_sqlite3_SQLiteDatabase_exec(JNIEnv *env, jobject object,
+                                                           jlong sqliteHandle, jstring sql) {
+    sqlite3 *handle = (sqlite3 *) (intptr_t) sqliteHandle;
+    char const *sqlStr = env->GetStringUTFChars(sql, 0);
+    int errcode = sqlite3_exec(handle, sqlStr, 0, 0, 0);
+    env->ReleaseStringUTFChars(sql, sqlStr);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, handle, errcode);
+    }
+}
+
+JNIEXPORT jboolean Java_com_thelqn_sqlite3_SQLiteDatabase_isAutocommit(JNIEnv *env, jobject object,
+                                                                       jlong sqliteHandle) {
+    return sqlite3_get_autocommit((sqlite3 *) (intptr_t) sqliteHandle) != 0 ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteDatabase_opendb(JNIEnv *env, jobject object, jstring fileName,
+                                              jstring tempDir, jint flags, jstring pragmas) {
+    char const *fileNameStr = env->GetStringUTFChars(fileName, 0);
+    char const *tempDirStr = env->GetStringUTFChars(tempDir, 0);
+
+    if (sqlite3_temp_directory != 0 && strcmp(sqlite3_temp_directory, tempDirStr)) {
+        sqlite3_free(sqlite3_temp_directory);
+    }
+    if (sqlite3_temp_directory == 0) {
+        sqlite3_temp_directory = sqlite3_mprintf("%s", tempDirStr);
+    }
+
+    sqlite3 *handle = 0;
+    int err = sqlite3_open_v2(fileNameStr, &handle, flags, 0);
+    if (SQLITE_OK != err) {
+        throw_sqlite3_exception(env, handle, err);
+    } else if (pragmas != nullptr) {
+        char const *pragmasStr = env->GetStringUTFChars(pragmas, 0);
+        err = sqlite3_exec(handle, pragmasStr, 0, 0, 0);
+        env->ReleaseStringUTFChars(pragmas, pragmasStr);
+        if (SQLITE_OK != err) {
+            throw_sqlite3_exception(env, handle, err);
+            sqlite3_close(handle);
+            handle = 0;
+        }
+    }
+    if (fileNameStr != 0) {
+        env->ReleaseStringUTFChars(fileName, fileNameStr);
+    }
+    if (tempDirStr != 0) {
+        env->ReleaseStringUTFChars(tempDir, tempDirStr);
+    }
+    return (jlong) handle;
+}
+
+JNIEXPORT jint Java_com_thelqn_sqlite3_SQLiteCursor_columnCount(JNIEnv *env, jobject object,
+                                                                jlong statementHandle) {
+    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
+    return sqlite3_column_count(handle);
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteCursor_columnType(JNIEnv *env, jobject object, jlong statementHandle,
+                                                jint columnIndex) {
+    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
+    return sqlite3_column_type(handle, columnIndex);
+}
+
+JNIEXPORT jint Java_com_thelqn_sqlite3_SQLiteCursor_columnIsNull(JNIEnv *env, jobject object,
+                                                                 jlong statementHandle,
+                                                                 jint columnIndex) {
+    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
+    int valType = sqlite3_column_type(handle, columnIndex);
+    return SQLITE_NULL == valType ? 1 : 0;
+}
+
+JNIEXPORT jint Java_com_thelqn_sqlite3_SQLiteCursor_columnIntValue(JNIEnv *env, jobject object,
                                                                    jlong statementHandle,
                                                                    jint columnIndex) {
     sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
@@ -317,6 +2170,114 @@ Java_com_thelqn_sqlite3_SQLiteCursor_columnByteArrayValue(JNIEnv *env, jobject o
     return nullptr;
 }
 
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteCursor_drainLongColumn(JNIEnv *env, jobject object,
+                                                     jlong statementHandle, jint columnIndex,
+                                                     jlongArray values, jint offset,
+                                                     jboolean hasPendingRow) {
+    return drain_column(env, (sqlite3_stmt *) (intptr_t) statementHandle, columnIndex, values,
+                        offset, hasPendingRow, column_long, &JNIEnv::SetLongArrayRegion);
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteCursor_drainIntColumn(JNIEnv *env, jobject object,
+                                                    jlong statementHandle, jint columnIndex,
+                                                    jintArray values, jint offset,
+                                                    jboolean hasPendingRow) {
+    return drain_column(env, (sqlite3_stmt *) (intptr_t) statementHandle, columnIndex, values,
+                        offset, hasPendingRow, column_int, &JNIEnv::SetIntArrayRegion);
+}
+
+JNIEXPORT jint
+Java_com_thelqn_sqlite3_SQLiteCursor_drainDoubleColumn(JNIEnv *env, jobject object,
+                                                       jlong statementHandle, jint columnIndex,
+                                                       jdoubleArray values, jint offset,
+                                                       jboolean hasPendingRow) {
+    return drain_column(env, (sqlite3_stmt *) (intptr_t) statementHandle, columnIndex, values,
+                        offset, hasPendingRow, column_double, &JNIEnv::SetDoubleArrayRegion);
+}
+
+JNIEXPORT jlong
+Java_com_thelqn_sqlite3_SQLiteCursor_fetchWindow(JNIEnv *env, jobject object, jlong statementHandle,
+                                                 jint maxRows, jint byteSize,
+                                                 jboolean hasPendingRow) {
+    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
+    int columnCount = sqlite3_column_count(handle);
+    NativeByteBuffer *buffer = BuffersStorage::getInstance().getFreeBuffer((uint32_t) byteSize);
+    if (buffer == nullptr) {
+        return 0;
+    }
+    std::vector<int> types((size_t) columnCount);
+    std::vector<int32_t> cells;
+    cells.reserve((size_t) (maxRows * columnCount * 2));
+
+    buffer->position(WINDOW_HEADER_SIZE);
+    int rowCount = 0;
+    int flags = 0;
+    bool pending = hasPendingRow;
+    while (rowCount < maxRows) {
+        if (!pending) {
+            int errcode = sqlite3_step(handle);
+            if (SQLITE_DONE == errcode) {
+                flags |= WINDOW_FLAG_DONE;
+                break;
+            } else if (SQLITE_BUSY == errcode) {
+                if (rowCount == 0) {
+                    flags |= WINDOW_FLAG_BUSY;
+                }
+                break;
+            } else if (SQLITE_ROW != errcode) {
+                buffer->reuse();
+                throw_sqlite3_exception(env, sqlite3_db_handle(handle), errcode);
+                return 0;
+            }
+        }
+        pending = false;
+        uint32_t rowSize = window_row_size(handle, columnCount, types);
+        uint32_t tableSize = (uint32_t) ((rowCount + 1) * columnCount * 8);
+        if (buffer->position() + rowSize + tableSize > buffer->limit()) {
+            if (rowCount != 0) {
+                flags |= WINDOW_FLAG_PENDING;
+                break;
+            }
+            buffer->reuse();
+            buffer = BuffersStorage::getInstance().getFreeBuffer(WINDOW_HEADER_SIZE + rowSize + tableSize);
+            if (buffer == nullptr) {
+                return 0;
+            }
+            buffer->position(WINDOW_HEADER_SIZE);
+        }
+        window_write_row(buffer, handle, columnCount, types, cells);
+        rowCount++;
+    }
+
+    uint32_t tableOffset = buffer->position();
+    for (size_t a = 0; a < cells.size(); a++) {
+        buffer->writeInt32(cells[a]);
+    }
+    uint32_t length = buffer->position();
+    buffer->position(0);
+    buffer->writeInt32(rowCount);
+    buffer->writeInt32(columnCount);
+    buffer->writeInt32(tableOffset);
+    buffer->writeInt32(flags);
+    buffer->position(0);
+    buffer->limit(length);
+    return (jlong) buffer;
+}
+
+JNIEXPORT jobject
+Java_com_thelqn_sqlite3_SQLiteCursor_columnBlobView(JNIEnv *env, jobject object,
+                                                    jlong statementHandle, jint columnIndex) {
+    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
+    const void *buf = sqlite3_column_blob(handle, columnIndex);
+    int length = sqlite3_column_bytes(handle, columnIndex);
+    if (buf == nullptr || length <= 0) {
+        return nullptr;
+    }
+    return env->NewDirectByteBuffer((void *) buf, length);
+}
+
 JNIEXPORT jlong
 Java_com_thelqn_sqlite3_SQLiteCursor_columnByteBufferValue(JNIEnv *env, jobject object,
                                                            jlong statementHandle,
@@ -0,0 +1,86 @@
+package com.thelqn.sqlite3;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLiteChangeFeedTest {
+
+    private static final String NAME = "change_feed_test.db";
+
+    private SQLiteDatabase db;
+    private final ArrayList<SQLiteChangeSet> changes = new ArrayList<>();
+
+    @Before
+    public void setUp() throws SQLiteException {
+        db = TestDatabase.open(NAME);
+        TestDatabase.exec(db, "CREATE TABLE t (id INTEGER PRIMARY KEY)");
+        TestDatabase.exec(db, "CREATE TABLE other (id INTEGER PRIMARY KEY)");
+        db.getChangeFeed().subscribe(changes::add, "t");
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        TestDatabase.delete(NAME);
+    }
+
+    @Test
+    public void deliversAutocommitChanges() throws SQLiteException {
+        TestDatabase.exec(db, "INSERT INTO t VALUES (5)");
+
+        assertEquals(1, changes.size());
+        assertArrayEquals(new long[]{5}, changes.get(0).getRowIds("t"));
+    }
+
+    @Test
+    public void deliversOnceAfterCommit() throws SQLiteException {
+        db.beginTransaction();
+        TestDatabase.exec(db, "INSERT INTO t VALUES (1)");
+        TestDatabase.exec(db, "INSERT INTO t VALUES (2)");
+        assertTrue(changes.isEmpty());
+        db.commitTransaction();
+
+        assertEquals(1, changes.size());
+        assertEquals(2, changes.get(0).getRowIds("t").length);
+    }
+
+    @Test
+    public void dropsRolledBackChanges() throws SQLiteException {
+        db.beginTransaction();
+        TestDatabase.exec(db, "INSERT INTO t VALUES (1)");
+        db.rollbackTransaction();
+        TestDatabase.exec(db, "INSERT INTO t VALUES (2)");
+
+        assertEquals(1, changes.size());
+        assertArrayEquals(new long[]{2}, changes.get(0).getRowIds("t"));
+    }
+
+    @Test
+    public void dropsChangesOfRolledBackSavepoint() throws SQLiteException {
+        db.beginTransaction();
+        TestDatabase.exec(db, "INSERT INTO t VALUES (1)");
+        db.beginTransaction();
+        TestDatabase.exec(db, "INSERT INTO t VALUES (2)");
+        db.rollbackTransaction();
+        db.commitTransaction();
+
+        assertEquals(1, changes.size());
+        assertArrayEquals(new long[]{1}, changes.get(0).getRowIds("t"));
+    }
+
+    @Test
+    public void ignoresUnsubscribedTables() throws SQLiteException {
+        TestDatabase.exec(db, "INSERT INTO other VALUES (1)");
+
+        assertTrue(changes.isEmpty());
+    }
+}
@@ -0,0 +1,84 @@
+package com.thelqn.sqlite3;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLiteCursorTest {
+
+    private static final String NAME = "cursor_test.db";
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws SQLiteException {
+        db = TestDatabase.open(NAME);
+        TestDatabase.exec(db, "CREATE TABLE t (id INTEGER PRIMARY KEY, data BLOB)");
+        TestDatabase.exec(db, "INSERT INTO t VALUES (1, ?)", (Object) new byte[]{'4', '2'});
+        TestDatabase.exec(db, "INSERT INTO t VALUES (2, ?)", (Object) new byte[]{'7'});
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        TestDatabase.delete(NAME);
+    }
+
+    @Test
+    public void blobViewInvalidatedByNext() throws SQLiteException {
+        SQLiteCursor cursor = db.queryFinalized("SELECT data FROM t ORDER BY id");
+        try {
+            assertTrue(cursor.next());
+            SQLiteBlobView view = cursor.blobView(0);
+            assertTrue(view.isValid());
+            assertArrayEquals(new byte[]{'4', '2'}, view.toByteArray());
+            assertTrue(cursor.next());
+            assertFalse(view.isValid());
+        } finally {
+            cursor.dispose();
+        }
+    }
+
+    @Test
+    public void blobViewInvalidatedByStringValue() throws SQLiteException {
+        SQLiteCursor cursor = db.queryFinalized("SELECT data FROM t ORDER BY id");
+        try {
+            assertTrue(cursor.next());
+            SQLiteBlobView view = cursor.blobView(0);
+            assertEquals("42", cursor.stringValue(0));
+            assertFalse(view.isValid());
+        } finally {
+            cursor.dispose();
+        }
+    }
+
+    @Test
+    public void blobViewInvalidatedByDispose() throws SQLiteException {
+        SQLiteCursor cursor = db.queryFinalized("SELECT data FROM t ORDER BY id");
+        assertTrue(cursor.next());
+        SQLiteBlobView view = cursor.blobView(0);
+        cursor.dispose();
+        assertFalse(view.isValid());
+    }
+
+    @Test
+    public void windowConvertsBlobsLikeSqlite() throws SQLiteException {
+        SQLiteCursor cursor = db.queryFinalized("SELECT data FROM t ORDER BY id");
+        cursor.setWindowSize(16);
+        try {
+            assertTrue(cursor.next());
+            assertEquals(42, cursor.longValue(0));
+            assertEquals(42.0, cursor.doubleValue(0), 0);
+            assertTrue(cursor.next());
+            assertEquals(7, cursor.intValue(0));
+        } finally {
+            cursor.dispose();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.thelqn.sqlite3;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLiteResultCacheTest {
+
+    private static final String NAME = "result_cache_test.db";
+
+    private SQLiteDatabase db;
+    private SQLiteResultCache cache;
+
+    @Before
+    public void setUp() throws SQLiteException {
+        db = TestDatabase.open(NAME);
+        TestDatabase.exec(db, "CREATE TABLE t (id INTEGER PRIMARY KEY, data BLOB)");
+        TestDatabase.exec(db, "CREATE TABLE other (id INTEGER PRIMARY KEY)");
+        cache = db.enableResultCache(SQLiteResultCache.DEFAULT_MAX_BYTES);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        TestDatabase.delete(NAME);
+    }
+
+    @Test
+    public void servesRepeatedQueriesFromCache() throws SQLiteException {
+        assertEquals(Integer.valueOf(0), db.executeIntCached("SELECT count(*) FROM t"));
+        assertEquals(Integer.valueOf(0), db.executeIntCached("SELECT count(*) FROM t"));
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void invalidatedByCommittedWrite() throws SQLiteException {
+        assertEquals(Integer.valueOf(0), db.executeIntCached("SELECT count(*) FROM t"));
+        TestDatabase.exec(db, "INSERT INTO t (id) VALUES (1)");
+        assertEquals(Integer.valueOf(1), db.executeIntCached("SELECT count(*) FROM t"));
+
+        db.beginTransaction();
+        TestDatabase.exec(db, "INSERT INTO t (id) VALUES (2)");
+        db.commitTransaction();
+        assertEquals(Integer.valueOf(2), db.executeIntCached("SELECT count(*) FROM t"));
+    }
+
+    @Test
+    public void keepsEntriesOfOtherTables() throws SQLiteException {
+        db.executeIntCached("SELECT count(*) FROM t");
+        db.executeIntCached("SELECT count(*) FROM other");
+        TestDatabase.exec(db, "INSERT INTO other VALUES (1)");
+        db.executeIntCached("SELECT count(*) FROM t");
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(Integer.valueOf(1), db.executeIntCached("SELECT count(*) FROM other"));
+    }
+
+    @Test
+    public void keyCopiesByteArrayArguments() throws SQLiteException {
+        TestDatabase.exec(db, "INSERT INTO t VALUES (1, ?)", (Object) new byte[]{1});
+        byte[] data = {2};
+        assertNull(db.executeIntCached("SELECT id FROM t WHERE data = ?", (Object) data));
+        data[0] = 1;
+
+        assertEquals(Integer.valueOf(1), db.executeIntCached("SELECT id FROM t WHERE data = ?", (Object) data));
+    }
+}
@@ -0,0 +1,86 @@
+package com.thelqn.sqlite3;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLiteTransactionTest {
+
+    private static final String NAME = "transaction_test.db";
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws SQLiteException {
+        db = TestDatabase.open(NAME);
+        TestDatabase.exec(db, "CREATE TABLE t (id INTEGER PRIMARY KEY)");
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        TestDatabase.delete(NAME);
+    }
+
+    @Test
+    public void nestedRollbackKeepsOuterWrites() throws SQLiteException {
+        db.beginTransaction();
+        TestDatabase.exec(db, "INSERT INTO t VALUES (1)");
+        db.beginTransaction();
+        assertEquals(2, db.getTransactionDepth());
+        TestDatabase.exec(db, "INSERT INTO t VALUES (2)");
+        db.rollbackTransaction();
+        db.beginTransaction();
+        TestDatabase.exec(db, "INSERT INTO t VALUES (3)");
+        db.commitTransaction();
+        assertEquals(1, db.getTransactionDepth());
+        db.commitTransaction();
+
+        assertFalse(db.inTransaction());
+        assertEquals(Integer.valueOf(2), db.executeInt("SELECT count(*) FROM t"));
+        assertNull(db.executeInt("SELECT id FROM t WHERE id = 2"));
+    }
+
+    @Test
+    public void outerRollbackDropsCommittedSavepoints() throws SQLiteException {
+        db.beginTransaction();
+        db.beginTransaction();
+        TestDatabase.exec(db, "INSERT INTO t VALUES (1)");
+        db.commitTransaction();
+        db.rollbackTransaction();
+
+        assertFalse(db.inTransaction());
+        assertEquals(Integer.valueOf(0), db.executeInt("SELECT count(*) FROM t"));
+    }
+
+    @Test
+    public void rawRollbackResetsDepth() throws SQLiteException {
+        db.beginTransaction();
+        db.beginTransaction();
+        TestDatabase.exec(db, "ROLLBACK");
+        try {
+            db.commitTransaction();
+            fail("savepoint of a rolled back transaction released");
+        } catch (SQLiteException ignore) {
+
+        }
+        assertFalse(db.inTransaction());
+    }
+
+    @Test
+    public void closeCommitsOpenTransaction() throws SQLiteException {
+        db.beginTransaction();
+        db.beginTransaction();
+        TestDatabase.exec(db, "INSERT INTO t VALUES (1)");
+        db.close();
+
+        db = TestDatabase.reopen(NAME);
+        assertEquals(Integer.valueOf(1), db.executeInt("SELECT count(*) FROM t"));
+    }
+}
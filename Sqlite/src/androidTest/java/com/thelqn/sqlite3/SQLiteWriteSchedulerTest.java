@@ -0,0 +1,91 @@
+package com.thelqn.sqlite3;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLiteWriteSchedulerTest {
+
+    private static final String NAME = "write_scheduler_test.db";
+
+    private SQLiteDatabase db;
+    private DispatchQueue queue;
+    private SQLiteWriteScheduler scheduler;
+
+    @Before
+    public void setUp() throws SQLiteException {
+        db = TestDatabase.open(NAME);
+        TestDatabase.exec(db, "CREATE TABLE t (id INTEGER PRIMARY KEY)");
+        queue = new DispatchQueue("writeSchedulerTest");
+        scheduler = new SQLiteWriteScheduler(db, queue);
+        scheduler.setWindowMs(1000);
+    }
+
+    @After
+    public void tearDown() {
+        queue.recycle();
+        db.close();
+        TestDatabase.delete(NAME);
+    }
+
+    @Test
+    public void failingTaskIsRolledBackAlone() throws Exception {
+        SQLiteException[] errors = new SQLiteException[3];
+        CountDownLatch done = new CountDownLatch(3);
+        schedule(db -> TestDatabase.exec(db, "INSERT INTO t VALUES (1)"), errors, 0, done);
+        schedule(db -> {
+            TestDatabase.exec(db, "INSERT INTO t VALUES (2)");
+            throw new SQLiteException("task failed");
+        }, errors, 1, done);
+        schedule(db -> TestDatabase.exec(db, "INSERT INTO t VALUES (3)"), errors, 2, done);
+        scheduler.flushNow();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertNull(errors[0]);
+        assertEquals("task failed", errors[1].getMessage());
+        assertNull(errors[2]);
+        assertEquals(1, scheduler.getCommitCount());
+        assertEquals(Integer.valueOf(2), db.executeInt("SELECT count(*) FROM t"));
+        assertNull(db.executeInt("SELECT id FROM t WHERE id = 2"));
+    }
+
+    @Test
+    public void endedGroupFailsEveryTask() throws Exception {
+        SQLiteException[] errors = new SQLiteException[3];
+        boolean[] ran = new boolean[1];
+        CountDownLatch done = new CountDownLatch(3);
+        schedule(db -> TestDatabase.exec(db, "INSERT INTO t VALUES (1)"), errors, 0, done);
+        // rolls back the group transaction under the scheduler, like sqlite does on SQLITE_FULL
+        schedule(db -> TestDatabase.exec(db, "ROLLBACK"), errors, 1, done);
+        schedule(db -> {
+            ran[0] = true;
+            TestDatabase.exec(db, "INSERT INTO t VALUES (3)");
+        }, errors, 2, done);
+        scheduler.flushNow();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertNotNull(errors[0]);
+        assertNotNull(errors[1]);
+        assertSame(errors[1], errors[2]);
+        assertFalse(ran[0]);
+        assertFalse(db.inTransaction());
+        assertEquals(0, scheduler.getCommitCount());
+        assertEquals(Integer.valueOf(0), db.executeInt("SELECT count(*) FROM t"));
+    }
+
+    private void schedule(SQLiteWriteScheduler.WriteTask task, SQLiteException[] errors, int index, CountDownLatch done) {
+        scheduler.schedule(task, error -> {
+            errors[index] = error;
+            done.countDown();
+        });
+    }
+}
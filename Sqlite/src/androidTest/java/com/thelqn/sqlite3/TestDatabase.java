@@ -0,0 +1,49 @@
+package com.thelqn.sqlite3;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.File;
+
+/**
+ * Opens throwaway databases in the cache dir of the test app.
+ */
+final class TestDatabase {
+
+    private TestDatabase() {
+    }
+
+    /**
+     * Opens an empty database, deleting what a previous run left behind.
+     */
+    static SQLiteDatabase open(String name) throws SQLiteException {
+        delete(name);
+        return reopen(name);
+    }
+
+    static SQLiteDatabase reopen(String name) throws SQLiteException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        NativeLoader.initNativeLibs(context);
+        File dir = context.getCacheDir();
+        return new SQLiteDatabase(new File(dir, name).getPath(), dir.getPath());
+    }
+
+    static void delete(String name) {
+        File dir = InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir();
+        new File(dir, name).delete();
+        new File(dir, name + "-journal").delete();
+        new File(dir, name + "-wal").delete();
+        new File(dir, name + "-shm").delete();
+    }
+
+    static void exec(SQLiteDatabase db, String sql, Object... args) throws SQLiteException {
+        SQLitePreparedStatement state = db.executeFast(sql);
+        try {
+            state.query(args);
+            state.stepThis();
+        } finally {
+            state.dispose();
+        }
+    }
+}
@@ -60,6 +60,17 @@ public class NativeByteBuffer extends AbstractSerializedData {
         }
     }
 
+    /**
+     * Takes ownership of a buffer allocated natively from BuffersStorage.
+     */
+    NativeByteBuffer(long address) {
+        this.address = address;
+        buffer = getJavaByteBuffer(address);
+        buffer.position(0);
+        buffer.limit(limit(address));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     public NativeByteBuffer(boolean calculate) {
         justCalc = calculate;
     }
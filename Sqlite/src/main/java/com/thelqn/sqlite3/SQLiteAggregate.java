@@ -0,0 +1,17 @@
+package com.thelqn.sqlite3;
+
+/**
+ * Aggregate SQL function implemented in Java, see {@link SQLiteDatabase#createAggregate}.
+ * A new state is created for every group.
+ */
+public interface SQLiteAggregate<S> {
+
+    S createState();
+
+    void step(S state, SQLiteFunctionContext context) throws SQLiteException;
+
+    /**
+     * Sets the result of the group, context has no arguments here.
+     */
+    void finish(S state, SQLiteFunctionContext context) throws SQLiteException;
+}
@@ -0,0 +1,204 @@
+package com.thelqn.sqlite3;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable holder of typed statement parameters, bound with a single native call.
+ * Values are kept in primitive slots, so binding numbers does not box them.
+ * Parameter indexes are 1-based, the same as for the statement bind methods.
+ */
+public class SQLiteArguments {
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_LONG = 1;
+    static final byte TYPE_DOUBLE = 2;
+    static final byte TYPE_STRING = 3;
+    static final byte TYPE_BYTE_ARRAY = 4;
+    static final byte TYPE_BYTE_BUFFER = 5;
+    static final byte TYPE_ZERO_BLOB = 6;
+
+    byte[] types;
+    long[] longs;
+    double[] doubles;
+    Object[] objects;
+    private int count;
+
+    public SQLiteArguments() {
+        this(8);
+    }
+
+    public SQLiteArguments(int capacity) {
+        capacity = Math.max(capacity, 1);
+        types = new byte[capacity];
+        longs = new long[capacity];
+        doubles = new double[capacity];
+        objects = new Object[capacity];
+    }
+
+    /**
+     * @return the highest bound parameter index
+     */
+    public int size() {
+        return count;
+    }
+
+    public SQLiteArguments bindInteger(int index, int value) {
+        return bindLong(index, value);
+    }
+
+    public SQLiteArguments bindLong(int index, long value) {
+        int slot = slot(index);
+        types[slot] = TYPE_LONG;
+        longs[slot] = value;
+        return this;
+    }
+
+    public SQLiteArguments bindBoolean(int index, boolean value) {
+        return bindLong(index, value ? 1 : 0);
+    }
+
+    public SQLiteArguments bindDouble(int index, double value) {
+        int slot = slot(index);
+        types[slot] = TYPE_DOUBLE;
+        doubles[slot] = value;
+        return this;
+    }
+
+    public SQLiteArguments bindString(int index, String value) {
+        if (value == null) {
+            return bindNull(index);
+        }
+        int slot = slot(index);
+        types[slot] = TYPE_STRING;
+        objects[slot] = value;
+        return this;
+    }
+
+    public SQLiteArguments bindByteArray(int index, byte[] value) {
+        if (value == null) {
+            return bindNull(index);
+        }
+        return bindByteArray(index, value, value.length);
+    }
+
+    private SQLiteArguments bindByteArray(int index, byte[] value, int length) {
+        int slot = slot(index);
+        types[slot] = TYPE_BYTE_ARRAY;
+        objects[slot] = value;
+        longs[slot] = length;
+        return this;
+    }
+
+    /**
+     * Bytes from 0 to the limit of the buffer are bound.
+     */
+    public SQLiteArguments bindByteBuffer(int index, ByteBuffer value) {
+        if (value == null) {
+            return bindNull(index);
+        }
+        if (!value.isDirect()) {
+            if (value.hasArray() && value.arrayOffset() == 0) {
+                return bindByteArray(index, value.array(), value.limit());
+            }
+            byte[] copy = new byte[value.limit()];
+            ByteBuffer duplicate = value.duplicate();
+            duplicate.rewind();
+            duplicate.get(copy);
+            return bindByteArray(index, copy, copy.length);
+        }
+        int slot = slot(index);
+        types[slot] = TYPE_BYTE_BUFFER;
+        objects[slot] = value;
+        longs[slot] = value.limit();
+        return this;
+    }
+
+    public SQLiteArguments bindByteBuffer(int index, NativeByteBuffer value) {
+        if (value == null) {
+            return bindNull(index);
+        }
+        return bindByteBuffer(index, value.buffer);
+    }
+
+    /**
+     * Binds a blob of length zero bytes, to be filled later with {@link SQLiteBlob}.
+     */
+    public SQLiteArguments bindZeroBlob(int index, int length) {
+        int slot = slot(index);
+        types[slot] = TYPE_ZERO_BLOB;
+        objects[slot] = null;
+        longs[slot] = length;
+        return this;
+    }
+
+    public SQLiteArguments bindNull(int index) {
+        int slot = slot(index);
+        types[slot] = TYPE_NULL;
+        objects[slot] = null;
+        return this;
+    }
+
+    /**
+     * Binds a value of any supported type, used by the Object[] based query methods.
+     */
+    public SQLiteArguments bindObject(int index, Object obj) {
+        if (obj == null) {
+            return bindNull(index);
+        } else if (obj instanceof Integer) {
+            return bindLong(index, (Integer) obj);
+        } else if (obj instanceof Long) {
+            return bindLong(index, (Long) obj);
+        } else if (obj instanceof Double) {
+            return bindDouble(index, (Double) obj);
+        } else if (obj instanceof String) {
+            return bindString(index, (String) obj);
+        } else if (obj instanceof Boolean) {
+            return bindBoolean(index, (Boolean) obj);
+        } else if (obj instanceof byte[]) {
+            return bindByteArray(index, (byte[]) obj);
+        } else if (obj instanceof ByteBuffer) {
+            return bindByteBuffer(index, (ByteBuffer) obj);
+        } else if (obj instanceof NativeByteBuffer) {
+            return bindByteBuffer(index, (NativeByteBuffer) obj);
+        } else if (obj instanceof Float) {
+            return bindDouble(index, (Float) obj);
+        } else if (obj instanceof Short || obj instanceof Byte) {
+            return bindLong(index, ((Number) obj).longValue());
+        }
+        throw new IllegalArgumentException("unsupported argument type " + obj.getClass().getName());
+    }
+
+    public SQLiteArguments clear() {
+        for (int a = 0; a < count; a++) {
+            types[a] = TYPE_NULL;
+            objects[a] = null;
+        }
+        count = 0;
+        return this;
+    }
+
+    private int slot(int index) {
+        if (index < 1) {
+            throw new IndexOutOfBoundsException("parameter index " + index);
+        }
+        if (index > types.length) {
+            int newSize = Math.max(index, types.length * 2);
+            byte[] newTypes = new byte[newSize];
+            long[] newLongs = new long[newSize];
+            double[] newDoubles = new double[newSize];
+            Object[] newObjects = new Object[newSize];
+            System.arraycopy(types, 0, newTypes, 0, types.length);
+            System.arraycopy(longs, 0, newLongs, 0, longs.length);
+            System.arraycopy(doubles, 0, newDoubles, 0, doubles.length);
+            System.arraycopy(objects, 0, newObjects, 0, objects.length);
+            types = newTypes;
+            longs = newLongs;
+            doubles = newDoubles;
+            objects = newObjects;
+        }
+        if (index > count) {
+            count = index;
+        }
+        return index - 1;
+    }
+}
@@ -0,0 +1,220 @@
+package com.thelqn.sqlite3;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs database operations on a {@link DispatchQueue} and returns {@link SQLiteFuture}s
+ * completed on the given executor. Operations either run on a single connection owned by the
+ * queue or on a {@link SQLiteConnectionPool}, in which case the queue only orders them.
+ */
+public class SQLiteAsync {
+
+    public interface RowMapper<R> {
+        R map(SQLiteCursor cursor) throws SQLiteException;
+    }
+
+    private final SQLiteDatabase database;
+    private final SQLiteConnectionPool pool;
+    private final DispatchQueue queue;
+    private final Executor callbackExecutor;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile int maxPending = Integer.MAX_VALUE;
+    private volatile long defaultTimeoutMs;
+
+    /**
+     * @param queue            the queue every other access to db runs on
+     * @param callbackExecutor where callbacks run, null to run them on the thread that completes
+     *                         or cancels the future
+     */
+    public SQLiteAsync(SQLiteDatabase db, DispatchQueue queue, Executor callbackExecutor) {
+        database = db;
+        pool = null;
+        this.queue = queue;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public SQLiteAsync(SQLiteConnectionPool pool, DispatchQueue queue, Executor callbackExecutor) {
+        database = null;
+        this.pool = pool;
+        this.queue = queue;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * @param count operations allowed to wait in the queue, further ones fail right away with SQLITE_BUSY
+     */
+    public void setMaxPending(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("maxPending must be at least 1");
+        }
+        maxPending = count;
+    }
+
+    /**
+     * @return number of operations waiting to start
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * @param ms deadline of operations submitted without their own timeout, counted from the
+     *           start of the operation, 0 for none
+     */
+    public void setDefaultTimeoutMs(long ms) {
+        defaultTimeoutMs = Math.max(ms, 0);
+    }
+
+    public <T> SQLiteFuture<T> read(SQLiteConnectionPool.Task<T> task) {
+        return submit(false, defaultTimeoutMs, task);
+    }
+
+    /**
+     * Like {@link #read(SQLiteConnectionPool.Task)}, failing with
+     * {@link SQLiteDatabase#SQLITE_INTERRUPT_DEADLINE} if the task runs longer than timeoutMs.
+     */
+    public <T> SQLiteFuture<T> read(long timeoutMs, SQLiteConnectionPool.Task<T> task) {
+        return submit(false, timeoutMs, task);
+    }
+
+    public <T> SQLiteFuture<T> write(SQLiteConnectionPool.Task<T> task) {
+        return submit(true, defaultTimeoutMs, task);
+    }
+
+    public <T> SQLiteFuture<T> write(long timeoutMs, SQLiteConnectionPool.Task<T> task) {
+        return submit(true, timeoutMs, task);
+    }
+
+    /**
+     * Maps every row of the query, the cursor never leaves the queue.
+     */
+    public <R> SQLiteFuture<ArrayList<R>> query(final String sql, final Object[] args, final RowMapper<R> mapper) {
+        return read(db -> {
+            ArrayList<R> rows = new ArrayList<>();
+            SQLiteCursor cursor = db.queryFinalized(sql, args != null ? args : new Object[0]);
+            try {
+                while (cursor.next()) {
+                    rows.add(mapper.map(cursor));
+                }
+            } finally {
+                cursor.dispose();
+            }
+            return rows;
+        });
+    }
+
+    public SQLiteFuture<Integer> executeInt(final String sql, final Object... args) {
+        return read(db -> db.executeInt(sql, args));
+    }
+
+    /**
+     * @return future of the number of changed rows
+     */
+    public SQLiteFuture<Integer> execute(final String sql, final Object... args) {
+        return write(db -> {
+            SQLitePreparedStatement state = db.executeFast(sql);
+            try {
+                state.query(args);
+                state.stepThis();
+                return db.getChanges();
+            } finally {
+                state.dispose();
+            }
+        });
+    }
+
+    /**
+     * Executes all rows of batch in one transaction.
+     *
+     * @return future of the number of executed rows
+     */
+    public SQLiteFuture<Integer> executeBatch(final String sql, final SQLiteBatch batch) {
+        return write(db -> {
+            db.beginTransaction(SQLiteDatabase.TRANSACTION_IMMEDIATE);
+            try {
+                SQLitePreparedStatement state = db.executeFast(sql);
+                int count;
+                try {
+                    count = state.executeBatch(batch);
+                } finally {
+                    state.dispose();
+                }
+                db.commitTransaction();
+                return count;
+            } catch (SQLiteException | RuntimeException e) {
+                try {
+                    db.rollbackTransaction();
+                } catch (SQLiteException ignore) {
+
+                }
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Runs the query now and again after every committed change to the tables it reads.
+     * Changes are tracked on the connection that runs writes, the writer for a pool.
+     * Must be closed when no longer needed.
+     */
+    public <R> SQLiteLiveQuery<R> observe(String sql, Object[] args, RowMapper<R> mapper, SQLiteLiveQuery.Listener<R> listener) {
+        SQLiteLiveQuery<R> query = new SQLiteLiveQuery<>(this, queue, sql, args, mapper, listener);
+        query.start();
+        return query;
+    }
+
+    SQLiteChangeFeed getChangeFeed(SQLiteDatabase db) throws SQLiteException {
+        return pool != null ? pool.getWriter().getChangeFeed() : db.getChangeFeed();
+    }
+
+    <T> SQLiteFuture<T> newFuture(boolean write) {
+        pendingCount.incrementAndGet();
+        return new SQLiteFuture<>(this, callbackExecutor, write);
+    }
+
+    void onDequeued(Runnable runnable) {
+        pendingCount.decrementAndGet();
+        if (runnable != null) {
+            queue.cancelRunnable(runnable);
+        }
+    }
+
+    private <T> SQLiteFuture<T> submit(boolean write, long timeoutMs, SQLiteConnectionPool.Task<T> task) {
+        SQLiteFuture<T> future = newFuture(write);
+        future.timeoutMs = timeoutMs;
+        if (pendingCount.get() > maxPending) {
+            future.complete(null, new SQLiteException(SQLiteDatabase.SQLITE_BUSY, "too many pending operations"));
+            return future;
+        }
+        enqueue(future, write, task);
+        return future;
+    }
+
+    <T> void enqueue(final SQLiteFuture<T> future, final boolean write, final SQLiteConnectionPool.Task<T> task) {
+        future.runnable = () -> run(future, write, task);
+        queue.postRunnable(future.runnable);
+    }
+
+    private <T> void run(final SQLiteFuture<T> future, boolean write, final SQLiteConnectionPool.Task<T> task) {
+        if (!future.start()) {
+            return;
+        }
+        try {
+            T result;
+            if (pool == null) {
+                result = future.runOn(database, task);
+            } else if (write) {
+                result = pool.write(db -> future.runOn(db, task));
+            } else {
+                result = pool.read(db -> future.runOn(db, task));
+            }
+            future.complete(result, null);
+        } catch (SQLiteException e) {
+            future.complete(null, e);
+        } catch (RuntimeException e) {
+            future.complete(null, new SQLiteException(e.toString()));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+/**
+ * Online backup of one database into another with sqlite3_backup, see {@link SQLiteDatabase#backupTo}.
+ * The source is only locked while a step copies its pages, so writers can run between steps.
+ * If another connection writes to the source the backup restarts on the next step, use a
+ * dedicated source connection or the writer itself so the copy makes progress under load.
+ */
+public class SQLiteBackup {
+
+    public interface Listener {
+        void onProgress(int remaining, int pageCount);
+
+        /**
+         * @param error null if the backup completed
+         */
+        void onComplete(SQLiteException error);
+    }
+
+    private static final int SQLITE_OK = 0;
+    private static final int SQLITE_LOCKED = 6;
+    private static final int SQLITE_DONE = 101;
+
+    private final SQLiteDatabase source;
+    private final SQLiteDatabase destination;
+    private long backupHandle;
+    private boolean done;
+    private volatile boolean cancelled;
+
+    SQLiteBackup(SQLiteDatabase destination, String destinationName, SQLiteDatabase source, String sourceName) throws SQLiteException {
+        destination.checkOpened();
+        source.checkOpened();
+        this.source = source;
+        this.destination = destination;
+        backupHandle = init(destination.getSQLiteHandle(), destinationName, source.getSQLiteHandle(), sourceName);
+    }
+
+    /**
+     * Copies up to pages pages, -1 copies everything that is left.
+     *
+     * @return true when the whole database has been copied
+     */
+    public boolean step(int pages) throws SQLiteException {
+        checkOpened();
+        int result = step(backupHandle, pages);
+        if (result == SQLITE_DONE) {
+            done = true;
+            return true;
+        }
+        if (result == SQLITE_OK || result == SQLiteDatabase.SQLITE_BUSY || result == SQLITE_LOCKED) {
+            return false;
+        }
+        throw new SQLiteException(result, "backup step failed with code " + result);
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return pages left to copy as of the last step
+     */
+    public int getRemaining() {
+        return backupHandle != 0 ? remaining(backupHandle) : 0;
+    }
+
+    /**
+     * @return source size in pages as of the last step
+     */
+    public int getPageCount() {
+        return backupHandle != 0 ? pageCount(backupHandle) : 0;
+    }
+
+    public SQLiteDatabase getSource() {
+        return source;
+    }
+
+    public SQLiteDatabase getDestination() {
+        return destination;
+    }
+
+    /**
+     * Copies pagesPerStep pages per turn of queue, waiting stepDelayMs between steps so
+     * writers get the source back. The backup is finished on completion, error or cancel.
+     * The listener is called on queue.
+     */
+    public void runAsync(final DispatchQueue queue, final int pagesPerStep, final int stepDelayMs, final Listener listener) {
+        queue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteException error = null;
+                try {
+                    if (cancelled) {
+                        error = new SQLiteException(SQLiteDatabase.SQLITE_INTERRUPT_CANCELLED, "backup cancelled");
+                    } else if (!step(pagesPerStep)) {
+                        if (listener != null) {
+                            listener.onProgress(getRemaining(), getPageCount());
+                        }
+                        queue.postRunnable(this, stepDelayMs);
+                        return;
+                    }
+                } catch (SQLiteException e) {
+                    error = e;
+                }
+                if (listener != null) {
+                    listener.onProgress(getRemaining(), getPageCount());
+                }
+                finish();
+                if (listener != null) {
+                    listener.onComplete(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops a backup started with {@link #runAsync}, it is finished on its next step.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Releases the backup, an incomplete copy leaves the destination unchanged.
+     */
+    public void finish() {
+        if (backupHandle == 0) {
+            return;
+        }
+        int result = finish(backupHandle);
+        backupHandle = 0;
+        if (result != SQLITE_OK && BuildVars.LOGS_ENABLED) {
+            Log.e("Error", "backup finished with code " + result);
+        }
+    }
+
+    void checkOpened() throws SQLiteException {
+        if (backupHandle == 0) {
+            throw new SQLiteException("Backup finished");
+        }
+    }
+
+    native long init(long destinationHandle, String destinationName, long sourceHandle, String sourceName) throws SQLiteException;
+    native int step(long backupHandle, int pages);
+    native int remaining(long backupHandle);
+    native int pageCount(long backupHandle);
+    native int finish(long backupHandle);
+}
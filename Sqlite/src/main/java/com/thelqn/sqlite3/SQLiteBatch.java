@@ -0,0 +1,174 @@
+package com.thelqn.sqlite3;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rows of typed statement parameters, executed in a single native call
+ * by {@link SQLitePreparedStatement#executeBatch(SQLiteBatch, int[], boolean)}.
+ * Parameter indexes are 1-based, the same as for the statement bind methods.
+ */
+public class SQLiteBatch {
+
+    private final int columnCount;
+    private int rowCount;
+
+    byte[] types;
+    long[] longs;
+    double[] doubles;
+    Object[] objects;
+
+    public SQLiteBatch(int columnCount) {
+        this(columnCount, 16);
+    }
+
+    public SQLiteBatch(int columnCount, int rowCapacity) {
+        if (columnCount <= 0) {
+            throw new IllegalArgumentException("invalid column count " + columnCount);
+        }
+        this.columnCount = columnCount;
+        int size = columnCount * Math.max(rowCapacity, 1);
+        types = new byte[size];
+        longs = new long[size];
+        doubles = new double[size];
+        objects = new Object[size];
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public SQLiteBatch bindInteger(int index, int value) {
+        return bindLong(index, value);
+    }
+
+    public SQLiteBatch bindLong(int index, long value) {
+        int slot = slot(index);
+        types[slot] = SQLiteArguments.TYPE_LONG;
+        longs[slot] = value;
+        return this;
+    }
+
+    public SQLiteBatch bindBoolean(int index, boolean value) {
+        return bindLong(index, value ? 1 : 0);
+    }
+
+    public SQLiteBatch bindDouble(int index, double value) {
+        int slot = slot(index);
+        types[slot] = SQLiteArguments.TYPE_DOUBLE;
+        doubles[slot] = value;
+        return this;
+    }
+
+    public SQLiteBatch bindString(int index, String value) {
+        if (value == null) {
+            return bindNull(index);
+        }
+        int slot = slot(index);
+        types[slot] = SQLiteArguments.TYPE_STRING;
+        objects[slot] = value;
+        return this;
+    }
+
+    public SQLiteBatch bindByteArray(int index, byte[] value) {
+        if (value == null) {
+            return bindNull(index);
+        }
+        int slot = slot(index);
+        types[slot] = SQLiteArguments.TYPE_BYTE_ARRAY;
+        objects[slot] = value;
+        longs[slot] = value.length;
+        return this;
+    }
+
+    /**
+     * @param value direct buffer, bytes from 0 to its limit are bound
+     */
+    public SQLiteBatch bindByteBuffer(int index, ByteBuffer value) {
+        if (value == null) {
+            return bindNull(index);
+        }
+        if (!value.isDirect()) {
+            throw new IllegalArgumentException("ByteBuffer must be direct");
+        }
+        int slot = slot(index);
+        types[slot] = SQLiteArguments.TYPE_BYTE_BUFFER;
+        objects[slot] = value;
+        longs[slot] = value.limit();
+        return this;
+    }
+
+    public SQLiteBatch bindByteBuffer(int index, NativeByteBuffer value) {
+        if (value == null) {
+            return bindNull(index);
+        }
+        return bindByteBuffer(index, value.buffer);
+    }
+
+    public SQLiteBatch bindZeroBlob(int index, int length) {
+        int slot = slot(index);
+        types[slot] = SQLiteArguments.TYPE_ZERO_BLOB;
+        objects[slot] = null;
+        longs[slot] = length;
+        return this;
+    }
+
+    public SQLiteBatch bindNull(int index) {
+        int slot = slot(index);
+        types[slot] = SQLiteArguments.TYPE_NULL;
+        objects[slot] = null;
+        return this;
+    }
+
+    /**
+     * Finishes the current row, parameters that were not bound stay NULL.
+     */
+    public SQLiteBatch nextRow() {
+        rowCount++;
+        ensureCapacity((rowCount + 1) * columnCount);
+        int start = rowCount * columnCount;
+        for (int a = start; a < start + columnCount; a++) {
+            types[a] = SQLiteArguments.TYPE_NULL;
+            objects[a] = null;
+        }
+        return this;
+    }
+
+    public void clear() {
+        int end = Math.min((rowCount + 1) * columnCount, types.length);
+        for (int a = 0; a < end; a++) {
+            types[a] = SQLiteArguments.TYPE_NULL;
+            objects[a] = null;
+        }
+        rowCount = 0;
+    }
+
+    private int slot(int index) {
+        if (index < 1 || index > columnCount) {
+            throw new IndexOutOfBoundsException("parameter index " + index + " out of range 1.." + columnCount);
+        }
+        return rowCount * columnCount + index - 1;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= types.length) {
+            return;
+        }
+        int newSize = Math.max(size, types.length * 2);
+        byte[] newTypes = new byte[newSize];
+        long[] newLongs = new long[newSize];
+        double[] newDoubles = new double[newSize];
+        Object[] newObjects = new Object[newSize];
+        System.arraycopy(types, 0, newTypes, 0, types.length);
+        System.arraycopy(longs, 0, newLongs, 0, longs.length);
+        System.arraycopy(doubles, 0, newDoubles, 0, doubles.length);
+        System.arraycopy(objects, 0, newObjects, 0, objects.length);
+        types = newTypes;
+        longs = newLongs;
+        doubles = newDoubles;
+        objects = newObjects;
+    }
+}
@@ -0,0 +1,200 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental I/O handle on a single blob value, see {@link SQLiteDatabase#openBlob}.
+ * The blob size is fixed, preallocate it with zeroblob(n) or
+ * {@link SQLitePreparedStatement#bindZeroBlob(int, int)} before writing.
+ */
+public class SQLiteBlob {
+
+    private final SQLiteDatabase database;
+    private final long sqliteHandle;
+    private long blobHandle;
+    private final boolean writable;
+
+    SQLiteBlob(SQLiteDatabase db, String dbName, String table, String column, long rowId, boolean writable) throws SQLiteException {
+        database = db;
+        sqliteHandle = db.getSQLiteHandle();
+        this.writable = writable;
+        blobHandle = open(sqliteHandle, dbName, table, column, rowId, writable);
+    }
+
+    public int length() throws SQLiteException {
+        checkOpened();
+        return bytes(blobHandle);
+    }
+
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * Moves the handle to another row of the same table and column without reopening it.
+     */
+    public void reopen(long rowId) throws SQLiteException {
+        checkOpened();
+        reopen(sqliteHandle, blobHandle, rowId);
+    }
+
+    public void read(int blobOffset, byte[] dst, int offset, int count) throws SQLiteException {
+        checkOpened();
+        checkRange(offset, count, dst.length);
+        readBytes(sqliteHandle, blobHandle, dst, offset, count, blobOffset);
+    }
+
+    /**
+     * Reads dst.remaining() bytes into a direct buffer, advancing its position.
+     */
+    public void read(int blobOffset, ByteBuffer dst) throws SQLiteException {
+        checkOpened();
+        if (!dst.isDirect()) {
+            throw new IllegalArgumentException("ByteBuffer must be direct");
+        }
+        int count = dst.remaining();
+        readDirect(sqliteHandle, blobHandle, dst, dst.position(), count, blobOffset);
+        dst.position(dst.position() + count);
+    }
+
+    public void read(int blobOffset, NativeByteBuffer dst) throws SQLiteException {
+        read(blobOffset, dst.buffer);
+    }
+
+    public void write(int blobOffset, byte[] src, int offset, int count) throws SQLiteException {
+        checkOpened();
+        checkRange(offset, count, src.length);
+        writeBytes(sqliteHandle, blobHandle, src, offset, count, blobOffset);
+    }
+
+    /**
+     * Writes src.remaining() bytes from a direct buffer, advancing its position.
+     */
+    public void write(int blobOffset, ByteBuffer src) throws SQLiteException {
+        checkOpened();
+        if (!src.isDirect()) {
+            throw new IllegalArgumentException("ByteBuffer must be direct");
+        }
+        int count = src.remaining();
+        writeDirect(sqliteHandle, blobHandle, src, src.position(), count, blobOffset);
+        src.position(src.position() + count);
+    }
+
+    public void write(int blobOffset, NativeByteBuffer src) throws SQLiteException {
+        write(blobOffset, src.buffer);
+    }
+
+    public InputStream getInputStream() {
+        return new InputStream() {
+            private final byte[] single = new byte[1];
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                return read(single, 0, 1) == 1 ? single[0] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    int count = Math.min(len, length() - position);
+                    if (count <= 0) {
+                        return len == 0 ? 0 : -1;
+                    }
+                    SQLiteBlob.this.read(position, b, off, count);
+                    position += count;
+                    return count;
+                } catch (SQLiteException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                try {
+                    int count = (int) Math.max(0, Math.min(n, length() - position));
+                    position += count;
+                    return count;
+                } catch (SQLiteException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public int available() throws IOException {
+                try {
+                    return length() - position;
+                } catch (SQLiteException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            private final byte[] single = new byte[1];
+            private int position;
+
+            @Override
+            public void write(int b) throws IOException {
+                single[0] = (byte) b;
+                write(single, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    if (position + len > length()) {
+                        throw new IOException("write past the end of the blob");
+                    }
+                    SQLiteBlob.this.write(position, b, off, len);
+                    position += len;
+                } catch (SQLiteException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+    public void close() {
+        if (blobHandle == 0) {
+            return;
+        }
+        try {
+            close(sqliteHandle, blobHandle);
+        } catch (SQLiteException e) {
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", e.getMessage(), e);
+            }
+        }
+        blobHandle = 0;
+        database.onBlobClosed(this);
+    }
+
+    void checkOpened() throws SQLiteException {
+        if (blobHandle == 0) {
+            throw new SQLiteException("Blob closed");
+        }
+    }
+
+    private static void checkRange(int offset, int count, int length) {
+        if (offset < 0 || count < 0 || offset + count > length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", count " + count + ", length " + length);
+        }
+    }
+
+    native long open(long sqliteHandle, String dbName, String table, String column, long rowId, boolean writable) throws SQLiteException;
+    native void reopen(long sqliteHandle, long blobHandle, long rowId) throws SQLiteException;
+    native int bytes(long blobHandle);
+    native void readBytes(long sqliteHandle, long blobHandle, byte[] dst, int offset, int count, int blobOffset) throws SQLiteException;
+    native void readDirect(long sqliteHandle, long blobHandle, ByteBuffer dst, int offset, int count, int blobOffset) throws SQLiteException;
+    native void writeBytes(long sqliteHandle, long blobHandle, byte[] src, int offset, int count, int blobOffset) throws SQLiteException;
+    native void writeDirect(long sqliteHandle, long blobHandle, ByteBuffer src, int offset, int count, int blobOffset) throws SQLiteException;
+    native void close(long sqliteHandle, long blobHandle) throws SQLiteException;
+}
@@ -0,0 +1,88 @@
+package com.thelqn.sqlite3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Read-only view of a blob column that points straight at sqlite memory, without copying it.
+ * The view is only valid until the cursor moves or is disposed, or its statement is stepped, reset,
+ * bound or finalized, or a column of the row is read as a string. Any access after that throws
+ * IllegalStateException instead of reading freed memory.
+ */
+public class SQLiteBlobView {
+
+    private final SQLitePreparedStatement statement;
+    private final int generation;
+    private final ByteBuffer buffer;
+
+    SQLiteBlobView(SQLitePreparedStatement statement, int generation, ByteBuffer buffer) {
+        this.statement = statement;
+        this.generation = generation;
+        this.buffer = buffer.asReadOnlyBuffer();
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public boolean isValid() {
+        return statement.getGeneration() == generation;
+    }
+
+    public int length() {
+        checkValid();
+        return buffer.capacity();
+    }
+
+    public byte get(int index) {
+        checkValid();
+        return buffer.get(index);
+    }
+
+    public int getInt(int index) {
+        checkValid();
+        return buffer.getInt(index);
+    }
+
+    public long getLong(int index) {
+        checkValid();
+        return buffer.getLong(index);
+    }
+
+    public double getDouble(int index) {
+        checkValid();
+        return buffer.getDouble(index);
+    }
+
+    public void get(int index, byte[] dst, int offset, int count) {
+        checkValid();
+        ByteBuffer source = buffer.duplicate();
+        source.position(index);
+        source.get(dst, offset, count);
+    }
+
+    /**
+     * Copies as many bytes as fit into dst starting at index, advancing its position.
+     *
+     * @return number of copied bytes
+     */
+    public int copyTo(int index, ByteBuffer dst) {
+        checkValid();
+        ByteBuffer source = buffer.duplicate();
+        source.position(index);
+        int count = Math.min(source.remaining(), dst.remaining());
+        source.limit(index + count);
+        dst.put(source);
+        return count;
+    }
+
+    public byte[] toByteArray() {
+        checkValid();
+        byte[] result = new byte[buffer.capacity()];
+        get(0, result, 0, result.length);
+        return result;
+    }
+
+    private void checkValid() {
+        if (statement.getGeneration() != generation) {
+            throw new IllegalStateException("blob view used after the cursor moved or the statement was reset");
+        }
+    }
+}
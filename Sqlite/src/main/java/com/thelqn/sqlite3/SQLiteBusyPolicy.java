@@ -0,0 +1,67 @@
+package com.thelqn.sqlite3;
+
+/**
+ * How a connection waits when another connection holds a conflicting lock.
+ * Set it with {@link SQLiteDatabase#setBusyPolicy(SQLiteBusyPolicy)}.
+ */
+public class SQLiteBusyPolicy {
+
+    public static final int MODE_NONE = 0;
+    public static final int MODE_TIMEOUT = 1;
+    public static final int MODE_BACKOFF = 2;
+
+    public static final SQLiteBusyPolicy DEFAULT = backoff(1, 100, 3000);
+
+    private final int mode;
+    private final int initialDelayMs;
+    private final int maxDelayMs;
+    private final int timeoutMs;
+
+    private SQLiteBusyPolicy(int mode, int initialDelayMs, int maxDelayMs, int timeoutMs) {
+        this.mode = mode;
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Fail with SQLITE_BUSY immediately.
+     */
+    public static SQLiteBusyPolicy none() {
+        return new SQLiteBusyPolicy(MODE_NONE, 0, 0, 0);
+    }
+
+    /**
+     * Uses sqlite3_busy_timeout. Waits inside the engine are not reflected in the busy counters.
+     */
+    public static SQLiteBusyPolicy timeout(int timeoutMs) {
+        return new SQLiteBusyPolicy(MODE_TIMEOUT, 0, 0, timeoutMs);
+    }
+
+    /**
+     * Native busy handler sleeping initialDelayMs, doubling up to maxDelayMs with random jitter,
+     * until the lock is released or timeoutMs passed since the first retry.
+     */
+    public static SQLiteBusyPolicy backoff(int initialDelayMs, int maxDelayMs, int timeoutMs) {
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs) {
+            throw new IllegalArgumentException("invalid backoff delays " + initialDelayMs + ".." + maxDelayMs);
+        }
+        return new SQLiteBusyPolicy(MODE_BACKOFF, initialDelayMs, maxDelayMs, timeoutMs);
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public int getInitialDelayMs() {
+        return initialDelayMs;
+    }
+
+    public int getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+}
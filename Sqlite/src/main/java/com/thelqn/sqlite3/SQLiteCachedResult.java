@@ -0,0 +1,183 @@
+package com.thelqn.sqlite3;
+
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Rows of a query read from a {@link SQLiteResultCache} entry, with the same accessors as
+ * {@link SQLiteCursor}. Values are decoded from the serialized entry on demand. Must be disposed,
+ * the entry buffer is not reused while results read it.
+ */
+public class SQLiteCachedResult {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SQLiteResultCache.Entry entry;
+    private final NativeByteBuffer data = new NativeByteBuffer(false);
+    private final int columnCount;
+    private final int rowCount;
+    private final int[] offsets;
+    private final byte[] types;
+    private int row = -1;
+    private int rowEnd;
+    private boolean disposed;
+
+    SQLiteCachedResult(SQLiteResultCache.Entry entry) {
+        this.entry = entry;
+        data.buffer = entry.data.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        data.buffer.position(0);
+        data.buffer.limit(entry.length);
+        columnCount = data.readInt32(true);
+        rowCount = data.readInt32(true);
+        rowEnd = data.position();
+        offsets = new int[columnCount];
+        types = new byte[columnCount];
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public boolean next() throws SQLiteException {
+        checkDisposed();
+        if (row + 1 >= rowCount) {
+            return false;
+        }
+        row++;
+        data.position(rowEnd);
+        for (int a = 0; a < columnCount; a++) {
+            types[a] = data.buffer.get();
+            offsets[a] = data.position();
+            switch (types[a]) {
+                case SQLiteCursor.FIELD_TYPE_INT:
+                case SQLiteCursor.FIELD_TYPE_FLOAT:
+                    data.skip(8);
+                    break;
+                case SQLiteCursor.FIELD_TYPE_STRING:
+                case SQLiteCursor.FIELD_TYPE_BYTEARRAY:
+                    skipByteArray();
+                    break;
+            }
+        }
+        rowEnd = data.position();
+        return true;
+    }
+
+    public int getTypeOf(int columnIndex) throws SQLiteException {
+        checkRow(columnIndex);
+        return types[columnIndex];
+    }
+
+    public boolean isNull(int columnIndex) throws SQLiteException {
+        return getTypeOf(columnIndex) == SQLiteCursor.FIELD_TYPE_NULL;
+    }
+
+    public long longValue(int columnIndex) throws SQLiteException {
+        switch (getTypeOf(columnIndex)) {
+            case SQLiteCursor.FIELD_TYPE_INT:
+                data.position(offsets[columnIndex]);
+                return data.readInt64(true);
+            case SQLiteCursor.FIELD_TYPE_FLOAT:
+                data.position(offsets[columnIndex]);
+                return (long) data.readDouble(true);
+            case SQLiteCursor.FIELD_TYPE_STRING:
+            case SQLiteCursor.FIELD_TYPE_BYTEARRAY:
+                return SQLiteCursor.textToLong(stringValue(columnIndex));
+            default:
+                return 0;
+        }
+    }
+
+    public int intValue(int columnIndex) throws SQLiteException {
+        return (int) longValue(columnIndex);
+    }
+
+    public double doubleValue(int columnIndex) throws SQLiteException {
+        switch (getTypeOf(columnIndex)) {
+            case SQLiteCursor.FIELD_TYPE_INT:
+                data.position(offsets[columnIndex]);
+                return data.readInt64(true);
+            case SQLiteCursor.FIELD_TYPE_FLOAT:
+                data.position(offsets[columnIndex]);
+                return data.readDouble(true);
+            case SQLiteCursor.FIELD_TYPE_STRING:
+            case SQLiteCursor.FIELD_TYPE_BYTEARRAY:
+                return SQLiteCursor.textToDouble(stringValue(columnIndex));
+            default:
+                return 0;
+        }
+    }
+
+    public String stringValue(int columnIndex) throws SQLiteException {
+        switch (getTypeOf(columnIndex)) {
+            case SQLiteCursor.FIELD_TYPE_INT:
+                return Long.toString(longValue(columnIndex));
+            case SQLiteCursor.FIELD_TYPE_FLOAT:
+                return Double.toString(doubleValue(columnIndex));
+            case SQLiteCursor.FIELD_TYPE_STRING:
+                data.position(offsets[columnIndex]);
+                return data.readString(true);
+            case SQLiteCursor.FIELD_TYPE_BYTEARRAY:
+                data.position(offsets[columnIndex]);
+                return new String(data.readByteArray(true), UTF_8);
+            default:
+                return null;
+        }
+    }
+
+    public byte[] byteArrayValue(int columnIndex) throws SQLiteException {
+        int type = getTypeOf(columnIndex);
+        if (type != SQLiteCursor.FIELD_TYPE_STRING && type != SQLiteCursor.FIELD_TYPE_BYTEARRAY) {
+            return null;
+        }
+        data.position(offsets[columnIndex]);
+        return data.readByteArray(true);
+    }
+
+    /**
+     * Releases the entry, the result can't be read afterwards.
+     */
+    public void dispose() {
+        if (disposed) {
+            return;
+        }
+        disposed = true;
+        data.buffer = null;
+        entry.release();
+    }
+
+    private void skipByteArray() {
+        int length = data.getIntFromByte(data.buffer.get());
+        int prefix = 1;
+        if (length >= 254) {
+            length = data.getIntFromByte(data.buffer.get()) | (data.getIntFromByte(data.buffer.get()) << 8) | (data.getIntFromByte(data.buffer.get()) << 16);
+            prefix = 4;
+        }
+        int skip = length;
+        while ((length + prefix) % 4 != 0) {
+            skip++;
+            prefix++;
+        }
+        data.skip(skip);
+    }
+
+    private void checkDisposed() throws SQLiteException {
+        if (disposed) {
+            throw new SQLiteException("Cached result disposed");
+        }
+    }
+
+    private void checkRow(int columnIndex) throws SQLiteException {
+        checkDisposed();
+        if (row < 0 || row >= rowCount) {
+            throw new SQLiteException("Cached result not positioned on a row");
+        }
+        if (columnIndex < 0 || columnIndex >= columnCount) {
+            throw new SQLiteException("Column index " + columnIndex + " out of range");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.thelqn.sqlite3;
+
+import java.util.ArrayList;
+
+/**
+ * Cancellation token for {@link SQLiteDatabase#runGuarded}. Cancelling stops the statements of
+ * every task currently guarded by the signal, on any connection, and makes later guarded tasks
+ * fail before they start. Can be cancelled from any thread.
+ */
+public class SQLiteCancellationSignal {
+
+    private final ArrayList<SQLiteDatabase> databases = new ArrayList<>();
+    private boolean cancelled;
+
+    public void cancel() {
+        ArrayList<SQLiteDatabase> running;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            running = new ArrayList<>(databases);
+        }
+        for (int a = 0; a < running.size(); a++) {
+            running.get(a).cancelGuard(this);
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void throwIfCancelled() throws SQLiteException {
+        if (isCancelled()) {
+            throw new SQLiteException(SQLiteDatabase.SQLITE_INTERRUPT_CANCELLED, "cancelled");
+        }
+    }
+
+    /**
+     * @return false if the signal is already cancelled
+     */
+    synchronized boolean attach(SQLiteDatabase db) {
+        if (cancelled) {
+            return false;
+        }
+        databases.add(db);
+        return true;
+    }
+
+    synchronized void detach(SQLiteDatabase db) {
+        databases.remove(db);
+    }
+}
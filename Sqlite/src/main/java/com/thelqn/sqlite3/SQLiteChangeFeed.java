@@ -0,0 +1,184 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Change feed of a connection built on the update, commit and rollback hooks. Changed rowids are
+ * collected natively per transaction, only for tables somebody subscribed to, and delivered as one
+ * {@link SQLiteChangeSet} once the statement that committed them returns. Rolled back changes are
+ * dropped. Changes to WITHOUT ROWID tables are not reported by sqlite.
+ */
+public class SQLiteChangeFeed {
+
+    public interface Listener {
+        void onChanges(SQLiteChangeSet changes);
+    }
+
+    private static class Subscription {
+        final Listener listener;
+        final HashSet<String> tables;
+        final Executor executor;
+
+        Subscription(Listener listener, HashSet<String> tables, Executor executor) {
+            this.listener = listener;
+            this.tables = tables;
+            this.executor = executor;
+        }
+    }
+
+    private final SQLiteDatabase database;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private long feedHandle;
+
+    /**
+     * Set natively by the commit hook.
+     */
+    volatile boolean commitPending;
+
+    SQLiteChangeFeed(SQLiteDatabase db) {
+        database = db;
+        feedHandle = install(db.getSQLiteHandle());
+    }
+
+    /**
+     * @param tables tables the listener depends on, none to receive the changes of every table
+     * @param executor where the listener runs, null to run it on the committing thread
+     */
+    public void subscribe(Listener listener, Executor executor, String... tables) {
+        subscriptions.add(new Subscription(listener, toSet(tables), executor));
+        updateFilter();
+    }
+
+    public void subscribe(Listener listener, String... tables) {
+        subscribe(listener, null, tables);
+    }
+
+    /**
+     * Replaces the tables of the subscriptions of listener, subscribing it on the committing
+     * thread if it has none. Changes to tables it already depended on keep being delivered
+     * while the filter is updated.
+     */
+    public void updateTables(Listener listener, String... tables) {
+        HashSet<String> set = toSet(tables);
+        boolean found = false;
+        synchronized (subscriptions) {
+            for (int a = 0; a < subscriptions.size(); a++) {
+                Subscription subscription = subscriptions.get(a);
+                if (subscription.listener == listener) {
+                    subscriptions.set(a, new Subscription(listener, set, subscription.executor));
+                    found = true;
+                }
+            }
+            if (!found) {
+                subscriptions.add(new Subscription(listener, set, null));
+            }
+        }
+        updateFilter();
+    }
+
+    public void unsubscribe(Listener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscriptions.remove(subscription);
+            }
+        }
+        updateFilter();
+    }
+
+    public SQLiteDatabase getDatabase() {
+        return database;
+    }
+
+    private static HashSet<String> toSet(String[] tables) {
+        if (tables == null || tables.length == 0) {
+            return null;
+        }
+        HashSet<String> set = new HashSet<>();
+        for (String table : tables) {
+            set.add(table.toLowerCase(Locale.US));
+        }
+        return set;
+    }
+
+    private synchronized void updateFilter() {
+        if (feedHandle == 0) {
+            return;
+        }
+        HashSet<String> tables = new HashSet<>();
+        boolean all = false;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.tables == null) {
+                all = true;
+            } else {
+                tables.addAll(subscription.tables);
+            }
+        }
+        setTables(feedHandle, tables.toArray(new String[0]), all);
+    }
+
+    /**
+     * Delivers the changes of committed transactions, called after statements return.
+     */
+    void dispatch() {
+        Object[] changes;
+        synchronized (this) {
+            commitPending = false;
+            if (feedHandle == 0) {
+                return;
+            }
+            changes = takeChanges(database.getSQLiteHandle(), feedHandle);
+        }
+        if (changes == null) {
+            return;
+        }
+        final SQLiteChangeSet changeSet = new SQLiteChangeSet((String[]) changes[0], (long[][]) changes[1]);
+        for (final Subscription subscription : subscriptions) {
+            if (subscription.tables != null && !dependsOn(subscription.tables, changeSet)) {
+                continue;
+            }
+            if (subscription.executor != null) {
+                subscription.executor.execute(() -> notify(subscription.listener, changeSet));
+            } else {
+                notify(subscription.listener, changeSet);
+            }
+        }
+    }
+
+    private static boolean dependsOn(HashSet<String> tables, SQLiteChangeSet changeSet) {
+        for (String table : changeSet.getTables()) {
+            if (tables.contains(table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void notify(Listener listener, SQLiteChangeSet changeSet) {
+        try {
+            listener.onChanges(changeSet);
+        } catch (Exception e) {
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", e.getMessage(), e);
+            }
+        }
+    }
+
+    synchronized void close() {
+        if (feedHandle != 0) {
+            release(database.getSQLiteHandle(), feedHandle);
+            feedHandle = 0;
+        }
+        subscriptions.clear();
+    }
+
+    native long install(long sqliteHandle);
+    native void release(long sqliteHandle, long feedHandle);
+    native void setTables(long feedHandle, String[] tables, boolean allTables);
+    native Object[] takeChanges(long sqliteHandle, long feedHandle);
+}
@@ -0,0 +1,58 @@
+package com.thelqn.sqlite3;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Rows changed by one committed transaction, grouped by table. Table names are lower case.
+ */
+public class SQLiteChangeSet {
+
+    private final HashMap<String, long[]> rowIds;
+    private final HashMap<String, Boolean> fullTables;
+
+    SQLiteChangeSet(String[] tables, long[][] tableRowIds) {
+        rowIds = new HashMap<>(tables.length * 2);
+        fullTables = new HashMap<>();
+        for (int a = 0; a < tables.length; a++) {
+            String table = tables[a].toLowerCase(Locale.US);
+            if (tableRowIds[a] == null) {
+                fullTables.put(table, Boolean.TRUE);
+                rowIds.put(table, new long[0]);
+            } else {
+                rowIds.put(table, tableRowIds[a]);
+            }
+        }
+    }
+
+    public Set<String> getTables() {
+        return Collections.unmodifiableSet(rowIds.keySet());
+    }
+
+    public boolean contains(String table) {
+        return rowIds.containsKey(table.toLowerCase(Locale.US));
+    }
+
+    /**
+     * @return sorted rowids inserted, updated or deleted in table, empty if the table
+     * did not change or too many rows changed to track them, see {@link #isFullTable(String)}
+     */
+    public long[] getRowIds(String table) {
+        long[] result = rowIds.get(table.toLowerCase(Locale.US));
+        return result != null ? result : new long[0];
+    }
+
+    /**
+     * @return true if so many rows of table changed that the rowids were dropped, treat the whole table as changed
+     */
+    public boolean isFullTable(String table) {
+        return fullTables.containsKey(table.toLowerCase(Locale.US));
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteChangeSet" + rowIds.keySet();
+    }
+}
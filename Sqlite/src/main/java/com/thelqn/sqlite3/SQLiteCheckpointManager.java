@@ -0,0 +1,240 @@
+package com.thelqn.sqlite3;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Moves WAL checkpoints off the committing writer. Registers a wal hook on the writer, which
+ * replaces sqlite autocheckpoint, and runs checkpoints on its own connection and queue once
+ * the WAL grows past the threshold. Normally checkpoints are PASSIVE, when the WAL is over the
+ * size budget they escalate to RESTART, and to TRUNCATE at twice the budget.
+ * Close the manager before closing the writer.
+ */
+public class SQLiteCheckpointManager {
+
+    public static final int CHECKPOINT_PASSIVE = 0;
+    public static final int CHECKPOINT_FULL = 1;
+    public static final int CHECKPOINT_RESTART = 2;
+    public static final int CHECKPOINT_TRUNCATE = 3;
+
+    public static final int DEFAULT_THRESHOLD_FRAMES = 1000;
+    public static final int DEFAULT_DELAY_MS = 200;
+
+    private final SQLiteDatabase writer;
+    private final SQLiteDatabase checkpointer;
+    private final DispatchQueue queue;
+    private final Runnable checkpointRunnable = this::runCheckpoint;
+    private final int pageSize;
+    // guarded by this, close() releases the native state
+    private long walHandle;
+
+    private volatile int delayMs = DEFAULT_DELAY_MS;
+    private volatile long walBudgetBytes = 4 * 1024 * 1024;
+
+    private volatile int lastLogFrames;
+    private volatile int lastCheckpointedFrames;
+    private volatile long lastDurationMs;
+    private volatile long totalDurationMs;
+    private volatile long maxDurationMs;
+    private volatile long checkpointCount;
+    private volatile long escalationCount;
+    private volatile long busyCount;
+    private final int[] frames = new int[2];
+
+    /**
+     * @param writer   the connection that commits writes, the wal hook is registered on it
+     * @param fileName Database file name, a separate connection is opened for checkpoints
+     * @param tempDir  Database file directory
+     * @param queue    low priority queue the checkpoints run on
+     */
+    public SQLiteCheckpointManager(SQLiteDatabase writer, String fileName, String tempDir, DispatchQueue queue) throws SQLiteException {
+        this.writer = writer;
+        this.queue = queue;
+        checkpointer = new SQLiteDatabase(fileName, tempDir, SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.OPEN_NOMUTEX);
+        try {
+            checkpointer.setBusyPolicy(SQLiteBusyPolicy.backoff(1, 50, 1000));
+            Integer size = writer.executeInt("PRAGMA page_size");
+            pageSize = size != null ? size : 4096;
+            // restored when the hook is released, it may come from SQLiteOpenOptions
+            Integer autocheckpoint = writer.executeInt("PRAGMA wal_autocheckpoint");
+            walHandle = walHookInstall(writer.getSQLiteHandle(), DEFAULT_THRESHOLD_FRAMES, autocheckpoint != null ? autocheckpoint : 1000);
+        } catch (SQLiteException e) {
+            checkpointer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param frames WAL size in pages after which a checkpoint is scheduled
+     */
+    public synchronized void setThresholdFrames(int frames) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("threshold must be at least 1 frame");
+        }
+        if (walHandle != 0) {
+            walSetThreshold(walHandle, frames);
+        }
+    }
+
+    /**
+     * @param ms how long a scheduled checkpoint waits, so it doesn't run in the middle of a burst of commits
+     */
+    public void setDelayMs(int ms) {
+        delayMs = Math.max(ms, 0);
+    }
+
+    /**
+     * @param bytes WAL size above which checkpoints escalate to RESTART and TRUNCATE
+     */
+    public void setWalBudgetBytes(long bytes) {
+        walBudgetBytes = Math.max(bytes, pageSize);
+    }
+
+    /**
+     * Schedules a checkpoint regardless of the WAL size.
+     */
+    public void requestCheckpoint() {
+        queue.cancelRunnable(checkpointRunnable);
+        queue.postRunnable(checkpointRunnable);
+    }
+
+    /**
+     * Runs a checkpoint on the calling thread.
+     *
+     * @param mode one of the CHECKPOINT_* constants
+     * @return false if the checkpoint could not complete because of readers or writers
+     */
+    public synchronized boolean checkpoint(int mode) throws SQLiteException {
+        checkpointer.checkOpened();
+        long start = SystemClock.elapsedRealtime();
+        boolean done = checkpoint(checkpointer.getSQLiteHandle(), mode, frames);
+        long duration = SystemClock.elapsedRealtime() - start;
+        lastLogFrames = frames[0];
+        lastCheckpointedFrames = frames[1];
+        lastDurationMs = duration;
+        totalDurationMs += duration;
+        if (duration > maxDurationMs) {
+            maxDurationMs = duration;
+        }
+        checkpointCount++;
+        if (!done) {
+            busyCount++;
+        }
+        return done;
+    }
+
+    /**
+     * @return WAL size in bytes as of the last commit of the writer
+     */
+    public synchronized long getWalSizeBytes() {
+        return walHandle != 0 ? (long) walFrames(walHandle) * pageSize : 0;
+    }
+
+    /**
+     * @return WAL size in frames reported by the last checkpoint
+     */
+    public int getLastLogFrames() {
+        return lastLogFrames;
+    }
+
+    /**
+     * @return frames moved into the database by the last checkpoint
+     */
+    public int getLastCheckpointedFrames() {
+        return lastCheckpointedFrames;
+    }
+
+    public long getLastDurationMs() {
+        return lastDurationMs;
+    }
+
+    public long getTotalDurationMs() {
+        return totalDurationMs;
+    }
+
+    public long getMaxDurationMs() {
+        return maxDurationMs;
+    }
+
+    public long getCheckpointCount() {
+        return checkpointCount;
+    }
+
+    /**
+     * @return number of checkpoints run as RESTART or TRUNCATE because the WAL was over budget
+     */
+    public long getEscalationCount() {
+        return escalationCount;
+    }
+
+    /**
+     * @return number of checkpoints that could not complete because of readers or writers
+     */
+    public long getBusyCount() {
+        return busyCount;
+    }
+
+    /**
+     * @return number of commits seen by the wal hook
+     */
+    public synchronized long getCommitCount() {
+        return walHandle != 0 ? walCommits(walHandle) : 0;
+    }
+
+    /**
+     * Unregisters the wal hook and closes the checkpoint connection,
+     * the autocheckpoint the writer had when the manager was created is restored.
+     */
+    public void close() {
+        queue.cancelRunnable(checkpointRunnable);
+        synchronized (this) {
+            if (walHandle != 0) {
+                walHookRelease(writer.getSQLiteHandle(), walHandle);
+                walHandle = 0;
+            }
+            checkpointer.close();
+        }
+    }
+
+    /**
+     * Called from the wal hook on the committing thread, at most once until the checkpoint runs.
+     */
+    void onWalThreshold(int frames) {
+        queue.postRunnable(checkpointRunnable, delayMs);
+    }
+
+    private synchronized void runCheckpoint() {
+        if (walHandle == 0) {
+            return;
+        }
+        // commits after this point can schedule the next checkpoint
+        walClearPending(walHandle);
+        long walBytes = (long) walFrames(walHandle) * pageSize;
+        int mode = CHECKPOINT_PASSIVE;
+        if (walBytes >= walBudgetBytes * 2) {
+            mode = CHECKPOINT_TRUNCATE;
+        } else if (walBytes >= walBudgetBytes) {
+            mode = CHECKPOINT_RESTART;
+        }
+        if (mode != CHECKPOINT_PASSIVE) {
+            escalationCount++;
+        }
+        try {
+            if (!checkpoint(mode) && BuildVars.LOGS_ENABLED) {
+                Log.d("Debug", "checkpoint " + mode + " busy, " + lastCheckpointedFrames + " of " + lastLogFrames + " frames");
+            }
+        } catch (SQLiteException e) {
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", e.getMessage(), e);
+            }
+        }
+    }
+
+    native long walHookInstall(long sqliteHandle, int thresholdFrames, int autocheckpointFrames);
+    native void walHookRelease(long sqliteHandle, long walHandle);
+    native void walSetThreshold(long walHandle, int thresholdFrames);
+    native void walClearPending(long walHandle);
+    native int walFrames(long walHandle);
+    native long walCommits(long walHandle);
+    native boolean checkpoint(long sqliteHandle, int mode, int[] frames) throws SQLiteException;
+}
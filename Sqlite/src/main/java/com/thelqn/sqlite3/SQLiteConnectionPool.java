@@ -0,0 +1,189 @@
+package com.thelqn.sqlite3;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One writer connection plus a set of read-only connections opened on the same file in WAL mode,
+ * so reads run in parallel with each other and with writes. Every connection keeps its own
+ * statement cache. Idle readers are kept in a lock-free queue, a reader is borrowed for the
+ * duration of a read task or until the returned cursor is disposed.
+ */
+public class SQLiteConnectionPool {
+
+    public interface Task<T> {
+        T run(SQLiteDatabase db) throws SQLiteException;
+    }
+
+    private final SQLiteDatabase writer;
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private final SQLiteDatabase[] readers;
+    private final ConcurrentLinkedQueue<SQLiteDatabase> idleReaders = new ConcurrentLinkedQueue<>();
+    private final Semaphore readerPermits;
+    private volatile boolean isOpen;
+
+    /**
+     * @param readerCount number of read-only connections, at least 1
+     */
+    public SQLiteConnectionPool(String fileName, String tempDir, int readerCount) throws SQLiteException {
+        if (readerCount < 1) {
+            throw new IllegalArgumentException("readerCount must be at least 1");
+        }
+        writer = new SQLiteDatabase(fileName, tempDir);
+        readers = new SQLiteDatabase[readerCount];
+        try {
+            writer.executeFast("PRAGMA journal_mode = WAL").stepThis().dispose();
+            for (int a = 0; a < readerCount; a++) {
+                readers[a] = new SQLiteDatabase(fileName, tempDir, SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.OPEN_NOMUTEX);
+                idleReaders.add(readers[a]);
+            }
+        } catch (SQLiteException e) {
+            closeConnections();
+            throw e;
+        }
+        readerPermits = new Semaphore(readerCount);
+        isOpen = true;
+    }
+
+    /**
+     * @return the writer connection, only use it from inside {@link #write(Task)}
+     * or from the single queue that owns writes
+     */
+    public SQLiteDatabase getWriter() {
+        return writer;
+    }
+
+    public int getReaderCount() {
+        return readers.length;
+    }
+
+    /**
+     * Borrows an idle reader, waiting for one if all of them are in use.
+     * Must be returned with {@link #releaseReader(SQLiteDatabase)}.
+     */
+    public SQLiteDatabase acquireReader() throws SQLiteException {
+        checkOpened();
+        try {
+            readerPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLiteException("interrupted while waiting for a reader");
+        }
+        if (!isOpen) {
+            readerPermits.release();
+            throw new SQLiteException("Connection pool closed");
+        }
+        SQLiteDatabase db = idleReaders.poll();
+        if (db == null) {
+            readerPermits.release();
+            throw new SQLiteException("no idle reader");
+        }
+        return db;
+    }
+
+    public void releaseReader(SQLiteDatabase db) {
+        idleReaders.add(db);
+        readerPermits.release();
+    }
+
+    public <T> T read(Task<T> task) throws SQLiteException {
+        SQLiteDatabase db = acquireReader();
+        try {
+            return task.run(db);
+        } finally {
+            releaseReader(db);
+        }
+    }
+
+    public <T> T write(Task<T> task) throws SQLiteException {
+        checkOpened();
+        writerLock.lock();
+        try {
+            return task.run(writer);
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Runs a read query on a borrowed reader, the reader is returned when the cursor is disposed.
+     */
+    public SQLiteCursor queryFinalized(String sql, Object... args) throws SQLiteException {
+        final SQLiteDatabase db = acquireReader();
+        SQLiteCursor cursor;
+        try {
+            cursor = db.queryFinalized(sql, args);
+        } catch (SQLiteException | RuntimeException e) {
+            releaseReader(db);
+            throw e;
+        }
+        cursor.setOnDispose(() -> releaseReader(db));
+        return cursor;
+    }
+
+    public SQLiteCursor queryFinalized(String sql, SQLiteArguments args) throws SQLiteException {
+        final SQLiteDatabase db = acquireReader();
+        SQLiteCursor cursor;
+        try {
+            cursor = db.queryFinalized(sql, args);
+        } catch (SQLiteException | RuntimeException e) {
+            releaseReader(db);
+            throw e;
+        }
+        cursor.setOnDispose(() -> releaseReader(db));
+        return cursor;
+    }
+
+    public Integer executeInt(final String sql, final Object... args) throws SQLiteException {
+        return read(db -> db.executeInt(sql, args));
+    }
+
+    /**
+     * Executes a write statement on the writer connection.
+     */
+    public void execute(final String sql, final Object... args) throws SQLiteException {
+        write(db -> {
+            SQLitePreparedStatement state = db.executeFast(sql);
+            try {
+                state.query(args);
+                state.stepThis();
+            } finally {
+                state.dispose();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Closes all connections. Waits until every borrowed reader is returned and the running write
+     * task finishes, so cursors of {@link #queryFinalized} must be disposed before.
+     */
+    public void close() {
+        isOpen = false;
+        readerPermits.acquireUninterruptibly(readers.length);
+        writerLock.lock();
+        try {
+            closeConnections();
+        } finally {
+            writerLock.unlock();
+            // wakes threads waiting in acquireReader, they see the pool closed
+            readerPermits.release(readers.length);
+        }
+    }
+
+    private void closeConnections() {
+        for (int a = 0; a < readers.length; a++) {
+            if (readers[a] != null) {
+                readers[a].close();
+            }
+        }
+        writer.close();
+    }
+
+    void checkOpened() throws SQLiteException {
+        if (!isOpen) {
+            throw new SQLiteException("Connection pool closed");
+        }
+    }
+}
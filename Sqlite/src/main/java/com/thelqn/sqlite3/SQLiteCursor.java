@@ -8,7 +8,9 @@
 
 package com.thelqn.sqlite3;
 
-import android.util.Log;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
 
 public class SQLiteCursor {
 
@@ -18,8 +20,29 @@ public class SQLiteCursor {
     public static final int FIELD_TYPE_BYTEARRAY = 4;
     public static final int FIELD_TYPE_NULL = 5;
 
+    public static final int DEFAULT_WINDOW_BYTE_SIZE = 160000;
+
+    private static final int WINDOW_HEADER_SIZE = 16;
+    private static final int WINDOW_FLAG_DONE = 1;
+    private static final int WINDOW_FLAG_PENDING = 2;
+    private static final int WINDOW_FLAG_BUSY = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private SQLitePreparedStatement preparedStatement;
     private boolean inRow = false;
+    private Runnable onDispose;
+
+    private int windowMaxRows;
+    private int windowByteSize = DEFAULT_WINDOW_BYTE_SIZE;
+    private long windowAddress;
+    private ByteBuffer window;
+    private int windowRowCount;
+    private int windowColumnCount;
+    private int windowTableOffset;
+    private int windowFlags;
+    private int windowRow;
+    private byte[] stringBytes;
 
     public SQLiteCursor(SQLitePreparedStatement stmt) {
         preparedStatement = stmt;
@@ -27,6 +50,9 @@ public class SQLiteCursor {
 
     public boolean isNull(int columnIndex) throws SQLiteException {
         checkRow();
+        if (window != null) {
+            return windowType(columnIndex) == FIELD_TYPE_NULL;
+        }
         return columnIsNull(preparedStatement.getStatementHandle(), columnIndex) == 1;
     }
 
@@ -36,31 +62,51 @@ public class SQLiteCursor {
 
     public int intValue(int columnIndex) throws SQLiteException {
         checkRow();
+        if (window != null) {
+            return (int) windowLongValue(columnIndex);
+        }
         return columnIntValue(preparedStatement.getStatementHandle(), columnIndex);
     }
 
     public double doubleValue(int columnIndex) throws SQLiteException {
         checkRow();
+        if (window != null) {
+            return windowDoubleValue(columnIndex);
+        }
         return columnDoubleValue(preparedStatement.getStatementHandle(), columnIndex);
     }
 
     public long longValue(int columnIndex) throws SQLiteException {
         checkRow();
+        if (window != null) {
+            return windowLongValue(columnIndex);
+        }
         return columnLongValue(preparedStatement.getStatementHandle(), columnIndex);
     }
 
     public String stringValue(int columnIndex) throws SQLiteException {
         checkRow();
+        if (window != null) {
+            return windowStringValue(columnIndex);
+        }
+        // reading a blob as text may reallocate it, blob views of the column must not be used after this
+        preparedStatement.nextGeneration();
         return columnStringValue(preparedStatement.getStatementHandle(), columnIndex);
     }
 
     public byte[] byteArrayValue(int columnIndex) throws SQLiteException {
         checkRow();
+        if (window != null) {
+            return windowByteArrayValue(columnIndex);
+        }
         return columnByteArrayValue(preparedStatement.getStatementHandle(), columnIndex);
     }
 
     public NativeByteBuffer byteBufferValue(int columnIndex) throws SQLiteException {
         checkRow();
+        if (window != null) {
+            return windowByteBufferValue(columnIndex);
+        }
         long ptr = columnByteBufferValue(preparedStatement.getStatementHandle(), columnIndex);
         if (ptr != 0) {
             return NativeByteBuffer.wrap(ptr);
@@ -68,32 +114,183 @@ public class SQLiteCursor {
         return null;
     }
 
+    /**
+     * Returns a zero-copy read-only view of a blob column, valid until the next call to next(),
+     * stringValue() or dispose(). Returns null for NULL or empty values.
+     */
+    public SQLiteBlobView blobView(int columnIndex) throws SQLiteException {
+        checkRow();
+        ByteBuffer buffer;
+        if (window != null) {
+            int cell = windowCell(columnIndex);
+            int type = window.getInt(cell);
+            if (type != FIELD_TYPE_STRING && type != FIELD_TYPE_BYTEARRAY) {
+                return null;
+            }
+            int offset = window.getInt(cell + 4);
+            int length = window.getInt(offset);
+            if (length <= 0) {
+                return null;
+            }
+            buffer = window.duplicate();
+            buffer.limit(offset + 4 + length);
+            buffer.position(offset + 4);
+            buffer = buffer.slice();
+        } else {
+            buffer = columnBlobView(preparedStatement.getStatementHandle(), columnIndex);
+            if (buffer == null) {
+                return null;
+            }
+        }
+        return new SQLiteBlobView(preparedStatement, preparedStatement.getGeneration(), buffer);
+    }
+
     public int getTypeOf(int columnIndex) throws SQLiteException {
         checkRow();
+        if (window != null) {
+            return windowType(columnIndex);
+        }
         return columnType(preparedStatement.getStatementHandle(), columnIndex);
     }
 
+    public long[] longColumn(int columnIndex) throws SQLiteException {
+        SQLiteLongArray result = new SQLiteLongArray();
+        fillLongColumn(columnIndex, result);
+        return result.toArray();
+    }
+
+    /**
+     * Appends the value of columnIndex from every remaining row to out,
+     * rows are stepped natively without a JNI call per value.
+     *
+     * @return number of appended values
+     */
+    public int fillLongColumn(int columnIndex, SQLiteLongArray out) throws SQLiteException {
+        int start = out.size;
+        fillColumn(() -> out.add(windowLongValue(columnIndex)), pending -> {
+            out.ensureCapacity(out.size + 64);
+            int res = drainLongColumn(preparedStatement.getStatementHandle(), columnIndex, out.values, out.size, pending);
+            out.size += res < 0 ? -1 - res : res;
+            return res < 0 ? res : out.values.length - out.size;
+        });
+        return out.size - start;
+    }
+
+    public int[] intColumn(int columnIndex) throws SQLiteException {
+        SQLiteIntArray result = new SQLiteIntArray();
+        fillIntColumn(columnIndex, result);
+        return result.toArray();
+    }
+
+    /**
+     * Appends the value of columnIndex from every remaining row to out,
+     * rows are stepped natively without a JNI call per value.
+     *
+     * @return number of appended values
+     */
+    public int fillIntColumn(int columnIndex, SQLiteIntArray out) throws SQLiteException {
+        int start = out.size;
+        fillColumn(() -> out.add((int) windowLongValue(columnIndex)), pending -> {
+            out.ensureCapacity(out.size + 64);
+            int res = drainIntColumn(preparedStatement.getStatementHandle(), columnIndex, out.values, out.size, pending);
+            out.size += res < 0 ? -1 - res : res;
+            return res < 0 ? res : out.values.length - out.size;
+        });
+        return out.size - start;
+    }
+
+    public double[] doubleColumn(int columnIndex) throws SQLiteException {
+        SQLiteDoubleArray result = new SQLiteDoubleArray();
+        fillDoubleColumn(columnIndex, result);
+        return result.toArray();
+    }
+
+    /**
+     * Appends the value of columnIndex from every remaining row to out,
+     * rows are stepped natively without a JNI call per value.
+     *
+     * @return number of appended values
+     */
+    public int fillDoubleColumn(int columnIndex, SQLiteDoubleArray out) throws SQLiteException {
+        int start = out.size;
+        fillColumn(() -> out.add(windowDoubleValue(columnIndex)), pending -> {
+            out.ensureCapacity(out.size + 64);
+            int res = drainDoubleColumn(preparedStatement.getStatementHandle(), columnIndex, out.values, out.size, pending);
+            out.size += res < 0 ? -1 - res : res;
+            return res < 0 ? res : out.values.length - out.size;
+        });
+        return out.size - start;
+    }
+
+    private interface WindowAppender {
+        void append() throws SQLiteException;
+    }
+
+    private interface ColumnDrain {
+        /**
+         * Steps rows natively into the output array until it is full or the rows run out.
+         *
+         * @return free space left in the array, 0 if it filled up, negative if sqlite stayed busy
+         */
+        int drain(boolean hasPendingRow) throws SQLiteException;
+    }
+
+    /**
+     * Appends the rest of the current window value by value, then drains the remaining rows.
+     */
+    private void fillColumn(WindowAppender appender, ColumnDrain drain) throws SQLiteException {
+        preparedStatement.nextGeneration();
+        boolean pending = false;
+        if (window != null) {
+            while (windowRow + 1 < windowRowCount) {
+                windowRow++;
+                appender.append();
+            }
+            pending = (windowFlags & WINDOW_FLAG_PENDING) != 0;
+            boolean done = (windowFlags & WINDOW_FLAG_DONE) != 0;
+            releaseWindow();
+            if (done) {
+                inRow = false;
+                return;
+            }
+        }
+        int left;
+        do {
+            left = drain.drain(pending);
+            pending = false;
+        } while (left == 0);
+        inRow = false;
+        if (left < 0) {
+            throw preparedStatement.getDatabase().onBusyFailure();
+        }
+    }
+
+    /**
+     * Enables windowed fetch mode: each native call steps up to maxRows rows and packs
+     * their values into a pooled native buffer, getters are then served from it in Java.
+     *
+     * @param maxRows  rows fetched per native call, 0 disables windowed mode
+     * @param byteSize preferred size of the window buffer in bytes
+     */
+    public void setWindowSize(int maxRows, int byteSize) {
+        windowMaxRows = Math.max(maxRows, 0);
+        windowByteSize = Math.max(byteSize, WINDOW_HEADER_SIZE);
+    }
+
+    public void setWindowSize(int maxRows) {
+        setWindowSize(maxRows, DEFAULT_WINDOW_BYTE_SIZE);
+    }
+
     public boolean next() throws SQLiteException {
+        preparedStatement.nextGeneration();
+        if (windowMaxRows > 0 || window != null) {
+            inRow = nextWindowRow();
+            return inRow;
+        }
         int res = preparedStatement.step(preparedStatement.getStatementHandle());
         if (res == -1) {
-            int repeatCount = 6;
-            while (repeatCount-- != 0) {
-                try {
-                    if (BuildVars.LOGS_ENABLED) {
-                        Log.e("Error", "sqlite busy, waiting...");
-                    }
-                    Thread.sleep(500);
-                    res = preparedStatement.step();
-                    if (res == 0) {
-                        break;
-                    }
-                } catch (Exception e) {
-                    Log.e("Error", e.getMessage());
-                }
-            }
-            if (res == -1) {
-                throw new SQLiteException("sqlite busy");
-            }
+            inRow = false;
+            throw preparedStatement.getDatabase().onBusyFailure();
         }
         inRow = (res == 0);
         return inRow;
@@ -104,11 +301,26 @@ public class SQLiteCursor {
     }
 
     public int getColumnCount() {
+        if (window != null) {
+            return windowColumnCount;
+        }
         return columnCount(preparedStatement.getStatementHandle());
     }
 
     public void dispose() {
+        preparedStatement.nextGeneration();
+        releaseWindow();
         preparedStatement.dispose();
+        preparedStatement.getDatabase().dispatchChanges();
+        if (onDispose != null) {
+            Runnable runnable = onDispose;
+            onDispose = null;
+            runnable.run();
+        }
+    }
+
+    void setOnDispose(Runnable runnable) {
+        onDispose = runnable;
     }
 
     void checkRow() throws SQLiteException {
@@ -117,6 +329,243 @@ public class SQLiteCursor {
         }
     }
 
+    private boolean nextWindowRow() throws SQLiteException {
+        if (window != null && windowRow + 1 < windowRowCount) {
+            windowRow++;
+            return true;
+        }
+        boolean done = window != null && (windowFlags & WINDOW_FLAG_DONE) != 0;
+        boolean pending = window != null && (windowFlags & WINDOW_FLAG_PENDING) != 0;
+        releaseWindow();
+        if (done || windowMaxRows <= 0) {
+            return false;
+        }
+        long address = fetchWindow(preparedStatement.getStatementHandle(), windowMaxRows, windowByteSize, pending);
+        if (address == 0) {
+            throw new SQLiteException("can't allocate cursor window");
+        }
+        windowAddress = address;
+        window = NativeByteBuffer.getJavaByteBuffer(address);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        window.limit(NativeByteBuffer.limit(address));
+        windowRowCount = window.getInt(0);
+        windowColumnCount = window.getInt(4);
+        windowTableOffset = window.getInt(8);
+        windowFlags = window.getInt(12);
+        windowRow = 0;
+        if ((windowFlags & WINDOW_FLAG_BUSY) != 0) {
+            releaseWindow();
+            throw preparedStatement.getDatabase().onBusyFailure();
+        }
+        if (windowRowCount == 0) {
+            releaseWindow();
+            return false;
+        }
+        return true;
+    }
+
+    private void releaseWindow() {
+        if (windowAddress != 0) {
+            NativeByteBuffer.reuse(windowAddress);
+            windowAddress = 0;
+        }
+        window = null;
+    }
+
+    private static int skipSpaces(String text) {
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c != ' ' && (c < '\t' || c > '\r')) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Converts text the way sqlite3_column_int64 does: the leading integer, ignoring anything
+     * after it, clamped to the long range, 0 if there is none.
+     */
+    static long textToLong(String text) {
+        int i = skipSpaces(text);
+        boolean negative = false;
+        if (i < text.length() && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        long value = 0;
+        for (; i < text.length(); i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            // accumulated negatively, the negative range is one larger
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                return negative ? Long.MIN_VALUE : Long.MAX_VALUE;
+            }
+            value = value * 10 - digit;
+        }
+        if (negative) {
+            return value;
+        }
+        return value == Long.MIN_VALUE ? Long.MAX_VALUE : -value;
+    }
+
+    /**
+     * Converts text the way sqlite3_column_double does: the longest leading decimal number,
+     * ignoring anything after it, 0 if there is none.
+     */
+    static double textToDouble(String text) {
+        int start = skipSpaces(text);
+        int i = start;
+        int length = text.length();
+        if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        for (; i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+            digits++;
+        }
+        if (i < length && text.charAt(i) == '.') {
+            for (i++; i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return start < length && text.charAt(start) == '-' ? -0.0 : 0.0;
+        }
+        int end = i;
+        if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+                i++;
+            }
+            if (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                    i++;
+                }
+                end = i;
+            }
+        }
+        return Double.parseDouble(text.substring(start, end));
+    }
+
+    private int windowCell(int columnIndex) throws SQLiteException {
+        if (columnIndex < 0 || columnIndex >= windowColumnCount) {
+            throw new SQLiteException("column index " + columnIndex + " out of range");
+        }
+        return windowTableOffset + (windowRow * windowColumnCount + columnIndex) * 8;
+    }
+
+    private int windowType(int columnIndex) throws SQLiteException {
+        return window.getInt(windowCell(columnIndex));
+    }
+
+    private long windowLongValue(int columnIndex) throws SQLiteException {
+        int cell = windowCell(columnIndex);
+        int offset = window.getInt(cell + 4);
+        switch (window.getInt(cell)) {
+            case FIELD_TYPE_INT:
+                return window.getLong(offset);
+            case FIELD_TYPE_FLOAT:
+                return (long) window.getDouble(offset);
+            case FIELD_TYPE_STRING:
+            case FIELD_TYPE_BYTEARRAY:
+                return textToLong(windowStringValue(columnIndex));
+            default:
+                return 0;
+        }
+    }
+
+    private double windowDoubleValue(int columnIndex) throws SQLiteException {
+        int cell = windowCell(columnIndex);
+        int offset = window.getInt(cell + 4);
+        switch (window.getInt(cell)) {
+            case FIELD_TYPE_INT:
+                return window.getLong(offset);
+            case FIELD_TYPE_FLOAT:
+                return window.getDouble(offset);
+            case FIELD_TYPE_STRING:
+            case FIELD_TYPE_BYTEARRAY:
+                return textToDouble(windowStringValue(columnIndex));
+            default:
+                return 0;
+        }
+    }
+
+    private String windowStringValue(int columnIndex) throws SQLiteException {
+        int cell = windowCell(columnIndex);
+        int offset = window.getInt(cell + 4);
+        switch (window.getInt(cell)) {
+            case FIELD_TYPE_INT:
+                return Long.toString(window.getLong(offset));
+            case FIELD_TYPE_FLOAT:
+                return Double.toString(window.getDouble(offset));
+            case FIELD_TYPE_STRING:
+            case FIELD_TYPE_BYTEARRAY: {
+                int length = window.getInt(offset);
+                if (stringBytes == null || stringBytes.length < length) {
+                    stringBytes = new byte[Math.max(length, 64)];
+                }
+                window.position(offset + 4);
+                window.get(stringBytes, 0, length);
+                return new String(stringBytes, 0, length, UTF_8);
+            }
+            default:
+                return null;
+        }
+    }
+
+    private byte[] windowByteArrayValue(int columnIndex) throws SQLiteException {
+        int cell = windowCell(columnIndex);
+        int type = window.getInt(cell);
+        if (type != FIELD_TYPE_STRING && type != FIELD_TYPE_BYTEARRAY) {
+            String value = windowStringValue(columnIndex);
+            return value != null ? value.getBytes(UTF_8) : null;
+        }
+        int offset = window.getInt(cell + 4);
+        int length = window.getInt(offset);
+        if (length <= 0) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        window.position(offset + 4);
+        window.get(result);
+        return result;
+    }
+
+    private NativeByteBuffer windowByteBufferValue(int columnIndex) throws SQLiteException {
+        int cell = windowCell(columnIndex);
+        int type = window.getInt(cell);
+        if (type != FIELD_TYPE_STRING && type != FIELD_TYPE_BYTEARRAY) {
+            return null;
+        }
+        int offset = window.getInt(cell + 4);
+        int length = window.getInt(offset);
+        if (length <= 0) {
+            return null;
+        }
+        NativeByteBuffer result;
+        try {
+            result = new NativeByteBuffer(length);
+        } catch (Exception e) {
+            throw new SQLiteException(e.getMessage());
+        }
+        int limit = window.limit();
+        window.limit(offset + 4 + length);
+        window.position(offset + 4);
+        result.buffer.put(window);
+        result.buffer.position(0);
+        window.limit(limit);
+        return result;
+    }
+
+    native int drainLongColumn(long statementHandle, int columnIndex, long[] values, int offset, boolean hasPendingRow) throws SQLiteException;
+    native int drainIntColumn(long statementHandle, int columnIndex, int[] values, int offset, boolean hasPendingRow) throws SQLiteException;
+    native int drainDoubleColumn(long statementHandle, int columnIndex, double[] values, int offset, boolean hasPendingRow) throws SQLiteException;
+    native long fetchWindow(long statementHandle, int maxRows, int byteSize, boolean hasPendingRow) throws SQLiteException;
     native int columnType(long statementHandle, int columnIndex);
     native int columnCount(long statementHandle);
     native int columnIsNull(long statementHandle, int columnIndex);
@@ -125,5 +574,6 @@ public class SQLiteCursor {
     native double columnDoubleValue(long statementHandle, int columnIndex);
     native String columnStringValue(long statementHandle, int columnIndex);
     native byte[] columnByteArrayValue(long statementHandle, int columnIndex);
+    native ByteBuffer columnBlobView(long statementHandle, int columnIndex);
     native long columnByteBufferValue(long statementHandle, int columnIndex);
 }
@@ -13,14 +13,71 @@ import android.content.pm.ApplicationInfo;
 import android.util.Log;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SQLiteDatabase {
 
+    public static final int SQLITE_BUSY = 5;
+    public static final int SQLITE_INTERRUPT = 9;
+    /**
+     * Extended SQLITE_INTERRUPT codes of {@link #runGuarded}, the low byte is still SQLITE_INTERRUPT.
+     */
+    public static final int SQLITE_INTERRUPT_CANCELLED = SQLITE_INTERRUPT | (1 << 8);
+    public static final int SQLITE_INTERRUPT_DEADLINE = SQLITE_INTERRUPT | (2 << 8);
+
+    public static final int DEFAULT_PROGRESS_OPS = 1000;
+
+    public static final int TRANSACTION_DEFERRED = 0;
+    public static final int TRANSACTION_IMMEDIATE = 1;
+    public static final int TRANSACTION_EXCLUSIVE = 2;
+
+    public static final int FUNCTION_DETERMINISTIC = 0x00000800;
+    public static final int FUNCTION_DIRECTONLY = 0x00080000;
+    public static final int FUNCTION_INNOCUOUS = 0x00200000;
+
+    public static final int OPEN_READONLY = 0x00000001;
+    public static final int OPEN_READWRITE = 0x00000002;
+    public static final int OPEN_CREATE = 0x00000004;
+    public static final int OPEN_URI = 0x00000040;
+    public static final int OPEN_NOMUTEX = 0x00008000;
+    public static final int OPEN_FULLMUTEX = 0x00010000;
+    public static final int OPEN_SHAREDCACHE = 0x00020000;
+    public static final int OPEN_PRIVATECACHE = 0x00040000;
+
     private final long sqliteHandle;
+    private final SQLiteStatementCache statementCache = new SQLiteStatementCache(SQLiteStatementCache.DEFAULT_MAX_SIZE);
 
     private boolean isOpen;
-    private boolean inTransaction;
+    private int transactionDepth;
+
+    private final HashMap<String, SQLiteFunctionBinding> functions = new HashMap<>();
+    // sqlite3_close fails with SQLITE_BUSY while any of them is open
+    private final HashSet<SQLiteBlob> openBlobs = new HashSet<>();
+    private volatile SQLiteChangeFeed changeFeed;
+    private volatile SQLiteResultCache resultCache;
+    private volatile SQLiteTracer tracer;
+    // live statements by handle while slow statements are captured, for their argument types
+    private volatile HashMap<Long, SQLitePreparedStatement> capturedStatements;
+
+    private long busyHandle;
+    private SQLiteBusyPolicy busyPolicy;
+    private final AtomicLong busyFailures = new AtomicLong();
+
+    // keep in sync with GuardReason in SqliteWrapper.cpp
+    private static final int GUARD_CANCELLED = 1;
+    private static final int GUARD_DEADLINE = 2;
+
+    private long guardHandle;
+    private int guardDepth;
+    private long guardDeadline;
+    private int progressOps = DEFAULT_PROGRESS_OPS;
+    private final ArrayList<SQLiteCancellationSignal> guardSignals = new ArrayList<>();
 
     public long getSQLiteHandle() {
         return sqliteHandle;
@@ -32,8 +89,89 @@ public class SQLiteDatabase {
      * @throws SQLiteException
      */
     public SQLiteDatabase(String fileName, String tempDir) throws SQLiteException {
-        sqliteHandle = opendb(fileName, tempDir);
+        this(fileName, tempDir, OPEN_READWRITE | OPEN_CREATE);
+    }
+
+    /**
+     * @param fileName  Database file name
+     * @param tempDir   Database file directory
+     * @param openFlags combination of the OPEN_* flags passed to sqlite3_open_v2
+     * @throws SQLiteException
+     */
+    public SQLiteDatabase(String fileName, String tempDir, int openFlags) throws SQLiteException {
+        this(fileName, tempDir, openFlags, null);
+    }
+
+    /**
+     * Opens the database and applies all tuning pragmas of options in a single native call.
+     *
+     * @param fileName Database file name
+     * @param tempDir  Database file directory
+     * @throws SQLiteException
+     */
+    public SQLiteDatabase(String fileName, String tempDir, SQLiteOpenOptions options) throws SQLiteException {
+        this(fileName, tempDir, options.getOpenFlags(), options.getPragmas());
+    }
+
+    private SQLiteDatabase(String fileName, String tempDir, int openFlags, String pragmas) throws SQLiteException {
+        sqliteHandle = opendb(fileName, tempDir, openFlags, pragmas);
         isOpen = true;
+        setBusyPolicy(SQLiteBusyPolicy.DEFAULT);
+        if (BuildVars.DEBUG_VERSION) {
+            SQLiteTracer debugTracer = getTracer();
+            debugTracer.setSlowLogThresholdMs(500);
+            debugTracer.setEnabled(true);
+        }
+    }
+
+    /**
+     * Sets how statements, transactions and commits of this connection wait for locks
+     * held by other connections. Defaults to {@link SQLiteBusyPolicy#DEFAULT}.
+     */
+    public void setBusyPolicy(SQLiteBusyPolicy policy) throws SQLiteException {
+        checkOpened();
+        busyHandle = setBusyPolicy(sqliteHandle, busyHandle, policy.getMode(), policy.getInitialDelayMs(), policy.getMaxDelayMs(), policy.getTimeoutMs());
+        busyPolicy = policy;
+    }
+
+    public SQLiteBusyPolicy getBusyPolicy() {
+        return busyPolicy;
+    }
+
+    /**
+     * @return number of times the backoff busy handler slept waiting for a lock
+     */
+    public long getBusyWaitCount() {
+        return busyHandle != 0 ? busyWaitCount(busyHandle) : 0;
+    }
+
+    /**
+     * @return total time in milliseconds the backoff busy handler spent waiting for locks
+     */
+    public long getBusyBlockedTimeMs() {
+        return busyHandle != 0 ? busyBlockedNanos(busyHandle) / 1000000 : 0;
+    }
+
+    /**
+     * @return number of statements that gave up with SQLITE_BUSY after the policy was exhausted
+     */
+    public long getBusyFailureCount() {
+        return busyFailures.get();
+    }
+
+    public void resetBusyStats() {
+        if (busyHandle != 0) {
+            busyResetStats(busyHandle);
+        }
+        busyFailures.set(0);
+    }
+
+    SQLiteException onBusyFailure() {
+        busyFailures.incrementAndGet();
+        if (BuildVars.LOGS_ENABLED) {
+            Log.e("Error", "sqlite busy, giving up");
+        }
+        return new SQLiteException(SQLITE_BUSY, "sqlite busy");
     }
 
     public boolean tableExists(String tableName) throws SQLiteException {
@@ -42,8 +180,386 @@ public class SQLiteDatabase {
         return executeInt(s, tableName) != null;
     }
 
+    /**
+     * Returns a statement for sql, reusing an idle prepared handle when possible.
+     * Calling dispose() on the result hands the handle back to the statement cache.
+     */
     public SQLitePreparedStatement executeFast(String sql) throws SQLiteException {
-        return new SQLitePreparedStatement(this, sql);
+        return new SQLitePreparedStatement(this, statementCache, sql);
+    }
+
+    /**
+     * @param size maximum number of idle prepared statements kept for reuse, 0 disables caching
+     */
+    public void setStatementCacheSize(int size) {
+        statementCache.setMaxSize(size);
+    }
+
+    public int getStatementCacheSize() {
+        return statementCache.getMaxSize();
+    }
+
+    /**
+     * Prepares sql into the statement cache without running it, so the first executeFast skips the prepare.
+     */
+    public void precompile(String sql) throws SQLiteException {
+        checkOpened();
+        executeFast(sql).dispose();
+    }
+
+    public int getStatementCacheHitCount() {
+        return statementCache.getHitCount();
+    }
+
+    public int getStatementCacheMissCount() {
+        return statementCache.getMissCount();
+    }
+
+    /**
+     * Opens an incremental I/O handle on the blob stored in table.column of row rowId.
+     */
+    public SQLiteBlob openBlob(String table, String column, long rowId, boolean writable) throws SQLiteException {
+        return openBlob("main", table, column, rowId, writable);
+    }
+
+    public SQLiteBlob openBlob(String dbName, String table, String column, long rowId, boolean writable) throws SQLiteException {
+        checkOpened();
+        SQLiteBlob blob = new SQLiteBlob(this, dbName, table, column, rowId, writable);
+        synchronized (openBlobs) {
+            openBlobs.add(blob);
+        }
+        return blob;
+    }
+
+    void onBlobClosed(SQLiteBlob blob) {
+        synchronized (openBlobs) {
+            openBlobs.remove(blob);
+        }
+    }
+
+    /**
+     * @return the change feed of this connection, the hooks are installed on first use
+     */
+    public SQLiteChangeFeed getChangeFeed() throws SQLiteException {
+        checkOpened();
+        if (changeFeed == null) {
+            synchronized (this) {
+                if (changeFeed == null) {
+                    changeFeed = new SQLiteChangeFeed(this);
+                }
+            }
+        }
+        return changeFeed;
+    }
+
+    /**
+     * @param reset true to reset the hit, miss, write and spill counters of this connection after
+     *              reading them, process wide counters are left alone
+     */
+    public SQLiteDbStats getStats(boolean reset) throws SQLiteException {
+        checkOpened();
+        long[] values = new long[SQLiteDbStats.COUNT];
+        dbStatus(sqliteHandle, values, reset);
+        return new SQLiteDbStats(values);
+    }
+
+    /**
+     * @return counters of every statement currently prepared on the connection, including
+     * the idle statements of the statement cache
+     */
+    public ArrayList<SQLiteStatementStats> getStatementStats(boolean reset) throws SQLiteException {
+        checkOpened();
+        ArrayList<SQLiteStatementStats> result = new ArrayList<>();
+        Object[] data = statementStatus(sqliteHandle, reset);
+        if (data == null) {
+            return result;
+        }
+        String[] sqls = (String[]) data[0];
+        long[] counters = (long[]) data[1];
+        for (int a = 0; a < sqls.length; a++) {
+            int offset = a * SQLiteStatementStats.COUNT;
+            result.add(new SQLiteStatementStats(sqls[a], Arrays.copyOfRange(counters, offset, offset + SQLiteStatementStats.COUNT)));
+        }
+        return result;
+    }
+
+    /**
+     * @return the statement tracer of this connection, disabled unless this is a debug version
+     */
+    public SQLiteTracer getTracer() throws SQLiteException {
+        checkOpened();
+        if (tracer == null) {
+            synchronized (this) {
+                if (tracer == null) {
+                    tracer = new SQLiteTracer(this);
+                }
+            }
+        }
+        return tracer;
+    }
+
+    /**
+     * Delivers the changes of a transaction committed by the statement that just returned.
+     */
+    void dispatchChanges() {
+        SQLiteChangeFeed feed = changeFeed;
+        if (feed != null && feed.commitPending) {
+            feed.dispatch();
+        }
+    }
+
+    /**
+     * Prepares sql with an authorizer and returns the tables it reads, views resolved to their tables.
+     * Setting the authorizer makes sqlite re-prepare the other statements of the connection on their next step.
+     */
+    public String[] getReadTables(String sql) throws SQLiteException {
+        checkOpened();
+        return readTables(sqliteHandle, sql);
+    }
+
+    /**
+     * Like {@link #getReadTables}, returns the columns sql reads as table and column name pairs,
+     * table names at even and column names at odd indexes.
+     */
+    public String[] getReadColumns(String sql) throws SQLiteException {
+        checkOpened();
+        return readColumns(sqliteHandle, sql);
+    }
+
+    /**
+     * Registers a scalar SQL function, replacing a function with the same name and argument count.
+     *
+     * @param argCount number of arguments, -1 for any
+     * @param flags    combination of the FUNCTION_* flags, FUNCTION_DETERMINISTIC allows the
+     *                 function in indexes and lets sqlite factor out calls with constant arguments
+     */
+    public void createFunction(String name, int argCount, int flags, SQLiteFunction function) throws SQLiteException {
+        registerFunction(new SQLiteFunctionBinding(name, argCount, function, null), flags);
+    }
+
+    public <S> void createAggregate(String name, int argCount, int flags, SQLiteAggregate<S> aggregate) throws SQLiteException {
+        registerFunction(new SQLiteFunctionBinding(name, argCount, null, aggregate), flags);
+    }
+
+    public void removeFunction(String name, int argCount) throws SQLiteException {
+        checkOpened();
+        removeFunction(sqliteHandle, name, argCount);
+        synchronized (functions) {
+            functions.remove(functionKey(name, argCount));
+        }
+    }
+
+    /**
+     * @return number of calls of the function, for aggregates the number of steps
+     */
+    public long getFunctionCallCount(String name, int argCount) {
+        SQLiteFunctionBinding binding;
+        synchronized (functions) {
+            binding = functions.get(functionKey(name, argCount));
+        }
+        return binding != null ? binding.getCallCount() : 0;
+    }
+
+    /**
+     * @return total time spent in the Java code of the function
+     */
+    public long getFunctionTimeNanos(String name, int argCount) {
+        SQLiteFunctionBinding binding;
+        synchronized (functions) {
+            binding = functions.get(functionKey(name, argCount));
+        }
+        return binding != null ? binding.getTimeNanos() : 0;
+    }
+
+    private void registerFunction(SQLiteFunctionBinding binding, int flags) throws SQLiteException {
+        checkOpened();
+        createFunction(sqliteHandle, binding.name, binding.argCount, flags, binding, binding.isAggregate());
+        synchronized (functions) {
+            functions.put(functionKey(binding.name, binding.argCount), binding);
+        }
+    }
+
+    private static String functionKey(String name, int argCount) {
+        return name.toLowerCase(Locale.US) + "/" + argCount;
+    }
+
+    /**
+     * Starts an online backup of the main database of this connection into destination.
+     */
+    public SQLiteBackup backupTo(SQLiteDatabase destination) throws SQLiteException {
+        return backupTo(destination, "main", "main");
+    }
+
+    public SQLiteBackup backupTo(SQLiteDatabase destination, String destinationName, String sourceName) throws SQLiteException {
+        checkOpened();
+        return new SQLiteBackup(destination, destinationName, this, sourceName);
+    }
+
+    /**
+     * Copies the main database into a single buffer, the caller has to reuse() it.
+     */
+    public NativeByteBuffer serialize() throws SQLiteException {
+        return serialize("main");
+    }
+
+    public NativeByteBuffer serialize(String schema) throws SQLiteException {
+        checkOpened();
+        return new NativeByteBuffer(serialize(sqliteHandle, schema));
+    }
+
+    /**
+     * Replaces schema with a copy of the bytes from 0 to the limit of data, usually on a
+     * connection opened on ":memory:". data can be reused right after the call.
+     *
+     * @param readOnly true to reject writes, otherwise the copy can grow
+     */
+    public void deserialize(String schema, NativeByteBuffer data, boolean readOnly) throws SQLiteException {
+        checkOpened();
+        deserialize(sqliteHandle, schema, data.buffer, data.limit(), readOnly);
+    }
+
+    public long getLastInsertRowId() throws SQLiteException {
+        checkOpened();
+        return lastInsertRowId(sqliteHandle);
+    }
+
+    /**
+     * @return rows changed by the last INSERT, UPDATE or DELETE of this connection
+     */
+    public int getChanges() throws SQLiteException {
+        checkOpened();
+        return changes(sqliteHandle);
+    }
+
+    /**
+     * Makes the statements currently running on this connection fail with SQLITE_INTERRUPT.
+     * Safe to call from any thread, an open transaction may be rolled back by sqlite.
+     */
+    public void interrupt() {
+        if (isOpen) {
+            interrupt(sqliteHandle);
+        }
+    }
+
+    /**
+     * Sets how many VM instructions run between two deadline and cancellation checks of
+     * {@link #runGuarded}. Lower values stop sooner and cost more.
+     */
+    public synchronized void setProgressCheckOps(int ops) {
+        progressOps = Math.max(ops, 1);
+        if (guardDepth > 0) {
+            armGuard();
+        }
+    }
+
+    /**
+     * Runs task on the calling thread and makes its statements fail once timeoutMs passed or
+     * signal was cancelled. The checks run every {@link #setProgressCheckOps} VM instructions in
+     * a progress handler, cancellation also interrupts the running statement right away. Nested
+     * calls keep the earlier deadline and all signals of the outer calls. Time spent waiting for
+     * locks in the busy handler is not checked.
+     *
+     * @param timeoutMs 0 for no deadline
+     * @param signal    null if the task can't be cancelled
+     * @throws SQLiteException with error code {@link #SQLITE_INTERRUPT_DEADLINE} or
+     *                         {@link #SQLITE_INTERRUPT_CANCELLED} if the task was stopped, an open
+     *                         transaction may be rolled back by sqlite
+     */
+    public <T> T runGuarded(long timeoutMs, SQLiteCancellationSignal signal, SQLiteConnectionPool.Task<T> task) throws SQLiteException {
+        checkOpened();
+        long outerDeadline;
+        synchronized (this) {
+            outerDeadline = guardDeadline;
+            if (timeoutMs > 0) {
+                long deadline = System.nanoTime() + timeoutMs * 1000000L;
+                if (guardDeadline == 0 || deadline - guardDeadline < 0) {
+                    guardDeadline = deadline;
+                }
+            }
+            if (signal != null) {
+                if (!signal.attach(this)) {
+                    guardDeadline = outerDeadline;
+                    throw new SQLiteException(SQLITE_INTERRUPT_CANCELLED, "cancelled");
+                }
+                guardSignals.add(signal);
+            }
+            guardDepth++;
+            armGuard();
+        }
+        try {
+            return task.run(this);
+        } catch (SQLiteException e) {
+            if (e.errorCode == SQLITE_INTERRUPT) {
+                int reason = guardReason(guardHandle);
+                if (reason == GUARD_DEADLINE) {
+                    throw new SQLiteException(SQLITE_INTERRUPT_DEADLINE, "deadline of " + timeoutMs + " ms exceeded");
+                } else if (reason == GUARD_CANCELLED) {
+                    throw new SQLiteException(SQLITE_INTERRUPT_CANCELLED, "cancelled");
+                }
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                if (signal != null) {
+                    guardSignals.remove(signal);
+                    signal.detach(this);
+                }
+                guardDepth--;
+                guardDeadline = outerDeadline;
+                if (isOpen) {
+                    armGuard();
+                }
+            }
+        }
+    }
+
+    private void armGuard() {
+        boolean cancelled = false;
+        for (int a = 0; a < guardSignals.size(); a++) {
+            cancelled |= guardSignals.get(a).isCancelled();
+        }
+        long timeout = guardDeadline != 0 ? Math.max(guardDeadline - System.nanoTime(), 1) : 0;
+        guardHandle = guardArm(sqliteHandle, guardHandle, guardDepth > 0 ? progressOps : 0, timeout, cancelled);
+    }
+
+    synchronized void cancelGuard(SQLiteCancellationSignal signal) {
+        if (isOpen && guardHandle != 0 && guardSignals.contains(signal)) {
+            guardCancel(sqliteHandle, guardHandle);
+        }
+    }
+
+    synchronized void setCaptureArguments(boolean capture) {
+        capturedStatements = capture ? new HashMap<>() : null;
+    }
+
+    void onStatementPrepared(SQLitePreparedStatement statement) {
+        if (capturedStatements == null) {
+            return;
+        }
+        synchronized (this) {
+            if (capturedStatements != null) {
+                capturedStatements.put(statement.getStatementHandle(), statement);
+            }
+        }
+    }
+
+    void onStatementReleased(SQLitePreparedStatement statement) {
+        if (capturedStatements == null) {
+            return;
+        }
+        synchronized (this) {
+            if (capturedStatements != null && capturedStatements.get(statement.getStatementHandle()) == statement) {
+                capturedStatements.remove(statement.getStatementHandle());
+            }
+        }
+    }
+
+    /**
+     * @return types bound to the statement, empty if it was prepared before the captures started
+     */
+    synchronized String[] getArgumentTypes(long statementHandle) {
+        SQLitePreparedStatement statement = capturedStatements != null ? capturedStatements.get(statementHandle) : null;
+        return statement != null ? statement.getArgumentTypes() : new String[0];
     }
 
     public Integer executeInt(String sql, Object... args) throws SQLiteException {
@@ -59,37 +575,181 @@ public class SQLiteDatabase {
         }
     }
 
+    public Integer executeInt(String sql, SQLiteArguments args) throws SQLiteException {
+        checkOpened();
+        SQLiteCursor cursor = queryFinalized(sql, args);
+        try {
+            if (!cursor.next()) {
+                return null;
+            }
+            return cursor.intValue(0);
+        } finally {
+            cursor.dispose();
+        }
+    }
+
+    /**
+     * Enables caching of the results of {@link #queryCached} and {@link #executeIntCached},
+     * or changes the size of an enabled cache.
+     *
+     * @param maxBytes native memory the cached results may use
+     */
+    public SQLiteResultCache enableResultCache(int maxBytes) throws SQLiteException {
+        checkOpened();
+        synchronized (this) {
+            if (resultCache == null) {
+                resultCache = new SQLiteResultCache(this, maxBytes);
+            } else {
+                resultCache.setMaxBytes(maxBytes);
+            }
+            return resultCache;
+        }
+    }
+
+    /**
+     * @return the result cache, null if it is not enabled
+     */
+    public SQLiteResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void disableResultCache() {
+        SQLiteResultCache cache;
+        synchronized (this) {
+            cache = resultCache;
+            resultCache = null;
+        }
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    /**
+     * Runs the query through the result cache. Inside any transaction, also one opened with a raw
+     * BEGIN or SAVEPOINT, with buffer arguments or with the cache disabled the query runs uncached.
+     * The result must be disposed.
+     */
+    public SQLiteCachedResult queryCached(String sql, Object... args) throws SQLiteException {
+        checkOpened();
+        SQLiteResultCache cache = resultCache;
+        if (cache == null || !isAutocommit(sqliteHandle) || !SQLiteResultCache.isCacheable(args)) {
+            return SQLiteResultCache.queryUncached(this, sql, args);
+        }
+        return cache.query(sql, args);
+    }
+
+    public Integer executeIntCached(String sql, Object... args) throws SQLiteException {
+        SQLiteCachedResult result = queryCached(sql, args);
+        try {
+            if (!result.next()) {
+                return null;
+            }
+            return result.intValue(0);
+        } finally {
+            result.dispose();
+        }
+    }
+
     public void explainQuery(String sql, Object... args) throws SQLiteException {
+        Log.d("Debug", getQueryPlan(sql, args).toString());
+    }
+
+    /**
+     * Runs EXPLAIN QUERY PLAN for sql. Parameters without arguments are planned as NULL.
+     */
+    public SQLiteQueryPlan getQueryPlan(String sql, Object... args) throws SQLiteException {
         checkOpened();
-        SQLiteCursor cursor = new SQLitePreparedStatement(this, "EXPLAIN QUERY PLAN " + sql).query(args);
-        while (cursor.next()) {
-            int count = cursor.getColumnCount();
-            StringBuilder builder = new StringBuilder();
-            for (int a = 0; a < count; a++) {
-                builder.append(cursor.stringValue(a)).append(", ");
+        SQLitePreparedStatement statement = new SQLitePreparedStatement(this, "EXPLAIN QUERY PLAN " + sql);
+        SQLiteCursor cursor = statement.query(args != null ? args : new Object[0]);
+        try {
+            SQLiteIntArray ids = new SQLiteIntArray();
+            SQLiteIntArray parents = new SQLiteIntArray();
+            ArrayList<String> details = new ArrayList<>();
+            while (cursor.next()) {
+                ids.add(cursor.intValue(0));
+                parents.add(cursor.intValue(1));
+                details.add(cursor.stringValue(3));
             }
-            Log.d("Debug", "EXPLAIN QUERY PLAN " + builder.toString());
+            return new SQLiteQueryPlan(sql, ids.toArray(), parents.toArray(), details.toArray(new String[0]));
+        } finally {
+            cursor.dispose();
         }
-        cursor.dispose();
     }
 
     public SQLiteCursor queryFinalized(String sql, Object... args) throws SQLiteException {
         checkOpened();
-        return new SQLitePreparedStatement(this, sql).query(args);
+        return executeFast(sql).query(args);
+    }
+
+    public SQLiteCursor queryFinalized(String sql, SQLiteArguments args) throws SQLiteException {
+        checkOpened();
+        return executeFast(sql).query(args);
     }
 
+    /**
+     * Commits open transactions, falling back to a rollback if the commit fails, and closes the
+     * connection. If sqlite refuses to close it the database stays open and close can be retried.
+     */
     public void close() {
-        if (isOpen) {
+        if (!isOpen) {
+            return;
+        }
+        if (transactionDepth > 0) {
             try {
-                commitTransaction();
-                closedb(sqliteHandle);
+                while (transactionDepth > 0) {
+                    commitTransaction();
+                }
             } catch (SQLiteException e) {
                 if (BuildVars.LOGS_ENABLED) {
                     Log.e("Error", e.getMessage(), e);
                 }
+                try {
+                    while (transactionDepth > 0) {
+                        rollbackTransaction();
+                    }
+                } catch (SQLiteException e2) {
+                    if (BuildVars.LOGS_ENABLED) {
+                        Log.e("Error", e2.getMessage(), e2);
+                    }
+                    // sqlite3_close rolls back whatever is still open
+                    transactionDepth = 0;
+                }
+            }
+        }
+        ArrayList<SQLiteBlob> blobs;
+        synchronized (openBlobs) {
+            blobs = new ArrayList<>(openBlobs);
+        }
+        for (int a = 0; a < blobs.size(); a++) {
+            blobs.get(a).close();
+        }
+        statementCache.close();
+        disableResultCache();
+        if (tracer != null) {
+            tracer.close();
+        }
+        if (changeFeed != null) {
+            changeFeed.close();
+        }
+        synchronized (this) {
+            if (guardHandle != 0) {
+                guardRelease(sqliteHandle, guardHandle);
+                guardHandle = 0;
+            }
+        }
+        try {
+            closedb(sqliteHandle);
+        } catch (SQLiteException e) {
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", e.getMessage(), e);
             }
-            isOpen = false;
+            return;
+        }
+        if (busyHandle != 0) {
+            busyRelease(busyHandle);
+            busyHandle = 0;
         }
+        isOpen = false;
     }
 
     void checkOpened() throws SQLiteException {
@@ -104,21 +764,90 @@ public class SQLiteDatabase {
     }
 
     public void beginTransaction() throws SQLiteException {
-        if (inTransaction) {
-            throw new SQLiteException("database already in transaction");
+        beginTransaction(TRANSACTION_DEFERRED);
+    }
+
+    /**
+     * Starts a transaction, or a savepoint nested in the current one if a transaction is already open.
+     * IMMEDIATE and EXCLUSIVE take the write lock up front, so a later write can't fail with
+     * SQLITE_BUSY on lock upgrade. The mode is ignored for nested transactions.
+     *
+     * @param mode one of the TRANSACTION_* constants
+     */
+    public void beginTransaction(int mode) throws SQLiteException {
+        checkOpened();
+        if (transactionDepth == 0) {
+            beginTransaction(sqliteHandle, mode);
+        } else {
+            exec(sqliteHandle, "SAVEPOINT " + savepointName(transactionDepth));
         }
-        inTransaction = true;
-        beginTransaction(sqliteHandle);
+        transactionDepth++;
     }
 
-    public void commitTransaction() {
-        if (!inTransaction) {
+    /**
+     * Commits the innermost transaction, nested ones are released into their parent.
+     * On failure the transaction stays open unless sqlite already rolled it back.
+     */
+    public void commitTransaction() throws SQLiteException {
+        if (transactionDepth == 0) {
             return;
         }
-        inTransaction = false;
-        commitTransaction(sqliteHandle);
+        try {
+            if (transactionDepth == 1) {
+                commitTransaction(sqliteHandle);
+            } else {
+                exec(sqliteHandle, "RELEASE " + savepointName(transactionDepth - 1));
+            }
+            transactionDepth--;
+        } catch (SQLiteException e) {
+            if (isAutocommit(sqliteHandle)) {
+                transactionDepth = 0;
+            }
+            throw e;
+        }
+        if (transactionDepth == 0) {
+            dispatchChanges();
+        }
+    }
+
+    /**
+     * Rolls back the innermost transaction, a nested one is rolled back to its savepoint.
+     */
+    public void rollbackTransaction() throws SQLiteException {
+        if (transactionDepth == 0) {
+            return;
+        }
+        if (isAutocommit(sqliteHandle)) {
+            transactionDepth = 0;
+            return;
+        }
+        try {
+            if (transactionDepth == 1) {
+                rollbackTransaction(sqliteHandle);
+            } else {
+                String name = savepointName(transactionDepth - 1);
+                exec(sqliteHandle, "ROLLBACK TO " + name + "; RELEASE " + name);
+            }
+            transactionDepth--;
+        } catch (SQLiteException e) {
+            if (isAutocommit(sqliteHandle)) {
+                transactionDepth = 0;
+            }
+            throw e;
+        }
     }
 
+    public boolean inTransaction() {
+        return transactionDepth > 0;
+    }
+
+    public int getTransactionDepth() {
+        return transactionDepth;
+    }
+
+    private static String savepointName(int level) {
+        return "sp_" + level;
+    }
 
     public static File getFilesDirFixed(Context applicationContext) {
 
@@ -144,13 +873,59 @@ public class SQLiteDatabase {
         return new File(String.format(Locale.US, "/data/data/%s/files", applicationContext.getPackageName()));
     }
 
-    native long opendb(String fileName, String tempDir) throws SQLiteException;
+    native long opendb(String fileName, String tempDir, int flags, String pragmas) throws SQLiteException;
 
     native void closedb(long sqliteHandle) throws SQLiteException;
 
-    native void beginTransaction(long sqliteHandle);
+    native long lastInsertRowId(long sqliteHandle);
+
+    native int changes(long sqliteHandle);
+
+    native String[] readTables(long sqliteHandle, String sql) throws SQLiteException;
+
+    native String[] readColumns(long sqliteHandle, String sql) throws SQLiteException;
+
+    native void dbStatus(long sqliteHandle, long[] values, boolean reset);
+
+    native Object[] statementStatus(long sqliteHandle, boolean reset);
+
+    native void createFunction(long sqliteHandle, String name, int argCount, int flags, SQLiteFunctionBinding binding, boolean aggregate) throws SQLiteException;
+
+    native void removeFunction(long sqliteHandle, String name, int argCount) throws SQLiteException;
+
+    native long serialize(long sqliteHandle, String schema) throws SQLiteException;
+
+    native void deserialize(long sqliteHandle, String schema, ByteBuffer data, int length, boolean readOnly) throws SQLiteException;
+
+    native void interrupt(long sqliteHandle);
+
+    native long setBusyPolicy(long sqliteHandle, long busyHandle, int mode, int initialDelayMs, int maxDelayMs, int timeoutMs);
+
+    native long guardArm(long sqliteHandle, long guardHandle, int ops, long timeoutNanos, boolean cancelled);
+
+    native void guardCancel(long sqliteHandle, long guardHandle);
+
+    native int guardReason(long guardHandle);
+
+    native void guardRelease(long sqliteHandle, long guardHandle);
+
+    native long busyWaitCount(long busyHandle);
+
+    native long busyBlockedNanos(long busyHandle);
+
+    native void busyResetStats(long busyHandle);
+
+    native void busyRelease(long busyHandle);
+
+    native void beginTransaction(long sqliteHandle, int mode) throws SQLiteException;
+
+    native void commitTransaction(long sqliteHandle) throws SQLiteException;
+
+    native void rollbackTransaction(long sqliteHandle) throws SQLiteException;
+
+    native void exec(long sqliteHandle, String sql) throws SQLiteException;
 
-    native void commitTransaction(long sqliteHandle);
+    native boolean isAutocommit(long sqliteHandle);
 
     public static native void setJava(boolean useJavaByteBuffers);
 }
@@ -0,0 +1,149 @@
+package com.thelqn.sqlite3;
+
+import java.util.Locale;
+
+/**
+ * Counters of sqlite3_db_status for one connection and the process wide memory counters of
+ * sqlite3_status. Hit, miss, write and spill counters accumulate until they are reset, the
+ * other values are current usage in bytes or slots.
+ */
+public class SQLiteDbStats {
+
+    // keep in sync with the dbStatus native
+    static final int INDEX_LOOKASIDE_USED = 0;
+    static final int INDEX_LOOKASIDE_USED_HIGHWATER = 1;
+    static final int INDEX_CACHE_USED = 2;
+    static final int INDEX_SCHEMA_USED = 3;
+    static final int INDEX_STMT_USED = 4;
+    static final int INDEX_LOOKASIDE_HIT = 5;
+    static final int INDEX_LOOKASIDE_MISS_SIZE = 6;
+    static final int INDEX_LOOKASIDE_MISS_FULL = 7;
+    static final int INDEX_CACHE_HIT = 8;
+    static final int INDEX_CACHE_MISS = 9;
+    static final int INDEX_CACHE_WRITE = 10;
+    static final int INDEX_CACHE_SPILL = 11;
+    static final int INDEX_DEFERRED_FKS = 12;
+    static final int INDEX_MEMORY_USED = 13;
+    static final int INDEX_MEMORY_HIGHWATER = 14;
+    static final int INDEX_MALLOC_COUNT = 15;
+    static final int INDEX_PAGECACHE_OVERFLOW = 16;
+    static final int COUNT = 17;
+
+    private static final int[] COUNTERS = {INDEX_LOOKASIDE_HIT, INDEX_LOOKASIDE_MISS_SIZE, INDEX_LOOKASIDE_MISS_FULL,
+            INDEX_CACHE_HIT, INDEX_CACHE_MISS, INDEX_CACHE_WRITE, INDEX_CACHE_SPILL};
+
+    private final long[] values;
+
+    SQLiteDbStats(long[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @return the counters accumulated since previous was taken, current usage is taken from this
+     * snapshot. Only meaningful if the counters were not reset in between.
+     */
+    public SQLiteDbStats delta(SQLiteDbStats previous) {
+        long[] result = values.clone();
+        for (int index : COUNTERS) {
+            result[index] = Math.max(values[index] - previous.values[index], 0);
+        }
+        return new SQLiteDbStats(result);
+    }
+
+    public long getLookasideUsed() {
+        return values[INDEX_LOOKASIDE_USED];
+    }
+
+    public long getLookasideUsedHighwater() {
+        return values[INDEX_LOOKASIDE_USED_HIGHWATER];
+    }
+
+    public long getLookasideHitCount() {
+        return values[INDEX_LOOKASIDE_HIT];
+    }
+
+    public long getLookasideMissSizeCount() {
+        return values[INDEX_LOOKASIDE_MISS_SIZE];
+    }
+
+    public long getLookasideMissFullCount() {
+        return values[INDEX_LOOKASIDE_MISS_FULL];
+    }
+
+    /**
+     * @return bytes of page cache used by the connection
+     */
+    public long getCacheUsed() {
+        return values[INDEX_CACHE_USED];
+    }
+
+    public long getCacheHitCount() {
+        return values[INDEX_CACHE_HIT];
+    }
+
+    public long getCacheMissCount() {
+        return values[INDEX_CACHE_MISS];
+    }
+
+    public long getCacheWriteCount() {
+        return values[INDEX_CACHE_WRITE];
+    }
+
+    /**
+     * @return number of dirty pages written in the middle of a transaction because the cache was full
+     */
+    public long getCacheSpillCount() {
+        return values[INDEX_CACHE_SPILL];
+    }
+
+    /**
+     * @return cache hits divided by lookups, 0 without lookups
+     */
+    public double getCacheHitRate() {
+        long lookups = getCacheHitCount() + getCacheMissCount();
+        return lookups > 0 ? (double) getCacheHitCount() / lookups : 0;
+    }
+
+    public long getSchemaUsed() {
+        return values[INDEX_SCHEMA_USED];
+    }
+
+    public long getStatementsUsed() {
+        return values[INDEX_STMT_USED];
+    }
+
+    public long getDeferredForeignKeys() {
+        return values[INDEX_DEFERRED_FKS];
+    }
+
+    /**
+     * @return bytes allocated by sqlite in the whole process
+     */
+    public long getMemoryUsed() {
+        return values[INDEX_MEMORY_USED];
+    }
+
+    /**
+     * @return most bytes allocated by sqlite in the whole process since it started, never reset
+     * by {@link SQLiteDatabase#getStats(boolean)}
+     */
+    public long getMemoryHighwater() {
+        return values[INDEX_MEMORY_HIGHWATER];
+    }
+
+    public long getMallocCount() {
+        return values[INDEX_MALLOC_COUNT];
+    }
+
+    public long getPageCacheOverflow() {
+        return values[INDEX_PAGECACHE_OVERFLOW];
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "cache %d bytes, hit rate %.3f (%d/%d), writes %d, spills %d, lookaside %d/%d, schema %d, statements %d, memory %d",
+                getCacheUsed(), getCacheHitRate(), getCacheHitCount(), getCacheHitCount() + getCacheMissCount(), getCacheWriteCount(), getCacheSpillCount(),
+                getLookasideHitCount(), getLookasideHitCount() + getLookasideMissSizeCount() + getLookasideMissFullCount(),
+                getSchemaUsed(), getStatementsUsed(), getMemoryUsed());
+    }
+}
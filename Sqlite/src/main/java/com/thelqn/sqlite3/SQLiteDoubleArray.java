@@ -0,0 +1,57 @@
+package com.thelqn.sqlite3;
+
+import java.util.Arrays;
+
+/**
+ * Growable double array filled by {@link SQLiteCursor#fillDoubleColumn(int, SQLiteDoubleArray)}.
+ */
+public class SQLiteDoubleArray {
+
+    double[] values;
+    int size;
+
+    public SQLiteDoubleArray() {
+        this(64);
+    }
+
+    public SQLiteDoubleArray(int capacity) {
+        values = new double[Math.max(capacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return values[index];
+    }
+
+    public void add(double value) {
+        ensureCapacity(size + 1);
+        values[size++] = value;
+    }
+
+    /**
+     * @return the backing array, only the first size() values are valid
+     */
+    public double[] array() {
+        return values;
+    }
+
+    public double[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.thelqn.sqlite3;
+
+/**
+ * Scalar SQL function implemented in Java, see {@link SQLiteDatabase#createFunction}.
+ * Called on the thread running the statement.
+ */
+public interface SQLiteFunction {
+    void call(SQLiteFunctionContext context) throws SQLiteException;
+}
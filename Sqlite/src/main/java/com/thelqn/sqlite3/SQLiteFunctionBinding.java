@@ -0,0 +1,97 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+/**
+ * Java side of a registered function, called from the native trampoline.
+ * The argument arrays of the context are filled natively before every call.
+ */
+class SQLiteFunctionBinding {
+
+    final String name;
+    final int argCount;
+    private final SQLiteFunction function;
+    @SuppressWarnings("rawtypes")
+    private final SQLiteAggregate aggregate;
+    final SQLiteFunctionContext context = new SQLiteFunctionContext();
+
+    private volatile long callCount;
+    private volatile long timeNanos;
+
+    SQLiteFunctionBinding(String name, int argCount, SQLiteFunction function, SQLiteAggregate<?> aggregate) {
+        this.name = name;
+        this.argCount = argCount;
+        this.function = function;
+        this.aggregate = aggregate;
+        int capacity = Math.max(argCount, 8);
+        context.types = new byte[capacity];
+        context.longs = new long[capacity];
+        context.doubles = new double[capacity];
+    }
+
+    boolean isAggregate() {
+        return aggregate != null;
+    }
+
+    long getCallCount() {
+        return callCount;
+    }
+
+    long getTimeNanos() {
+        return timeNanos;
+    }
+
+    void onCall(long contextHandle, long argvHandle, int argc) {
+        long start = System.nanoTime();
+        context.bind(contextHandle, argvHandle, argc);
+        try {
+            function.call(context);
+        } catch (Throwable e) {
+            onError(e);
+        } finally {
+            context.unbind();
+            callCount++;
+            timeNanos += System.nanoTime() - start;
+        }
+    }
+
+    Object onCreateState() {
+        return aggregate.createState();
+    }
+
+    @SuppressWarnings("unchecked")
+    void onStep(Object state, long contextHandle, long argvHandle, int argc) {
+        long start = System.nanoTime();
+        context.bind(contextHandle, argvHandle, argc);
+        try {
+            aggregate.step(state, context);
+        } catch (Throwable e) {
+            onError(e);
+        } finally {
+            context.unbind();
+            callCount++;
+            timeNanos += System.nanoTime() - start;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void onFinal(Object state, long contextHandle) {
+        long start = System.nanoTime();
+        context.bind(contextHandle, 0, 0);
+        try {
+            aggregate.finish(state, context);
+        } catch (Throwable e) {
+            onError(e);
+        } finally {
+            context.unbind();
+            timeNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void onError(Throwable e) {
+        if (BuildVars.LOGS_ENABLED) {
+            Log.e("Error", "function " + name + " failed", e);
+        }
+        context.setResultError(name + ": " + e.getMessage());
+    }
+}
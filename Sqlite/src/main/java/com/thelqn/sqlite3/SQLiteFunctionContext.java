@@ -0,0 +1,162 @@
+package com.thelqn.sqlite3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Arguments and result of a single call of a Java SQL function. Numbers are passed without
+ * boxing, strings and blobs are read on demand. The context and the blob views it returns are
+ * only valid during the call.
+ */
+public final class SQLiteFunctionContext {
+
+    private long contextHandle;
+    private long argvHandle;
+    private int argc;
+    byte[] types;
+    long[] longs;
+    double[] doubles;
+    private final NativeByteBuffer blobView = new NativeByteBuffer(false);
+
+    SQLiteFunctionContext() {
+
+    }
+
+    void bind(long contextHandle, long argvHandle, int argc) {
+        this.contextHandle = contextHandle;
+        this.argvHandle = argvHandle;
+        this.argc = argc;
+    }
+
+    void unbind() {
+        contextHandle = 0;
+        argvHandle = 0;
+        argc = 0;
+        blobView.buffer = null;
+    }
+
+    public int getArgumentCount() {
+        return argc;
+    }
+
+    /**
+     * @return one of the SQLiteCursor.FIELD_TYPE_* constants
+     */
+    public int getType(int index) {
+        checkIndex(index);
+        return types[index];
+    }
+
+    public boolean isNull(int index) {
+        return getType(index) == SQLiteCursor.FIELD_TYPE_NULL;
+    }
+
+    public long getLong(int index) {
+        checkIndex(index);
+        return longs[index];
+    }
+
+    public int getInt(int index) {
+        return (int) getLong(index);
+    }
+
+    public double getDouble(int index) {
+        checkIndex(index);
+        return doubles[index];
+    }
+
+    public String getString(int index) {
+        checkIndex(index);
+        return valueText(argvHandle, index);
+    }
+
+    /**
+     * @return read-only view of the blob argument, null for NULL or empty values
+     */
+    public NativeByteBuffer getBlob(int index) {
+        checkIndex(index);
+        ByteBuffer buffer = valueBlob(argvHandle, index);
+        if (buffer == null) {
+            return null;
+        }
+        blobView.buffer = buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        return blobView;
+    }
+
+    public byte[] getByteArray(int index) {
+        checkIndex(index);
+        ByteBuffer buffer = valueBlob(argvHandle, index);
+        if (buffer == null) {
+            return types[index] == SQLiteCursor.FIELD_TYPE_NULL ? null : new byte[0];
+        }
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+
+    public void setResultLong(long value) {
+        checkBound();
+        resultLong(contextHandle, value);
+    }
+
+    public void setResultInt(int value) {
+        setResultLong(value);
+    }
+
+    public void setResultDouble(double value) {
+        checkBound();
+        resultDouble(contextHandle, value);
+    }
+
+    public void setResultString(String value) {
+        checkBound();
+        if (value == null) {
+            resultNull(contextHandle);
+        } else {
+            resultText(contextHandle, value);
+        }
+    }
+
+    public void setResultByteArray(byte[] value) {
+        checkBound();
+        if (value == null) {
+            resultNull(contextHandle);
+        } else {
+            resultBlob(contextHandle, value, value.length);
+        }
+    }
+
+    public void setResultNull() {
+        checkBound();
+        resultNull(contextHandle);
+    }
+
+    /**
+     * Makes the statement fail with message.
+     */
+    public void setResultError(String message) {
+        checkBound();
+        resultError(contextHandle, message != null ? message : "function failed");
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= argc) {
+            throw new IndexOutOfBoundsException("argument " + index + ", count " + argc);
+        }
+    }
+
+    private void checkBound() {
+        if (contextHandle == 0) {
+            throw new IllegalStateException("function context used outside of its call");
+        }
+    }
+
+    static native String valueText(long argvHandle, int index);
+    static native ByteBuffer valueBlob(long argvHandle, int index);
+    static native void resultLong(long contextHandle, long value);
+    static native void resultDouble(long contextHandle, double value);
+    static native void resultText(long contextHandle, String value);
+    static native void resultBlob(long contextHandle, byte[] value, int length);
+    static native void resultNull(long contextHandle);
+    static native void resultError(long contextHandle, String message);
+}
@@ -0,0 +1,247 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an operation submitted to {@link SQLiteAsync}. Callbacks run on the completion executor
+ * of the SQLiteAsync that created the future. Cancelling a pending operation removes it from the
+ * queue, cancelling a running one stops the statement it is executing. Operations submitted with a
+ * timeout fail with {@link SQLiteDatabase#SQLITE_INTERRUPT_DEADLINE} once it passes.
+ */
+public class SQLiteFuture<T> implements Future<T> {
+
+    public interface Callback<T> {
+        /**
+         * @param error null on success, error code SQLITE_INTERRUPT_CANCELLED if the operation was cancelled
+         */
+        void onComplete(T result, SQLiteException error);
+    }
+
+    public interface Continuation<T, R> {
+        R run(SQLiteDatabase db, T value) throws SQLiteException;
+    }
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_DONE = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private final SQLiteAsync owner;
+    private final Executor callbackExecutor;
+    private final boolean write;
+    private final SQLiteCancellationSignal signal = new SQLiteCancellationSignal();
+    volatile Runnable runnable;
+    long timeoutMs;
+
+    private int state = STATE_PENDING;
+    private T result;
+    private SQLiteException error;
+    private ArrayList<Callback<T>> callbacks;
+    private ArrayList<Executor> executors;
+
+    SQLiteFuture(SQLiteAsync owner, Executor callbackExecutor, boolean write) {
+        this.owner = owner;
+        this.callbackExecutor = callbackExecutor;
+        this.write = write;
+    }
+
+    /**
+     * Adds a callback run on the completion executor, right away if the future is already done.
+     */
+    public SQLiteFuture<T> addCallback(Callback<T> callback) {
+        addCallback(callback, callbackExecutor);
+        return this;
+    }
+
+    /**
+     * Runs continuation on the database queue once this future succeeds, so dependent work
+     * can be chained without nesting. Errors and cancellation are passed on to the returned future.
+     * The continuation runs as a read or a write like the operation of this future.
+     */
+    public <R> SQLiteFuture<R> then(Continuation<T, R> continuation) {
+        return then(write, continuation);
+    }
+
+    public <R> SQLiteFuture<R> thenRead(Continuation<T, R> continuation) {
+        return then(false, continuation);
+    }
+
+    public <R> SQLiteFuture<R> thenWrite(Continuation<T, R> continuation) {
+        return then(true, continuation);
+    }
+
+    private <R> SQLiteFuture<R> then(final boolean write, final Continuation<T, R> continuation) {
+        final SQLiteFuture<R> next = owner.newFuture(write);
+        addCallback((value, e) -> {
+            if (e != null) {
+                next.complete(null, e);
+            } else {
+                owner.enqueue(next, write, db -> continuation.run(db, value));
+            }
+        }, null);
+        return next;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Runnable pending = null;
+        boolean wasPending = false;
+        synchronized (this) {
+            if (state == STATE_PENDING) {
+                pending = runnable;
+                wasPending = true;
+            } else if (state != STATE_RUNNING || !mayInterruptIfRunning) {
+                return false;
+            }
+            state = STATE_CANCELLED;
+            error = new SQLiteException(SQLiteDatabase.SQLITE_INTERRUPT_CANCELLED, "cancelled");
+            notifyAll();
+        }
+        signal.cancel();
+        if (wasPending) {
+            owner.onDequeued(pending);
+        }
+        dispatchCallbacks();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state >= STATE_DONE;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (state < STATE_DONE) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (state < STATE_DONE) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getResult();
+    }
+
+    private T getResult() throws ExecutionException {
+        if (state == STATE_CANCELLED) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+
+    /**
+     * @return false if the future was cancelled before it started
+     */
+    boolean start() {
+        synchronized (this) {
+            if (state != STATE_PENDING) {
+                return false;
+            }
+            state = STATE_RUNNING;
+        }
+        owner.onDequeued(null);
+        return true;
+    }
+
+    T runOn(SQLiteDatabase db, SQLiteConnectionPool.Task<T> task) throws SQLiteException {
+        return db.runGuarded(timeoutMs, signal, task);
+    }
+
+    void complete(T value, SQLiteException e) {
+        boolean wasPending;
+        synchronized (this) {
+            if (state >= STATE_DONE) {
+                return;
+            }
+            wasPending = state == STATE_PENDING;
+            result = value;
+            error = e;
+            state = STATE_DONE;
+            notifyAll();
+        }
+        if (wasPending) {
+            owner.onDequeued(null);
+        }
+        dispatchCallbacks();
+    }
+
+    private void addCallback(Callback<T> callback, Executor executor) {
+        synchronized (this) {
+            if (state < STATE_DONE) {
+                if (callbacks == null) {
+                    callbacks = new ArrayList<>();
+                    executors = new ArrayList<>();
+                }
+                callbacks.add(callback);
+                executors.add(executor);
+                return;
+            }
+        }
+        dispatch(callback, executor);
+    }
+
+    private void dispatchCallbacks() {
+        ArrayList<Callback<T>> callbacksToRun;
+        ArrayList<Executor> executorsToRun;
+        synchronized (this) {
+            callbacksToRun = callbacks;
+            executorsToRun = executors;
+            callbacks = null;
+            executors = null;
+        }
+        if (callbacksToRun == null) {
+            return;
+        }
+        for (int a = 0; a < callbacksToRun.size(); a++) {
+            dispatch(callbacksToRun.get(a), executorsToRun.get(a));
+        }
+    }
+
+    private void dispatch(final Callback<T> callback, Executor executor) {
+        final T value;
+        final SQLiteException e;
+        synchronized (this) {
+            value = result;
+            e = error;
+        }
+        Runnable runnable = () -> {
+            try {
+                callback.onComplete(value, e);
+            } catch (Exception e2) {
+                if (BuildVars.LOGS_ENABLED) {
+                    Log.e("Error", e2.getMessage(), e2);
+                }
+            }
+        };
+        if (executor == null) {
+            runnable.run();
+        } else {
+            executor.execute(runnable);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Suggests indexes for a recorded workload. Statements are grouped by fingerprint and planned
+ * against a copy of the schema and the sqlite_stat1 statistics in an in-memory database, so the
+ * source is only read. For every table a statement scans fully, single and two column indexes on
+ * the columns the statement reads are created one at a time and kept if EXPLAIN QUERY PLAN turns
+ * the scan into a search. Recommendations are ranked by the estimated VM steps they save.
+ * Existing non unique indexes no workload statement uses are reported as drop candidates.
+ * <p>
+ * Reads the source connection from the calling thread, run it on the queue of that connection.
+ */
+public class SQLiteIndexAdvisor {
+
+    private static final int MAX_CANDIDATE_COLUMNS = 6;
+    private static final String CANDIDATE_NAME = "sqlite_advisor_candidate";
+
+    public static class Report {
+        private final ArrayList<SQLiteIndexRecommendation> recommendations;
+        private final ArrayList<String> unusedIndexes;
+        private final int analyzedCount;
+        private final int skippedCount;
+
+        Report(ArrayList<SQLiteIndexRecommendation> recommendations, ArrayList<String> unusedIndexes, int analyzedCount, int skippedCount) {
+            this.recommendations = recommendations;
+            this.unusedIndexes = unusedIndexes;
+            this.analyzedCount = analyzedCount;
+            this.skippedCount = skippedCount;
+        }
+
+        /**
+         * @return suggested indexes, largest estimated saving first
+         */
+        public List<SQLiteIndexRecommendation> getRecommendations() {
+            return Collections.unmodifiableList(recommendations);
+        }
+
+        /**
+         * @return names of existing indexes no analyzed statement used
+         */
+        public List<String> getUnusedIndexes() {
+            return Collections.unmodifiableList(unusedIndexes);
+        }
+
+        public int getAnalyzedCount() {
+            return analyzedCount;
+        }
+
+        /**
+         * @return statements that could not be planned, for example because they use temp tables
+         */
+        public int getSkippedCount() {
+            return skippedCount;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("analyzed ").append(analyzedCount).append(", skipped ").append(skippedCount);
+            for (SQLiteIndexRecommendation recommendation : recommendations) {
+                builder.append('\n').append(recommendation);
+            }
+            for (String index : unusedIndexes) {
+                builder.append("\nDROP INDEX ").append(quote(index)).append(" -- unused");
+            }
+            return builder.toString();
+        }
+    }
+
+    private static class Workload {
+        final String sql;
+        long runs;
+        long fullScanSteps;
+
+        Workload(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private static class Index {
+        final String name;
+        final boolean unique;
+
+        Index(String name, boolean unique) {
+            this.name = name;
+            this.unique = unique;
+        }
+    }
+
+    private final SQLiteDatabase source;
+    private final String tempDir;
+    private final LinkedHashMap<String, Workload> workload = new LinkedHashMap<>();
+
+    /**
+     * @param tempDir directory for the temporary files of the in-memory schema copy
+     */
+    public SQLiteIndexAdvisor(SQLiteDatabase source, String tempDir) {
+        this.source = source;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Adds a statement that ran runs times. Literals are replaced by parameters.
+     *
+     * @param fullScanSteps full scan steps of all runs, 0 if unknown
+     */
+    public void addStatement(String sql, long runs, long fullScanSteps) {
+        String fingerprint = SQLiteTracer.fingerprint(sql);
+        Workload entry = workload.get(fingerprint);
+        if (entry == null) {
+            entry = new Workload(fingerprint);
+            workload.put(fingerprint, entry);
+        }
+        entry.runs += Math.max(runs, 1);
+        entry.fullScanSteps += Math.max(fullScanSteps, 0);
+    }
+
+    /**
+     * Adds the fingerprints recorded by a tracer, see {@link SQLiteTracer#snapshot()}.
+     */
+    public void addTraceStats(List<SQLiteTraceStats> stats) {
+        for (SQLiteTraceStats item : stats) {
+            addStatement(item.getFingerprint(), item.getCount(), 0);
+        }
+    }
+
+    /**
+     * Adds statement counters, see {@link SQLiteDatabase#getStatementStats(boolean)}. Their full
+     * scan steps make the estimates more precise than the table sizes alone.
+     */
+    public void addStatementStats(List<SQLiteStatementStats> stats) {
+        for (SQLiteStatementStats item : stats) {
+            if (item.getSql() == null || item.getRunCount() == 0) {
+                continue;
+            }
+            String fingerprint = SQLiteTracer.fingerprint(item.getSql());
+            Workload entry = workload.get(fingerprint);
+            if (entry != null && entry.fullScanSteps == 0) {
+                // runs are already counted by the tracer
+                entry.fullScanSteps = item.getFullScanSteps() * entry.runs / item.getRunCount();
+            } else {
+                addStatement(item.getSql(), item.getRunCount(), item.getFullScanSteps());
+            }
+        }
+    }
+
+    public Report analyze() throws SQLiteException {
+        SQLiteDatabase scratch = new SQLiteDatabase(":memory:", tempDir, SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.OPEN_CREATE);
+        try {
+            scratch.setStatementCacheSize(0);
+            HashMap<String, Index> indexes = copySchema(scratch);
+            HashMap<String, Long> tableRows = new HashMap<>();
+            LinkedHashMap<String, SQLiteIndexRecommendation> recommendations = new LinkedHashMap<>();
+            HashSet<String> usedIndexes = new HashSet<>();
+            int analyzed = 0;
+            int skipped = 0;
+            for (Workload entry : workload.values()) {
+                SQLiteQueryPlan plan;
+                String[] columns;
+                try {
+                    plan = scratch.getQueryPlan(entry.sql);
+                    columns = scratch.getReadColumns(entry.sql);
+                } catch (SQLiteException e) {
+                    skipped++;
+                    continue;
+                }
+                analyzed++;
+                for (int a = 0; a < plan.size(); a++) {
+                    String index = usedIndex(plan.getDetail(a));
+                    if (index != null) {
+                        usedIndexes.add(index.toLowerCase(Locale.US));
+                    }
+                }
+                for (String table : scannedTables(plan)) {
+                    String[] best = findBestIndex(scratch, entry.sql, table, columns);
+                    if (best == null) {
+                        continue;
+                    }
+                    long rows = estimateRows(table, tableRows);
+                    long scanSteps = entry.fullScanSteps > 0 ? entry.fullScanSteps : entry.runs * rows;
+                    long searchSteps = entry.runs * (64 - Long.numberOfLeadingZeros(rows + 1));
+                    String key = (table + "(" + join(best) + ")").toLowerCase(Locale.US);
+                    SQLiteIndexRecommendation recommendation = recommendations.get(key);
+                    if (recommendation == null) {
+                        recommendation = new SQLiteIndexRecommendation(table, best);
+                        recommendations.put(key, recommendation);
+                    }
+                    recommendation.add(entry.sql, Math.max(scanSteps - searchSteps, 0));
+                }
+            }
+            ArrayList<SQLiteIndexRecommendation> result = mergePrefixes(new ArrayList<>(recommendations.values()));
+            Collections.sort(result, (o1, o2) -> Long.compare(o2.getEstimatedSavedSteps(), o1.getEstimatedSavedSteps()));
+            ArrayList<String> unused = new ArrayList<>();
+            if (analyzed > 0) {
+                for (Index index : indexes.values()) {
+                    if (!index.unique && !usedIndexes.contains(index.name.toLowerCase(Locale.US))) {
+                        unused.add(index.name);
+                    }
+                }
+            }
+            return new Report(result, unused, analyzed, skipped);
+        } finally {
+            scratch.close();
+        }
+    }
+
+    private HashMap<String, Index> copySchema(SQLiteDatabase scratch) throws SQLiteException {
+        HashMap<String, Index> indexes = new HashMap<>();
+        SQLiteCursor cursor = source.queryFinalized("SELECT type, name, sql FROM sqlite_master WHERE sql IS NOT NULL AND name NOT LIKE 'sqlite_%' ORDER BY rowid");
+        try {
+            while (cursor.next()) {
+                String type = cursor.stringValue(0);
+                String name = cursor.stringValue(1);
+                String sql = cursor.stringValue(2);
+                try {
+                    scratch.executeFast(sql).stepThis().dispose();
+                } catch (SQLiteException e) {
+                    if (BuildVars.LOGS_ENABLED) {
+                        Log.e("Error", "index advisor can't copy " + name + ": " + e.getMessage());
+                    }
+                    continue;
+                }
+                if ("index".equals(type)) {
+                    indexes.put(name, new Index(name, sql.trim().toUpperCase(Locale.US).startsWith("CREATE UNIQUE")));
+                }
+            }
+        } finally {
+            cursor.dispose();
+        }
+        if (source.tableExists("sqlite_stat1")) {
+            scratch.executeFast("ANALYZE").stepThis().dispose();
+            SQLitePreparedStatement insert = scratch.executeFast("INSERT INTO sqlite_stat1 VALUES(?, ?, ?)");
+            cursor = source.queryFinalized("SELECT tbl, idx, stat FROM sqlite_stat1");
+            try {
+                while (cursor.next()) {
+                    insert.requery();
+                    insert.bindString(1, cursor.stringValue(0));
+                    if (cursor.isNull(1)) {
+                        insert.bindNull(2);
+                    } else {
+                        insert.bindString(2, cursor.stringValue(1));
+                    }
+                    insert.bindString(3, cursor.stringValue(2));
+                    insert.step();
+                }
+            } finally {
+                cursor.dispose();
+                insert.dispose();
+            }
+            // makes the planner load the copied statistics
+            scratch.executeFast("ANALYZE sqlite_master").stepThis().dispose();
+        }
+        return indexes;
+    }
+
+    /**
+     * @return the columns of the best candidate index, null if none turns the scan into a search
+     */
+    private static String[] findBestIndex(SQLiteDatabase scratch, String sql, String table, String[] readColumns) throws SQLiteException {
+        ArrayList<String> columns = new ArrayList<>();
+        for (int a = 0; a + 1 < readColumns.length && columns.size() < MAX_CANDIDATE_COLUMNS; a += 2) {
+            if (readColumns[a].equalsIgnoreCase(table) && !columns.contains(readColumns[a + 1])) {
+                columns.add(readColumns[a + 1]);
+            }
+        }
+        ArrayList<String[]> candidates = new ArrayList<>();
+        for (String column : columns) {
+            candidates.add(new String[]{column});
+        }
+        for (String first : columns) {
+            for (String second : columns) {
+                if (first != second) {
+                    candidates.add(new String[]{first, second});
+                }
+            }
+        }
+        String[] best = null;
+        int bestScore = 0;
+        for (String[] candidate : candidates) {
+            int score;
+            try {
+                scratch.executeFast("CREATE INDEX " + CANDIDATE_NAME + " ON " + quote(table) + "(" + join(candidate) + ")").stepThis().dispose();
+            } catch (SQLiteException e) {
+                continue;
+            }
+            try {
+                score = score(scratch.getQueryPlan(sql), table);
+            } finally {
+                scratch.executeFast("DROP INDEX " + CANDIDATE_NAME).stepThis().dispose();
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return 2 for every equality and 1 for every range constraint the candidate index serves
+     */
+    private static int score(SQLiteQueryPlan plan, String table) {
+        int score = 0;
+        for (int a = 0; a < plan.size(); a++) {
+            String detail = plan.getDetail(a);
+            if (!detail.startsWith("SEARCH ") || !table.equalsIgnoreCase(tableOf(detail)) || !detail.contains(" INDEX " + CANDIDATE_NAME)) {
+                continue;
+            }
+            int start = detail.indexOf('(');
+            int end = detail.lastIndexOf(')');
+            if (start < 0 || end < start) {
+                continue;
+            }
+            for (String term : detail.substring(start + 1, end).split(" AND ")) {
+                score += term.contains("=") && !term.contains(">") && !term.contains("<") ? 2 : 1;
+            }
+        }
+        return score;
+    }
+
+    private static ArrayList<String> scannedTables(SQLiteQueryPlan plan) {
+        ArrayList<String> tables = new ArrayList<>();
+        for (int a = 0; a < plan.size(); a++) {
+            String detail = plan.getDetail(a);
+            boolean fullScan = detail.startsWith("SCAN ") && !detail.contains(" USING ") && !detail.contains("VIRTUAL TABLE") && !detail.startsWith("SCAN CONSTANT");
+            boolean autoIndex = detail.contains("AUTOMATIC");
+            if (fullScan || autoIndex) {
+                String table = tableOf(detail);
+                if (table != null && !tables.contains(table)) {
+                    tables.add(table);
+                }
+            }
+        }
+        return tables;
+    }
+
+    private static String tableOf(String detail) {
+        int start = detail.indexOf(' ');
+        if (start < 0) {
+            return null;
+        }
+        int end = detail.indexOf(' ', start + 1);
+        return detail.substring(start + 1, end < 0 ? detail.length() : end);
+    }
+
+    private static String usedIndex(String detail) {
+        int start = detail.indexOf(" INDEX ");
+        if (start < 0 || detail.contains("AUTOMATIC")) {
+            return null;
+        }
+        start += 7;
+        int end = detail.indexOf(' ', start);
+        return detail.substring(start, end < 0 ? detail.length() : end);
+    }
+
+    private long estimateRows(String table, HashMap<String, Long> cache) {
+        Long rows = cache.get(table);
+        if (rows != null) {
+            return rows;
+        }
+        rows = 1000L;
+        try {
+            Integer stat = null;
+            if (source.tableExists("sqlite_stat1")) {
+                stat = source.executeInt("SELECT CAST(stat AS INTEGER) FROM sqlite_stat1 WHERE tbl = ? LIMIT 1", table);
+            }
+            if (stat == null) {
+                stat = source.executeInt("SELECT max(rowid) FROM " + quote(table));
+            }
+            if (stat != null && stat > 0) {
+                rows = (long) stat;
+            }
+        } catch (SQLiteException ignore) {
+            // WITHOUT ROWID tables have no rowid to estimate from
+        }
+        cache.put(table, rows);
+        return rows;
+    }
+
+    private static ArrayList<SQLiteIndexRecommendation> mergePrefixes(ArrayList<SQLiteIndexRecommendation> recommendations) {
+        ArrayList<SQLiteIndexRecommendation> result = new ArrayList<>();
+        for (SQLiteIndexRecommendation recommendation : recommendations) {
+            SQLiteIndexRecommendation wider = null;
+            for (SQLiteIndexRecommendation other : recommendations) {
+                if (other.hasPrefix(recommendation)) {
+                    wider = other;
+                    break;
+                }
+            }
+            if (wider != null) {
+                // an index on (a, b) serves the searches on a as well
+                wider.merge(recommendation);
+            } else {
+                result.add(recommendation);
+            }
+        }
+        return result;
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder builder = new StringBuilder();
+        for (int a = 0; a < columns.length; a++) {
+            if (a != 0) {
+                builder.append(", ");
+            }
+            builder.append(quote(columns[a]));
+        }
+        return builder.toString();
+    }
+
+    static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,90 @@
+package com.thelqn.sqlite3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Index suggested by {@link SQLiteIndexAdvisor}, with the workload statements it turned from
+ * full scans into index searches.
+ */
+public class SQLiteIndexRecommendation {
+
+    private final String table;
+    private final String[] columns;
+    private final ArrayList<String> statements = new ArrayList<>();
+    private long estimatedSavedSteps;
+
+    SQLiteIndexRecommendation(String table, String[] columns) {
+        this.table = table;
+        this.columns = columns;
+    }
+
+    void add(String sql, long savedSteps) {
+        if (!statements.contains(sql)) {
+            statements.add(sql);
+        }
+        estimatedSavedSteps += savedSteps;
+    }
+
+    void merge(SQLiteIndexRecommendation other) {
+        for (String sql : other.statements) {
+            if (!statements.contains(sql)) {
+                statements.add(sql);
+            }
+        }
+        estimatedSavedSteps += other.estimatedSavedSteps;
+    }
+
+    boolean hasPrefix(SQLiteIndexRecommendation other) {
+        if (!table.equalsIgnoreCase(other.table) || other.columns.length >= columns.length) {
+            return false;
+        }
+        for (int a = 0; a < other.columns.length; a++) {
+            if (!columns[a].equalsIgnoreCase(other.columns[a])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * @return rows the workload would not have to step through, assuming every full scan
+     * becomes a search of about log2 rows
+     */
+    public long getEstimatedSavedSteps() {
+        return estimatedSavedSteps;
+    }
+
+    public List<String> getStatements() {
+        return Collections.unmodifiableList(statements);
+    }
+
+    public String getCreateSql() {
+        StringBuilder name = new StringBuilder("idx_").append(table);
+        StringBuilder list = new StringBuilder();
+        for (int a = 0; a < columns.length; a++) {
+            name.append('_').append(columns[a]);
+            if (a != 0) {
+                list.append(", ");
+            }
+            list.append(SQLiteIndexAdvisor.quote(columns[a]));
+        }
+        return "CREATE INDEX IF NOT EXISTS " + SQLiteIndexAdvisor.quote(name.toString().toLowerCase(Locale.US))
+                + " ON " + SQLiteIndexAdvisor.quote(table) + "(" + list + ")";
+    }
+
+    @Override
+    public String toString() {
+        return getCreateSql() + " -- saves ~" + estimatedSavedSteps + " steps in " + statements.size() + " statements";
+    }
+}
@@ -0,0 +1,57 @@
+package com.thelqn.sqlite3;
+
+import java.util.Arrays;
+
+/**
+ * Growable int array filled by {@link SQLiteCursor#fillIntColumn(int, SQLiteIntArray)}.
+ */
+public class SQLiteIntArray {
+
+    int[] values;
+    int size;
+
+    public SQLiteIntArray() {
+        this(64);
+    }
+
+    public SQLiteIntArray(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return values[index];
+    }
+
+    public void add(int value) {
+        ensureCapacity(size + 1);
+        values[size++] = value;
+    }
+
+    /**
+     * @return the backing array, only the first size() values are valid
+     */
+    public int[] array() {
+        return values;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Query that is re-run whenever a committed transaction changes one of the tables it reads,
+ * see {@link SQLiteAsync#observe}. The tables are found with an authorizer when the query is
+ * first prepared. Re-runs are debounced on the queue of the SQLiteAsync, and the listener is only
+ * called when the mapped rows differ from the previous result, so rows should implement equals.
+ */
+public class SQLiteLiveQuery<R> {
+
+    public interface Listener<R> {
+        void onChanged(ArrayList<R> rows);
+    }
+
+    public static final int DEFAULT_DEBOUNCE_MS = 30;
+
+    private final SQLiteAsync async;
+    private final DispatchQueue queue;
+    private final String sql;
+    private final Object[] args;
+    private final SQLiteAsync.RowMapper<R> mapper;
+    private final Listener<R> listener;
+    private final Runnable rerunRunnable = this::rerun;
+    private final SQLiteChangeFeed.Listener changeListener = changes -> scheduleRerun();
+
+    private volatile int debounceMs = DEFAULT_DEBOUNCE_MS;
+    private volatile boolean closed;
+    private boolean rerunScheduled;
+    private SQLiteChangeFeed feed;
+    private String[] tables;
+    private ArrayList<R> lastRows;
+    private SQLiteFuture<ArrayList<R>> running;
+
+    SQLiteLiveQuery(SQLiteAsync async, DispatchQueue queue, String sql, Object[] args, SQLiteAsync.RowMapper<R> mapper, Listener<R> listener) {
+        this.async = async;
+        this.queue = queue;
+        this.sql = sql;
+        this.args = args != null ? args : new Object[0];
+        this.mapper = mapper;
+        this.listener = listener;
+    }
+
+    public void setDebounceMs(int ms) {
+        debounceMs = Math.max(ms, 0);
+    }
+
+    /**
+     * @return the tables the query depends on, null until the first run
+     */
+    public synchronized String[] getTables() {
+        return tables != null ? Arrays.copyOf(tables, tables.length) : null;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    void start() {
+        SQLiteFuture<ArrayList<R>> future = async.write(db -> {
+            String[] readTables = db.getReadTables(sql);
+            SQLiteChangeFeed changeFeed = async.getChangeFeed(db);
+            synchronized (SQLiteLiveQuery.this) {
+                if (closed) {
+                    return null;
+                }
+                tables = readTables;
+                feed = changeFeed;
+            }
+            if (readTables.length > 0) {
+                changeFeed.subscribe(changeListener, readTables);
+                // close() may have run before the subscription and found nothing to unsubscribe
+                if (closed) {
+                    changeFeed.unsubscribe(changeListener);
+                    return null;
+                }
+            }
+            return runQuery(db);
+        });
+        track(future);
+    }
+
+    /**
+     * Re-runs the query right away, for changes made outside of this connection.
+     */
+    public void refresh() {
+        scheduleRerun(0);
+    }
+
+    public void close() {
+        SQLiteFuture<ArrayList<R>> future;
+        SQLiteChangeFeed changeFeed;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            future = running;
+            changeFeed = feed;
+            running = null;
+        }
+        queue.cancelRunnable(rerunRunnable);
+        if (future != null) {
+            future.cancel(false);
+        }
+        if (changeFeed != null) {
+            changeFeed.unsubscribe(changeListener);
+        }
+    }
+
+    private void scheduleRerun() {
+        scheduleRerun(debounceMs);
+    }
+
+    private void scheduleRerun(int delay) {
+        synchronized (this) {
+            if (closed || rerunScheduled) {
+                return;
+            }
+            rerunScheduled = true;
+        }
+        queue.postRunnable(rerunRunnable, delay);
+    }
+
+    private void rerun() {
+        synchronized (this) {
+            rerunScheduled = false;
+            if (closed) {
+                return;
+            }
+        }
+        track(async.read(this::runQuery));
+    }
+
+    private ArrayList<R> runQuery(SQLiteDatabase db) throws SQLiteException {
+        ArrayList<R> rows = new ArrayList<>();
+        SQLiteCursor cursor = db.queryFinalized(sql, args);
+        try {
+            while (cursor.next()) {
+                rows.add(mapper.map(cursor));
+            }
+        } finally {
+            cursor.dispose();
+        }
+        synchronized (this) {
+            if (closed || rows.equals(lastRows)) {
+                return null;
+            }
+            lastRows = rows;
+        }
+        return rows;
+    }
+
+    private void track(SQLiteFuture<ArrayList<R>> future) {
+        synchronized (this) {
+            running = future;
+        }
+        future.addCallback((rows, error) -> {
+            if (error != null) {
+                if (BuildVars.LOGS_ENABLED) {
+                    Log.e("Error", "live query failed", error);
+                }
+                return;
+            }
+            if (rows != null && !closed) {
+                listener.onChanged(rows);
+            }
+        });
+    }
+}
@@ -0,0 +1,57 @@
+package com.thelqn.sqlite3;
+
+import java.util.Arrays;
+
+/**
+ * Growable long array filled by {@link SQLiteCursor#fillLongColumn(int, SQLiteLongArray)}.
+ */
+public class SQLiteLongArray {
+
+    long[] values;
+    int size;
+
+    public SQLiteLongArray() {
+        this(64);
+    }
+
+    public SQLiteLongArray(int capacity) {
+        values = new long[Math.max(capacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return values[index];
+    }
+
+    public void add(long value) {
+        ensureCapacity(size + 1);
+        values[size++] = value;
+    }
+
+    /**
+     * @return the backing array, only the first size() values are valid
+     */
+    public long[] array() {
+        return values;
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+}
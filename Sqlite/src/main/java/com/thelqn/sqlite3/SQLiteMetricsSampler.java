@@ -0,0 +1,125 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Periodically reads the engine counters of a connection on a DispatchQueue and publishes them to
+ * a {@link Sink}. Use the queue the connection runs on, the prepared statements are enumerated
+ * with sqlite3_next_stmt. Statement counters are reset on every sample, so each sample carries
+ * the work done since the previous one.
+ */
+public class SQLiteMetricsSampler {
+
+    public static final int DEFAULT_INTERVAL_MS = 10000;
+    public static final int DEFAULT_HOT_RUNS = 10;
+    public static final int DEFAULT_FULL_SCAN_STEPS_PER_RUN = 100;
+
+    public interface Sink {
+        void onSample(SQLiteDbStats current, SQLiteDbStats delta, ArrayList<SQLiteStatementStats> statements);
+
+        /**
+         * Called once per SQL text when a statement that ran at least the hot run count in one
+         * interval stepped through full table scans on average more than the threshold per run.
+         */
+        void onFullScanWarning(SQLiteStatementStats statement);
+    }
+
+    private final SQLiteDatabase database;
+    private final DispatchQueue queue;
+    private final Sink sink;
+    private final Runnable sampleRunnable = this::sample;
+    private final Runnable startRunnable = this::restart;
+    private final HashSet<String> warned = new HashSet<>();
+
+    private volatile int intervalMs = DEFAULT_INTERVAL_MS;
+    private volatile int hotRuns = DEFAULT_HOT_RUNS;
+    private volatile int fullScanStepsPerRun = DEFAULT_FULL_SCAN_STEPS_PER_RUN;
+    private volatile boolean running;
+    private SQLiteDbStats previous;
+
+    public SQLiteMetricsSampler(SQLiteDatabase db, DispatchQueue queue, Sink sink) {
+        database = db;
+        this.queue = queue;
+        this.sink = sink;
+    }
+
+    public void setIntervalMs(int ms) {
+        intervalMs = Math.max(ms, 100);
+    }
+
+    /**
+     * @param runs          runs per interval that make a statement hot
+     * @param stepsPerRun   average full scan steps per run that trigger the warning
+     */
+    public void setFullScanWarning(int runs, int stepsPerRun) {
+        hotRuns = Math.max(runs, 1);
+        fullScanStepsPerRun = Math.max(stepsPerRun, 1);
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        queue.cancelRunnable(startRunnable);
+        queue.postRunnable(startRunnable);
+    }
+
+    public void stop() {
+        running = false;
+        queue.cancelRunnable(startRunnable);
+        queue.cancelRunnable(sampleRunnable);
+    }
+
+    /**
+     * Forgets the statements already warned about, so they are reported again.
+     */
+    public void resetWarnings() {
+        queue.postRunnable(warned::clear);
+    }
+
+    /**
+     * Runs on the queue, drops the next sample a loop started before a stop() may have scheduled,
+     * so only one loop runs.
+     */
+    private void restart() {
+        queue.cancelRunnable(sampleRunnable);
+        previous = null;
+        sample();
+    }
+
+    private void sample() {
+        if (!running) {
+            return;
+        }
+        try {
+            SQLiteDbStats current = database.getStats(false);
+            SQLiteDbStats delta = previous != null ? current.delta(previous) : current;
+            previous = current;
+            ArrayList<SQLiteStatementStats> statements = new ArrayList<>();
+            for (SQLiteStatementStats stats : database.getStatementStats(true)) {
+                if (stats.getRunCount() == 0 && stats.getVmSteps() == 0) {
+                    continue;
+                }
+                statements.add(stats);
+                if (stats.getRunCount() >= hotRuns && stats.getFullScanSteps() / stats.getRunCount() >= fullScanStepsPerRun && warned.add(stats.getSql())) {
+                    if (BuildVars.LOGS_ENABLED) {
+                        Log.w("Warning", "full scan in hot statement " + stats);
+                    }
+                    sink.onFullScanWarning(stats);
+                }
+            }
+            sink.onSample(current, delta, statements);
+        } catch (Exception e) {
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", e.getMessage(), e);
+            }
+        }
+        if (running) {
+            queue.postRunnable(sampleRunnable, intervalMs);
+        }
+    }
+}
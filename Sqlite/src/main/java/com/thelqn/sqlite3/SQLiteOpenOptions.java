@@ -0,0 +1,217 @@
+package com.thelqn.sqlite3;
+
+import java.util.Locale;
+
+/**
+ * Open flags and tuning pragmas applied natively in the same call that opens the database,
+ * see {@link SQLiteDatabase#SQLiteDatabase(String, String, SQLiteOpenOptions)}.
+ * Pragmas that were not set keep the sqlite defaults.
+ */
+public class SQLiteOpenOptions {
+
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+    public static final int SYNCHRONOUS_EXTRA = 3;
+
+    public static final String JOURNAL_MODE_DELETE = "DELETE";
+    public static final String JOURNAL_MODE_TRUNCATE = "TRUNCATE";
+    public static final String JOURNAL_MODE_PERSIST = "PERSIST";
+    public static final String JOURNAL_MODE_MEMORY = "MEMORY";
+    public static final String JOURNAL_MODE_WAL = "WAL";
+    public static final String JOURNAL_MODE_OFF = "OFF";
+
+    public static final int TEMP_STORE_DEFAULT = 0;
+    public static final int TEMP_STORE_FILE = 1;
+    public static final int TEMP_STORE_MEMORY = 2;
+
+    public static final String LOCKING_MODE_NORMAL = "NORMAL";
+    public static final String LOCKING_MODE_EXCLUSIVE = "EXCLUSIVE";
+
+    private final int openFlags;
+    private final String pragmas;
+
+    private SQLiteOpenOptions(int openFlags, String pragmas) {
+        this.openFlags = openFlags;
+        this.pragmas = pragmas;
+    }
+
+    public int getOpenFlags() {
+        return openFlags;
+    }
+
+    /**
+     * @return pragma script executed right after the database is opened, null if empty
+     */
+    public String getPragmas() {
+        return pragmas;
+    }
+
+    public static class Builder {
+
+        private int openFlags = SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.OPEN_CREATE;
+        private int pageSize = -1;
+        private long cacheSize = Long.MIN_VALUE;
+        private long mmapSize = -1;
+        private int synchronous = -1;
+        private String journalMode;
+        private long journalSizeLimit = -2;
+        private int walAutocheckpoint = -1;
+        private int tempStore = -1;
+        private String lockingMode;
+        private int secureDelete = -1;
+
+        /**
+         * @param flags combination of the SQLiteDatabase.OPEN_* flags
+         */
+        public Builder setOpenFlags(int flags) {
+            openFlags = flags;
+            return this;
+        }
+
+        public Builder addOpenFlags(int flags) {
+            openFlags |= flags;
+            return this;
+        }
+
+        public Builder setReadOnly() {
+            openFlags = (openFlags & ~(SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.OPEN_CREATE)) | SQLiteDatabase.OPEN_READONLY;
+            return this;
+        }
+
+        /**
+         * Only has an effect on a new database or before switching to WAL.
+         */
+        public Builder setPageSize(int bytes) {
+            if (bytes < 512 || bytes > 65536 || (bytes & (bytes - 1)) != 0) {
+                throw new IllegalArgumentException("page size must be a power of two between 512 and 65536");
+            }
+            pageSize = bytes;
+            return this;
+        }
+
+        /**
+         * @param size pages if positive, kibibytes if negative, as in PRAGMA cache_size
+         */
+        public Builder setCacheSize(long size) {
+            cacheSize = size;
+            return this;
+        }
+
+        public Builder setMmapSize(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("invalid mmap size " + bytes);
+            }
+            mmapSize = bytes;
+            return this;
+        }
+
+        /**
+         * @param mode one of the SYNCHRONOUS_* constants
+         */
+        public Builder setSynchronous(int mode) {
+            if (mode < SYNCHRONOUS_OFF || mode > SYNCHRONOUS_EXTRA) {
+                throw new IllegalArgumentException("invalid synchronous mode " + mode);
+            }
+            synchronous = mode;
+            return this;
+        }
+
+        /**
+         * @param mode one of the JOURNAL_MODE_* constants
+         */
+        public Builder setJournalMode(String mode) {
+            String value = mode.toUpperCase(Locale.US);
+            if (!value.equals(JOURNAL_MODE_DELETE) && !value.equals(JOURNAL_MODE_TRUNCATE) && !value.equals(JOURNAL_MODE_PERSIST)
+                    && !value.equals(JOURNAL_MODE_MEMORY) && !value.equals(JOURNAL_MODE_WAL) && !value.equals(JOURNAL_MODE_OFF)) {
+                throw new IllegalArgumentException("invalid journal mode " + mode);
+            }
+            journalMode = value;
+            return this;
+        }
+
+        /**
+         * @param bytes maximum size kept for the journal file, -1 for no limit
+         */
+        public Builder setJournalSizeLimit(long bytes) {
+            journalSizeLimit = Math.max(bytes, -1);
+            return this;
+        }
+
+        /**
+         * @param pages WAL size in pages that triggers an automatic checkpoint, 0 disables it
+         */
+        public Builder setWalAutocheckpoint(int pages) {
+            walAutocheckpoint = Math.max(pages, 0);
+            return this;
+        }
+
+        /**
+         * @param store one of the TEMP_STORE_* constants
+         */
+        public Builder setTempStore(int store) {
+            if (store < TEMP_STORE_DEFAULT || store > TEMP_STORE_MEMORY) {
+                throw new IllegalArgumentException("invalid temp store " + store);
+            }
+            tempStore = store;
+            return this;
+        }
+
+        /**
+         * @param mode one of the LOCKING_MODE_* constants
+         */
+        public Builder setLockingMode(String mode) {
+            String value = mode.toUpperCase(Locale.US);
+            if (!value.equals(LOCKING_MODE_NORMAL) && !value.equals(LOCKING_MODE_EXCLUSIVE)) {
+                throw new IllegalArgumentException("invalid locking mode " + mode);
+            }
+            lockingMode = value;
+            return this;
+        }
+
+        public Builder setSecureDelete(boolean enabled) {
+            secureDelete = enabled ? 1 : 0;
+            return this;
+        }
+
+        public SQLiteOpenOptions build() {
+            StringBuilder builder = new StringBuilder();
+            // page_size has to go before journal_mode, it can't be changed once the database is in WAL
+            if (pageSize != -1) {
+                appendPragma(builder, "page_size", pageSize);
+            }
+            if (lockingMode != null) {
+                appendPragma(builder, "locking_mode", lockingMode);
+            }
+            if (journalMode != null) {
+                appendPragma(builder, "journal_mode", journalMode);
+            }
+            if (journalSizeLimit != -2) {
+                appendPragma(builder, "journal_size_limit", journalSizeLimit);
+            }
+            if (synchronous != -1) {
+                appendPragma(builder, "synchronous", synchronous);
+            }
+            if (cacheSize != Long.MIN_VALUE) {
+                appendPragma(builder, "cache_size", cacheSize);
+            }
+            if (mmapSize != -1) {
+                appendPragma(builder, "mmap_size", mmapSize);
+            }
+            if (walAutocheckpoint != -1) {
+                appendPragma(builder, "wal_autocheckpoint", walAutocheckpoint);
+            }
+            if (tempStore != -1) {
+                appendPragma(builder, "temp_store", tempStore);
+            }
+            if (secureDelete != -1) {
+                appendPragma(builder, "secure_delete", secureDelete);
+            }
+            return new SQLiteOpenOptions(openFlags, builder.length() > 0 ? builder.toString() : null);
+        }
+
+        private static void appendPragma(StringBuilder builder, String name, Object value) {
+            builder.append("PRAGMA ").append(name).append(" = ").append(value).append(';');
+        }
+    }
+}
@@ -8,35 +8,59 @@
 
 package com.thelqn.sqlite3;
 
-import android.os.SystemClock;
 import android.util.Log;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 
 public class SQLitePreparedStatement {
 
     private boolean isFinalized = false;
     private long sqliteStatementHandle;
+    private final SQLiteDatabase database;
+    private SQLiteStatementCache statementCache;
+    private String sql;
+    // bumped whenever column memory handed out by sqlite may be reused or freed
+    private int generation;
+    // SQLiteArguments.TYPE_* of the bound values, reported with slow statement captures
+    private byte[] argumentTypes;
+    private int argumentCount;
 
-    private long startTime;
-    private String query;
-    private static HashMap<SQLitePreparedStatement, String> hashMap;
+    private static final ThreadLocal<SQLiteArguments> argumentsWrapper = new ThreadLocal<SQLiteArguments>() {
+        @Override
+        protected SQLiteArguments initialValue() {
+            return new SQLiteArguments();
+        }
+    };
 
     public long getStatementHandle() {
         return sqliteStatementHandle;
     }
 
+    int getGeneration() {
+        return generation;
+    }
+
+    void nextGeneration() {
+        generation++;
+    }
+
     public SQLitePreparedStatement(SQLiteDatabase db, String sql) throws SQLiteException {
         sqliteStatementHandle = prepare(db.getSQLiteHandle(), sql);
-        if (BuildVars.DEBUG_VERSION) {
-            query = sql;
-            startTime = SystemClock.elapsedRealtime();
-            if (hashMap == null) {
-                hashMap = new HashMap<>();
-            }
-            hashMap.put(this, sql);
+        database = db;
+        this.sql = sql;
+        db.onStatementPrepared(this);
+    }
+
+    SQLitePreparedStatement(SQLiteDatabase db, SQLiteStatementCache cache, String sql) throws SQLiteException {
+        long handle = cache.acquire(sql);
+        if (handle == 0) {
+            handle = prepare(db.getSQLiteHandle(), sql);
         }
+        sqliteStatementHandle = handle;
+        database = db;
+        statementCache = cache;
+        this.sql = sql;
+        db.onStatementPrepared(this);
     }
 
 
@@ -47,46 +71,139 @@ public class SQLitePreparedStatement {
 
         checkFinalized();
 
-        reset(sqliteStatementHandle);
-
-        int i = 1;
-        for (int a = 0; a < args.length; a++) {
-            Object obj = args[a];
-            if (obj == null) {
-                bindNull(sqliteStatementHandle, i);
-            } else if (obj instanceof Integer) {
-                bindInt(sqliteStatementHandle, i, (Integer) obj);
-            } else if (obj instanceof Double) {
-                bindDouble(sqliteStatementHandle, i, (Double) obj);
-            } else if (obj instanceof String) {
-                bindString(sqliteStatementHandle, i, (String) obj);
-            } else if (obj instanceof Long) {
-                bindLong(sqliteStatementHandle, i, (Long) obj);
-            } else {
-                throw new IllegalArgumentException();
+        SQLiteArguments arguments = argumentsWrapper.get();
+        try {
+            for (int a = 0; a < args.length; a++) {
+                arguments.bindObject(a + 1, args[a]);
             }
-            i++;
+            bindArguments(arguments);
+        } finally {
+            arguments.clear();
+        }
+
+        return new SQLiteCursor(this);
+    }
+
+    public SQLiteCursor query(SQLiteArguments args) throws SQLiteException {
+        if (args == null) {
+            throw new IllegalArgumentException();
         }
 
+        checkFinalized();
+
+        bindArguments(args);
+
         return new SQLiteCursor(this);
     }
 
+    /**
+     * Resets the statement and binds all arguments with a single native call.
+     */
+    public SQLitePreparedStatement bindArguments(SQLiteArguments args) throws SQLiteException {
+        checkFinalized();
+        generation++;
+        recordArgumentTypes(args.types, 0, args.size());
+        bindArguments(sqliteStatementHandle, args.size(), args.types, args.longs, args.doubles, args.objects);
+        return this;
+    }
+
+    public int executeBatch(SQLiteBatch batch) throws SQLiteException {
+        return executeBatch(batch, null, false);
+    }
+
+    /**
+     * Binds, steps and resets the statement for every finished row of the batch
+     * with a single native call.
+     *
+     * @param results     optional, receives the sqlite result code of every row, 0 on success
+     *                    and -1 for rows that were not executed
+     * @param stopOnError if true, the first failed row aborts the batch with an exception
+     * @return number of rows executed successfully
+     */
+    public int executeBatch(SQLiteBatch batch, int[] results, boolean stopOnError) throws SQLiteException {
+        checkFinalized();
+        int rowCount = batch.getRowCount();
+        if (results != null && results.length < rowCount) {
+            throw new IllegalArgumentException("results array is too small");
+        }
+        if (rowCount == 0) {
+            return 0;
+        }
+        generation++;
+        recordArgumentTypes(batch.types, (rowCount - 1) * batch.getColumnCount(), batch.getColumnCount());
+        try {
+            return executeBatch(sqliteStatementHandle, batch.getColumnCount(), rowCount, batch.types, batch.longs, batch.doubles, batch.objects, results, stopOnError);
+        } finally {
+            database.dispatchChanges();
+        }
+    }
+
+    /**
+     * @return 0 when the statement is done, 1 when a row is available
+     * @throws SQLiteException with SQLITE_BUSY once the busy policy gives up
+     */
     public int step() throws SQLiteException {
-        return step(sqliteStatementHandle);
+        generation++;
+        int result = step(sqliteStatementHandle);
+        database.dispatchChanges();
+        if (result == -1) {
+            throw database.onBusyFailure();
+        }
+        return result;
     }
 
     public SQLitePreparedStatement stepThis() throws SQLiteException {
-        step(sqliteStatementHandle);
+        generation++;
+        int result = step(sqliteStatementHandle);
+        database.dispatchChanges();
+        if (result == -1) {
+            throw database.onBusyFailure();
+        }
         return this;
     }
 
+    public SQLiteDatabase getDatabase() {
+        return database;
+    }
+
     public void requery() throws SQLiteException {
         checkFinalized();
+        generation++;
         reset(sqliteStatementHandle);
     }
 
     public void dispose() {
-        finalizeQuery();
+        generation++;
+        if (statementCache == null || isFinalized) {
+            finalizeQuery();
+            return;
+        }
+        isFinalized = true;
+        try {
+            reset(sqliteStatementHandle);
+        } catch (SQLiteException ignore) {
+            // reset reports the error of the last step, the handle itself is still usable
+        }
+        clearBindings(sqliteStatementHandle);
+        argumentCount = 0;
+        database.onStatementReleased(this);
+        if (!statementCache.release(sql, sqliteStatementHandle)) {
+            SQLiteStatementCache.finalizeStatement(sqliteStatementHandle);
+        }
+    }
+
+    /**
+     * @param reset true to reset the counters after reading them, the memory counter is never reset
+     */
+    public SQLiteStatementStats getStats(boolean reset) throws SQLiteException {
+        checkFinalized();
+        long[] values = new long[SQLiteStatementStats.COUNT];
+        stmtStatus(sqliteStatementHandle, values, reset);
+        return new SQLiteStatementStats(sql, values);
+    }
+
+    public boolean isCached() {
+        return statementCache != null;
     }
 
     void checkFinalized() throws SQLiteException {
@@ -96,19 +213,11 @@ public class SQLitePreparedStatement {
     }
 
     public void finalizeQuery() {
+        generation++;
         if (isFinalized) {
             return;
         }
-        if (BuildVars.DEBUG_VERSION) {
-            long diff = SystemClock.elapsedRealtime() - startTime;
-            if (diff > 500) {
-                Log.d("Debug", "sqlite query " + query + " took " + diff + "ms");
-            }
-        }
         try {
-            if (BuildVars.DEBUG_VERSION) {
-                hashMap.remove(this);
-            }
             isFinalized = true;
             finalize(sqliteStatementHandle);
         } catch (SQLiteException e) {
@@ -116,44 +225,131 @@ public class SQLitePreparedStatement {
                 Log.e("Error", e.getMessage(), e);
             }
         }
+        database.onStatementReleased(this);
+    }
+
+    /**
+     * @return type of each bound value, null, integer, real, text, blob or unknown for unbound slots
+     */
+    String[] getArgumentTypes() {
+        String[] result = new String[argumentCount];
+        for (int a = 0; a < argumentCount; a++) {
+            switch (argumentTypes[a]) {
+                case SQLiteArguments.TYPE_NULL:
+                    result[a] = "null";
+                    break;
+                case SQLiteArguments.TYPE_LONG:
+                    result[a] = "integer";
+                    break;
+                case SQLiteArguments.TYPE_DOUBLE:
+                    result[a] = "real";
+                    break;
+                case SQLiteArguments.TYPE_STRING:
+                    result[a] = "text";
+                    break;
+                case SQLiteArguments.TYPE_BYTE_ARRAY:
+                case SQLiteArguments.TYPE_BYTE_BUFFER:
+                case SQLiteArguments.TYPE_ZERO_BLOB:
+                    result[a] = "blob";
+                    break;
+                default:
+                    result[a] = "unknown";
+                    break;
+            }
+        }
+        return result;
+    }
+
+    private void recordArgumentTypes(byte[] types, int offset, int count) {
+        if (argumentTypes == null || argumentTypes.length < count) {
+            argumentTypes = new byte[Math.max(count, 8)];
+        }
+        System.arraycopy(types, offset, argumentTypes, 0, count);
+        argumentCount = count;
+    }
+
+    private void recordArgumentType(int index, byte type) {
+        if (index < 1) {
+            return;
+        }
+        if (argumentTypes == null || argumentTypes.length < index) {
+            byte[] types = new byte[Math.max(index, 8)];
+            if (argumentTypes != null) {
+                System.arraycopy(argumentTypes, 0, types, 0, argumentCount);
+            }
+            argumentTypes = types;
+        }
+        for (int a = argumentCount; a < index - 1; a++) {
+            argumentTypes[a] = -1;
+        }
+        argumentTypes[index - 1] = type;
+        argumentCount = Math.max(argumentCount, index);
     }
 
     public void bindInteger(int index, int value) throws SQLiteException {
+        generation++;
+        recordArgumentType(index, SQLiteArguments.TYPE_LONG);
         bindInt(sqliteStatementHandle, index, value);
     }
 
     public void bindDouble(int index, double value) throws SQLiteException {
+        generation++;
+        recordArgumentType(index, SQLiteArguments.TYPE_DOUBLE);
         bindDouble(sqliteStatementHandle, index, value);
     }
 
     public void bindByteBuffer(int index, ByteBuffer value) throws SQLiteException {
+        generation++;
+        recordArgumentType(index, SQLiteArguments.TYPE_BYTE_BUFFER);
         bindByteBuffer(sqliteStatementHandle, index, value, value.limit());
     }
 
     public void bindByteBuffer(int index, NativeByteBuffer value) throws SQLiteException {
+        generation++;
+        recordArgumentType(index, SQLiteArguments.TYPE_BYTE_BUFFER);
         bindByteBuffer(sqliteStatementHandle, index, value.buffer, value.limit());
     }
 
     public void bindString(int index, String value) throws SQLiteException {
+        generation++;
+        recordArgumentType(index, SQLiteArguments.TYPE_STRING);
         bindString(sqliteStatementHandle, index, value);
     }
 
     public void bindLong(int index, long value) throws SQLiteException {
+        generation++;
+        recordArgumentType(index, SQLiteArguments.TYPE_LONG);
         bindLong(sqliteStatementHandle, index, value);
     }
 
     public void bindNull(int index) throws SQLiteException {
+        generation++;
+        recordArgumentType(index, SQLiteArguments.TYPE_NULL);
         bindNull(sqliteStatementHandle, index);
     }
 
+    /**
+     * Binds a blob of length zero bytes, to be filled later with {@link SQLiteBlob}.
+     */
+    public void bindZeroBlob(int index, int length) throws SQLiteException {
+        generation++;
+        recordArgumentType(index, SQLiteArguments.TYPE_ZERO_BLOB);
+        bindZeroBlob(sqliteStatementHandle, index, length);
+    }
+
     native void bindByteBuffer(long statementHandle, int index, ByteBuffer value, int length) throws SQLiteException;
     native void bindString(long statementHandle, int index, String value) throws SQLiteException;
     native void bindInt(long statementHandle, int index, int value) throws SQLiteException;
     native void bindLong(long statementHandle, int index, long value) throws SQLiteException;
     native void bindDouble(long statementHandle, int index, double value) throws SQLiteException;
     native void bindNull(long statementHandle, int index) throws SQLiteException;
+    native void bindZeroBlob(long statementHandle, int index, int length) throws SQLiteException;
     native void reset(long statementHandle) throws SQLiteException;
+    native void stmtStatus(long statementHandle, long[] values, boolean reset);
+    native void clearBindings(long statementHandle);
     native long prepare(long sqliteHandle, String sql) throws SQLiteException;
     native void finalize(long statementHandle) throws SQLiteException;
     native int step(long statementHandle) throws SQLiteException;
+    native void bindArguments(long statementHandle, int count, byte[] types, long[] longs, double[] doubles, Object[] objects) throws SQLiteException;
+    native int executeBatch(long statementHandle, int columnCount, int rowCount, byte[] types, long[] longs, double[] doubles, Object[] objects, int[] results, boolean stopOnError) throws SQLiteException;
 }
@@ -0,0 +1,73 @@
+package com.thelqn.sqlite3;
+
+/**
+ * Rows of EXPLAIN QUERY PLAN for one statement. Every step has an id and the id of its parent,
+ * 0 for top level steps, and a detail text like "SCAN t" or "SEARCH t USING INDEX i (a=?)".
+ */
+public class SQLiteQueryPlan {
+
+    private final String sql;
+    private final int[] ids;
+    private final int[] parents;
+    private final String[] details;
+
+    SQLiteQueryPlan(String sql, int[] ids, int[] parents, String[] details) {
+        this.sql = sql;
+        this.ids = ids;
+        this.parents = parents;
+        this.details = details;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public int getParent(int index) {
+        return parents[index];
+    }
+
+    public String getDetail(int index) {
+        return details[index];
+    }
+
+    /**
+     * @return the plan as an indented tree, like the sqlite shell prints it
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("QUERY PLAN");
+        for (int a = 0; a < ids.length; a++) {
+            builder.append('\n');
+            for (int depth = depth(a); depth > 0; depth--) {
+                builder.append("   ");
+            }
+            builder.append("|--").append(details[a]);
+        }
+        return builder.toString();
+    }
+
+    private int depth(int index) {
+        int depth = 0;
+        int parent = parents[index];
+        while (parent != 0 && depth < ids.length) {
+            int next = 0;
+            for (int a = 0; a < ids.length; a++) {
+                if (ids[a] == parent) {
+                    next = parents[a];
+                    break;
+                }
+            }
+            depth++;
+            parent = next;
+        }
+        return depth;
+    }
+}
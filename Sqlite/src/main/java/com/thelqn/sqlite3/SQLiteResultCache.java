@@ -0,0 +1,469 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * Size bounded LRU cache of query results of one connection, keyed by SQL text and arguments.
+ * Results are serialized into pooled {@link NativeByteBuffer}s. Every entry remembers the version
+ * of each table the query read, and the versions are bumped by the change feed of the connection
+ * whenever a committed transaction changes a table, so stale entries are dropped on lookup.
+ * <p>
+ * Only writes made through this connection are seen. Tables changed by other connections,
+ * WITHOUT ROWID tables and deletes done by the truncate optimization must be invalidated by hand.
+ */
+public class SQLiteResultCache {
+
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+    private static final int MAX_SQL_TABLES = 256;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static class Entry {
+        final Key key;
+        final NativeByteBuffer data;
+        final int length;
+        final String[] tables;
+        final long[] versions;
+        private int refs;
+        private boolean removed;
+
+        Entry(Key key, NativeByteBuffer data, int length, String[] tables, long[] versions) {
+            this.key = key;
+            this.data = data;
+            this.length = length;
+            this.tables = tables;
+            this.versions = versions;
+        }
+
+        int size() {
+            return data.capacity();
+        }
+
+        void acquire() {
+            synchronized (this) {
+                refs++;
+            }
+        }
+
+        void release() {
+            synchronized (this) {
+                refs--;
+                if (refs > 0 || !removed) {
+                    return;
+                }
+            }
+            data.reuse();
+        }
+
+        void remove() {
+            synchronized (this) {
+                removed = true;
+                if (refs > 0) {
+                    return;
+                }
+            }
+            data.reuse();
+        }
+    }
+
+    static class Key {
+        final String sql;
+        final Object[] args;
+        private final int hash;
+
+        Key(String sql, Object[] args) {
+            this.sql = sql;
+            this.args = args;
+            hash = 31 * sql.hashCode() + Arrays.deepHashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && sql.equals(other.sql) && Arrays.deepEquals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final SQLiteDatabase database;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, String[]> sqlTables = new HashMap<>();
+    private final HashMap<String, Long> tableVersions = new HashMap<>();
+    private final SQLiteChangeFeed.Listener changeListener = this::onChanges;
+    private final Object subscribeLock = new Object();
+    private int maxBytes;
+    private int sizeBytes;
+    private long globalVersion;
+
+    private int hits;
+    private int misses;
+    private int evictions;
+    private int invalidations;
+
+    SQLiteResultCache(SQLiteDatabase db, int maxBytes) {
+        database = db;
+        this.maxBytes = Math.max(maxBytes, 0);
+    }
+
+    /**
+     * @return true if the query can be cached with these arguments, buffers passed as
+     * arguments can change under the key and are not cacheable
+     */
+    static boolean isCacheable(Object[] args) {
+        if (args == null) {
+            return true;
+        }
+        for (Object arg : args) {
+            if (arg != null && !(arg instanceof Number) && !(arg instanceof String) && !(arg instanceof Boolean) && !(arg instanceof byte[])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * byte[] arguments are copied as well, so changing them later doesn't change the key.
+     */
+    private static Object[] copyArgs(Object[] args) {
+        if (args == null) {
+            return new Object[0];
+        }
+        Object[] copy = args.clone();
+        for (int a = 0; a < copy.length; a++) {
+            if (copy[a] instanceof byte[]) {
+                copy[a] = ((byte[]) copy[a]).clone();
+            }
+        }
+        return copy;
+    }
+
+    SQLiteCachedResult query(String sql, Object[] args) throws SQLiteException {
+        Key key = new Key(sql, copyArgs(args));
+        Entry entry = get(key);
+        if (entry != null) {
+            return new SQLiteCachedResult(entry);
+        }
+        String[] tables = getTables(sql);
+        long[] versions = snapshot(tables);
+        SQLiteCursor cursor = database.queryFinalized(sql, key.args);
+        NativeByteBuffer data;
+        try {
+            data = serialize(cursor);
+        } finally {
+            cursor.dispose();
+        }
+        entry = new Entry(key, data, data.limit(), tables, versions);
+        entry.acquire();
+        put(entry);
+        return new SQLiteCachedResult(entry);
+    }
+
+    /**
+     * Runs the query without caching it, the result owns its buffer.
+     */
+    static SQLiteCachedResult queryUncached(SQLiteDatabase db, String sql, Object[] args) throws SQLiteException {
+        SQLiteCursor cursor = db.queryFinalized(sql, args != null ? args : new Object[0]);
+        NativeByteBuffer data;
+        try {
+            data = serialize(cursor);
+        } finally {
+            cursor.dispose();
+        }
+        Entry entry = new Entry(null, data, data.limit(), null, null);
+        entry.acquire();
+        entry.remove();
+        return new SQLiteCachedResult(entry);
+    }
+
+    private synchronized Entry get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (isCurrent(entry)) {
+                hits++;
+                entry.acquire();
+                return entry;
+            }
+            invalidations++;
+            removeEntry(entries.remove(key));
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized void put(Entry entry) {
+        if (entry.size() > maxBytes / 4 || !isCurrent(entry)) {
+            entry.remove();
+            return;
+        }
+        Entry old = entries.put(entry.key, entry);
+        if (old != null) {
+            removeEntry(old);
+        }
+        sizeBytes += entry.size();
+        trimToSize(maxBytes);
+    }
+
+    private boolean isCurrent(Entry entry) {
+        for (int a = 0; a < entry.tables.length; a++) {
+            if (entry.versions[a] != version(entry.tables[a])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long version(String table) {
+        Long version = tableVersions.get(table);
+        return globalVersion + (version != null ? version : 0);
+    }
+
+    private synchronized long[] snapshot(String[] tables) {
+        long[] versions = new long[tables.length];
+        for (int a = 0; a < tables.length; a++) {
+            versions[a] = version(tables[a]);
+        }
+        return versions;
+    }
+
+    /**
+     * Finds the tables sql reads and makes sure the change feed reports changes to them.
+     */
+    private String[] getTables(String sql) throws SQLiteException {
+        String[] tables;
+        synchronized (this) {
+            tables = sqlTables.get(sql);
+        }
+        if (tables != null) {
+            return tables;
+        }
+        tables = database.getReadTables(sql);
+        for (int a = 0; a < tables.length; a++) {
+            tables[a] = tables[a].toLowerCase(Locale.US);
+        }
+        boolean subscribe = false;
+        synchronized (this) {
+            if (sqlTables.size() >= MAX_SQL_TABLES) {
+                sqlTables.clear();
+            }
+            sqlTables.put(sql, tables);
+            for (String table : tables) {
+                if (!tableVersions.containsKey(table)) {
+                    tableVersions.put(table, 0L);
+                    subscribe = true;
+                }
+            }
+        }
+        if (subscribe) {
+            SQLiteChangeFeed feed = database.getChangeFeed();
+            // serialized so the last update made always carries every table
+            synchronized (subscribeLock) {
+                String[] subscribeTables;
+                synchronized (this) {
+                    subscribeTables = tableVersions.keySet().toArray(new String[0]);
+                }
+                feed.updateTables(changeListener, subscribeTables);
+            }
+        }
+        return tables;
+    }
+
+    private synchronized void onChanges(SQLiteChangeSet changes) {
+        for (String table : changes.getTables()) {
+            Long version = tableVersions.get(table);
+            if (version != null) {
+                tableVersions.put(table, version + 1);
+            }
+        }
+    }
+
+    private static NativeByteBuffer serialize(SQLiteCursor cursor) throws SQLiteException {
+        int columnCount = cursor.getColumnCount();
+        NativeByteBuffer calc = new NativeByteBuffer(true);
+        calc.writeInt32(columnCount);
+        calc.writeInt32(0);
+        Object[] values = new Object[columnCount * 8];
+        byte[] types = new byte[columnCount * 8];
+        int count = 0;
+        int rowCount = 0;
+        while (cursor.next()) {
+            if (count + columnCount > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+                types = Arrays.copyOf(types, types.length * 2);
+            }
+            for (int a = 0; a < columnCount; a++, count++) {
+                int type = cursor.getTypeOf(a);
+                types[count] = (byte) type;
+                calc.writeByte(type);
+                switch (type) {
+                    case SQLiteCursor.FIELD_TYPE_INT:
+                        values[count] = cursor.longValue(a);
+                        calc.writeInt64(0);
+                        break;
+                    case SQLiteCursor.FIELD_TYPE_FLOAT:
+                        values[count] = cursor.doubleValue(a);
+                        calc.writeDouble(0);
+                        break;
+                    case SQLiteCursor.FIELD_TYPE_STRING:
+                    case SQLiteCursor.FIELD_TYPE_BYTEARRAY: {
+                        byte[] value;
+                        if (type == SQLiteCursor.FIELD_TYPE_STRING) {
+                            String string = cursor.stringValue(a);
+                            value = string != null ? string.getBytes(UTF_8) : null;
+                        } else {
+                            value = cursor.byteArrayValue(a);
+                        }
+                        if (value == null) {
+                            value = new byte[0];
+                        }
+                        values[count] = value;
+                        calc.writeByteArray(value);
+                        break;
+                    }
+                    default:
+                        values[count] = null;
+                        break;
+                }
+            }
+            rowCount++;
+        }
+        NativeByteBuffer data;
+        try {
+            data = new NativeByteBuffer(calc.length());
+        } catch (Exception e) {
+            throw new SQLiteException(e.getMessage());
+        }
+        data.writeInt32(columnCount);
+        data.writeInt32(rowCount);
+        for (int a = 0; a < count; a++) {
+            data.writeByte(types[a]);
+            switch (types[a]) {
+                case SQLiteCursor.FIELD_TYPE_INT:
+                    data.writeInt64((Long) values[a]);
+                    break;
+                case SQLiteCursor.FIELD_TYPE_FLOAT:
+                    data.writeDouble((Double) values[a]);
+                    break;
+                case SQLiteCursor.FIELD_TYPE_STRING:
+                case SQLiteCursor.FIELD_TYPE_BYTEARRAY:
+                    data.writeByteArray((byte[]) values[a]);
+                    break;
+            }
+        }
+        data.limit(data.position());
+        data.position(0);
+        return data;
+    }
+
+    /**
+     * Drops the cached results that read table, for changes the change feed does not see.
+     */
+    public synchronized void invalidate(String table) {
+        String name = table.toLowerCase(Locale.US);
+        Long version = tableVersions.get(name);
+        if (version != null) {
+            tableVersions.put(name, version + 1);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        globalVersion++;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            invalidations++;
+            removeEntry(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    public synchronized void setMaxBytes(int bytes) {
+        maxBytes = Math.max(bytes, 0);
+        trimToSize(maxBytes);
+    }
+
+    public synchronized int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return native memory held by the cached results
+     */
+    public synchronized int getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return number of entries dropped because a table they read changed
+     */
+    public synchronized int getInvalidationCount() {
+        return invalidations;
+    }
+
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        invalidations = 0;
+    }
+
+    private void trimToSize(int size) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (sizeBytes > size && iterator.hasNext()) {
+            evictions++;
+            removeEntry(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        sizeBytes -= entry.size();
+        entry.remove();
+    }
+
+    void close() {
+        boolean subscribed;
+        synchronized (this) {
+            maxBytes = 0;
+            trimToSize(0);
+            subscribed = !tableVersions.isEmpty();
+        }
+        if (!subscribed) {
+            return;
+        }
+        try {
+            database.getChangeFeed().unsubscribe(changeListener);
+        } catch (SQLiteException e) {
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.thelqn.sqlite3;
+
+/**
+ * One statement captured by {@link SQLiteSlowQueryLog}.
+ */
+public class SQLiteSlowQuery {
+
+    private final long time;
+    private final String sql;
+    private final String[] argumentTypes;
+    private final long durationNanos;
+    private final long rows;
+    SQLiteQueryPlan plan;
+    String planError;
+
+    SQLiteSlowQuery(long time, String sql, String[] argumentTypes, long durationNanos, long rows) {
+        this.time = time;
+        this.sql = sql;
+        this.argumentTypes = argumentTypes;
+        this.durationNanos = durationNanos;
+        this.rows = rows;
+    }
+
+    /**
+     * @return wall clock time of the capture in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return type of each bound parameter, null, integer, real, text, blob or unknown
+     */
+    public String[] getArgumentTypes() {
+        return argumentTypes;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return the plan captured on the separate connection, null if it could not be captured
+     */
+    public SQLiteQueryPlan getPlan() {
+        return plan;
+    }
+
+    public String getPlanError() {
+        return planError;
+    }
+
+    void toJson(StringBuilder builder) {
+        builder.append("{\"time\":").append(time);
+        builder.append(",\"sql\":");
+        appendString(builder, sql);
+        builder.append(",\"argumentTypes\":[");
+        for (int a = 0; a < argumentTypes.length; a++) {
+            if (a != 0) {
+                builder.append(',');
+            }
+            appendString(builder, argumentTypes[a]);
+        }
+        builder.append("],\"durationNanos\":").append(durationNanos);
+        builder.append(",\"rows\":").append(rows);
+        if (plan != null) {
+            builder.append(",\"plan\":[");
+            for (int a = 0; a < plan.size(); a++) {
+                if (a != 0) {
+                    builder.append(',');
+                }
+                builder.append("{\"id\":").append(plan.getId(a));
+                builder.append(",\"parent\":").append(plan.getParent(a));
+                builder.append(",\"detail\":");
+                appendString(builder, plan.getDetail(a));
+                builder.append('}');
+            }
+            builder.append(']');
+        }
+        if (planError != null) {
+            builder.append(",\"planError\":");
+            appendString(builder, planError);
+        }
+        builder.append('}');
+    }
+
+    static void appendString(StringBuilder builder, String value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+        builder.append('"');
+        for (int a = 0; a < value.length(); a++) {
+            char c = value.charAt(a);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                    break;
+            }
+        }
+        builder.append('"');
+    }
+}
@@ -0,0 +1,196 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Always-on slow statement detector for a connection. Statements slower than the threshold are
+ * reported by the tracer of the connection, and their EXPLAIN QUERY PLAN is captured on a separate
+ * read only connection on queue, so the monitored connection is never blocked. Plans are cached
+ * per SQL text. The latest captures are kept in a ring buffer that can be exported as JSON.
+ */
+public class SQLiteSlowQueryLog {
+
+    public static final int DEFAULT_THRESHOLD_MS = 100;
+    public static final int DEFAULT_CAPACITY = 64;
+    private static final int PLAN_CACHE_SIZE = 64;
+
+    private final SQLiteDatabase database;
+    private final String fileName;
+    private final String tempDir;
+    private final DispatchQueue queue;
+    private final SQLiteTracer.SlowStatementListener listener = this::onSlowStatement;
+    private final LinkedHashMap<String, Object> plans = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > PLAN_CACHE_SIZE;
+        }
+    };
+
+    private SQLiteSlowQuery[] ring = new SQLiteSlowQuery[DEFAULT_CAPACITY];
+    private int head;
+    private int count;
+    private long captureCount;
+    private int thresholdMs = DEFAULT_THRESHOLD_MS;
+    private boolean started;
+    private SQLiteDatabase planDatabase;
+
+    /**
+     * @param fileName file of the monitored database, opened again read only for the plans
+     * @param queue    runs the plan captures, must not be the queue of the monitored connection
+     *                 if that connection holds long write transactions
+     */
+    public SQLiteSlowQueryLog(SQLiteDatabase db, String fileName, String tempDir, DispatchQueue queue) {
+        database = db;
+        this.fileName = fileName;
+        this.tempDir = tempDir;
+        this.queue = queue;
+    }
+
+    /**
+     * Enables the tracer of the connection and starts capturing.
+     */
+    public synchronized void start() throws SQLiteException {
+        SQLiteTracer tracer = database.getTracer();
+        tracer.setSlowStatementListener(thresholdMs, listener);
+        tracer.setEnabled(true);
+        started = true;
+    }
+
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        try {
+            database.getTracer().setSlowStatementListener(0, null);
+        } catch (SQLiteException e) {
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", e.getMessage(), e);
+            }
+        }
+    }
+
+    public synchronized void setThresholdMs(int ms) throws SQLiteException {
+        thresholdMs = Math.max(ms, 1);
+        if (started) {
+            database.getTracer().setSlowStatementListener(thresholdMs, listener);
+        }
+    }
+
+    public synchronized int getThresholdMs() {
+        return thresholdMs;
+    }
+
+    /**
+     * @param capacity number of captures kept, the oldest are dropped first
+     */
+    public synchronized void setCapacity(int capacity) {
+        ArrayList<SQLiteSlowQuery> captures = getCaptures();
+        ring = new SQLiteSlowQuery[Math.max(capacity, 1)];
+        head = 0;
+        count = 0;
+        for (int a = Math.max(captures.size() - ring.length, 0); a < captures.size(); a++) {
+            add(captures.get(a));
+        }
+    }
+
+    /**
+     * @return the kept captures, oldest first
+     */
+    public synchronized ArrayList<SQLiteSlowQuery> getCaptures() {
+        ArrayList<SQLiteSlowQuery> result = new ArrayList<>(count);
+        for (int a = 0; a < count; a++) {
+            result.add(ring[(head - count + a + ring.length) % ring.length]);
+        }
+        return result;
+    }
+
+    /**
+     * @return number of statements captured since creation, including the dropped ones
+     */
+    public synchronized long getCaptureCount() {
+        return captureCount;
+    }
+
+    public synchronized void clear() {
+        ring = new SQLiteSlowQuery[ring.length];
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * @return the kept captures as a JSON array, oldest first
+     */
+    public String toJson() {
+        ArrayList<SQLiteSlowQuery> captures = getCaptures();
+        StringBuilder builder = new StringBuilder("[");
+        for (int a = 0; a < captures.size(); a++) {
+            if (a != 0) {
+                builder.append(',');
+            }
+            synchronized (this) {
+                captures.get(a).toJson(builder);
+            }
+        }
+        return builder.append(']').toString();
+    }
+
+    public void close() {
+        stop();
+        queue.postRunnable(() -> {
+            if (planDatabase != null) {
+                planDatabase.close();
+                planDatabase = null;
+            }
+            plans.clear();
+        });
+    }
+
+    private void onSlowStatement(String sql, String[] argumentTypes, long nanos, long rows) {
+        final SQLiteSlowQuery query = new SQLiteSlowQuery(System.currentTimeMillis(), sql, argumentTypes, nanos, rows);
+        synchronized (this) {
+            captureCount++;
+            add(query);
+        }
+        queue.postRunnable(() -> capturePlan(query));
+    }
+
+    private void add(SQLiteSlowQuery query) {
+        ring[head] = query;
+        head = (head + 1) % ring.length;
+        if (count < ring.length) {
+            count++;
+        }
+    }
+
+    private void capturePlan(SQLiteSlowQuery query) {
+        Object plan = plans.get(query.getSql());
+        if (plan == null) {
+            try {
+                if (planDatabase == null) {
+                    planDatabase = new SQLiteDatabase(fileName, tempDir, SQLiteDatabase.OPEN_READONLY);
+                    planDatabase.setStatementCacheSize(0);
+                }
+                plan = planDatabase.getQueryPlan(query.getSql());
+            } catch (SQLiteException e) {
+                plan = e.getMessage() != null ? e.getMessage() : "plan failed";
+            }
+            plans.put(query.getSql(), plan);
+        }
+        synchronized (this) {
+            if (plan instanceof SQLiteQueryPlan) {
+                query.plan = (SQLiteQueryPlan) plan;
+            } else {
+                query.planError = (String) plan;
+            }
+        }
+        if (BuildVars.LOGS_ENABLED) {
+            Log.w("Warning", "slow query " + query.getDurationNanos() / 1000000 + " ms, " + query.getRowCount() + " rows: " + query.getSql()
+                    + (query.plan != null ? "\n" + query.plan : ""));
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.thelqn.sqlite3;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens a database on its queue, then prepares the declared hot statements into the statement
+ * cache and reads the first pages of the hot tables into the page cache. Every statement and
+ * table is a separate turn of the queue, so work posted with {@link #whenReady(String, Runnable)}
+ * starts as soon as the step it depends on is done instead of waiting for the whole warm-up.
+ */
+public class SQLiteStartup {
+
+    public interface Opener {
+        /**
+         * Opens the database and runs the schema checks, called on the queue.
+         */
+        SQLiteDatabase open() throws SQLiteException;
+    }
+
+    public interface Listener {
+        void onOpened(SQLiteDatabase db);
+
+        void onFinished(SQLiteStartup startup);
+
+        void onError(SQLiteException e);
+    }
+
+    public static final int PHASE_OPEN = 0;
+    public static final int PHASE_PREPARE = 1;
+    public static final int PHASE_WARM = 2;
+    public static final int PHASE_TOTAL = 3;
+
+    private final DispatchQueue queue;
+    private final Opener opener;
+    private final ArrayList<String> statements = new ArrayList<>();
+    private final ArrayList<String> tables = new ArrayList<>();
+    private final long[] phaseTimes = new long[4];
+    private final CountDownLatch openLatch = new CountDownLatch(1);
+
+    private final HashSet<String> readyKeys = new HashSet<>();
+    private final HashMap<String, ArrayList<Runnable>> waiting = new HashMap<>();
+
+    private Listener listener;
+    private volatile SQLiteDatabase database;
+    private volatile SQLiteException error;
+    private volatile boolean finished;
+    private boolean started;
+    private long startTime;
+    private int nextStep;
+
+    public SQLiteStartup(DispatchQueue queue, Opener opener) {
+        this.queue = queue;
+        this.opener = opener;
+    }
+
+    /**
+     * Declares a statement prepared into the cache right after open.
+     */
+    public SQLiteStartup addStatement(String sql) {
+        statements.add(sql);
+        return this;
+    }
+
+    /**
+     * Declares a table whose first pages are read into the page cache after the statements are prepared.
+     */
+    public SQLiteStartup addTable(String table) {
+        tables.add(table);
+        return this;
+    }
+
+    public SQLiteStartup setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public void start() {
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("startup already started");
+            }
+            started = true;
+        }
+        queue.postRunnable(this::open);
+    }
+
+    /**
+     * Posts runnable to the queue once key is ready, right away if it already is.
+     *
+     * @param key null for the open, otherwise a statement or table declared with addStatement or addTable
+     */
+    public void whenReady(String key, Runnable runnable) {
+        synchronized (this) {
+            if (!readyKeys.contains(keyOf(key)) && !finished) {
+                ArrayList<Runnable> list = waiting.get(keyOf(key));
+                if (list == null) {
+                    list = new ArrayList<>();
+                    waiting.put(keyOf(key), list);
+                }
+                list.add(runnable);
+                return;
+            }
+        }
+        queue.postRunnable(runnable);
+    }
+
+    /**
+     * Blocks until the database is open or failed to open.
+     *
+     * @return the database, null if open failed
+     */
+    public SQLiteDatabase awaitOpened() throws InterruptedException {
+        openLatch.await();
+        return database;
+    }
+
+    public SQLiteDatabase awaitOpened(long timeout, TimeUnit unit) throws InterruptedException {
+        openLatch.await(timeout, unit);
+        return database;
+    }
+
+    public SQLiteDatabase getDatabase() {
+        return database;
+    }
+
+    public SQLiteException getError() {
+        return error;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @param phase one of the PHASE_* constants
+     * @return milliseconds spent in the phase
+     */
+    public long getPhaseTime(int phase) {
+        synchronized (phaseTimes) {
+            return phaseTimes[phase];
+        }
+    }
+
+    private void open() {
+        startTime = SystemClock.elapsedRealtime();
+        SQLiteDatabase db;
+        try {
+            db = opener.open();
+            if (db == null) {
+                throw new SQLiteException("database not opened");
+            }
+        } catch (SQLiteException e) {
+            error = e;
+            addPhaseTime(PHASE_OPEN, SystemClock.elapsedRealtime() - startTime);
+            openLatch.countDown();
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", "startup open failed", e);
+            }
+            if (listener != null) {
+                listener.onError(e);
+            }
+            finish();
+            return;
+        }
+        database = db;
+        if (statements.size() > db.getStatementCacheSize()) {
+            db.setStatementCacheSize(statements.size());
+        }
+        addPhaseTime(PHASE_OPEN, SystemClock.elapsedRealtime() - startTime);
+        openLatch.countDown();
+        if (listener != null) {
+            listener.onOpened(db);
+        }
+        markReady(null);
+        if (statements.isEmpty() && tables.isEmpty()) {
+            finish();
+        } else {
+            queue.postRunnable(this::runStep);
+        }
+    }
+
+    private void runStep() {
+        long start = SystemClock.elapsedRealtime();
+        int step = nextStep++;
+        boolean prepare = step < statements.size();
+        String key = prepare ? statements.get(step) : tables.get(step - statements.size());
+        int phase = prepare ? PHASE_PREPARE : PHASE_WARM;
+        try {
+            if (prepare) {
+                database.precompile(key);
+            } else {
+                warmTable(key);
+            }
+        } catch (SQLiteException e) {
+            // a failing step only costs its own warm-up, the query will fail again when it is run
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", "startup step " + key + " failed", e);
+            }
+        }
+        addPhaseTime(phase, SystemClock.elapsedRealtime() - start);
+        markReady(key);
+        if (nextStep < statements.size() + tables.size()) {
+            queue.postRunnable(this::runStep);
+        } else {
+            finish();
+        }
+    }
+
+    private void warmTable(String table) throws SQLiteException {
+        // walks the table b-tree from the root to the first leaf, and the same for every index.
+        // Statements are not cached here, so they don't push the hot statements out of the cache
+        SQLiteCursor cursor = new SQLitePreparedStatement(database, "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ?").query(new Object[]{table});
+        ArrayList<String> indexes = new ArrayList<>();
+        try {
+            while (cursor.next()) {
+                indexes.add(cursor.stringValue(0));
+            }
+        } finally {
+            cursor.dispose();
+        }
+        stepOnce("SELECT * FROM \"" + table.replace("\"", "\"\"") + "\" LIMIT 1");
+        for (int a = 0; a < indexes.size(); a++) {
+            stepOnce("SELECT 1 FROM \"" + table.replace("\"", "\"\"") + "\" INDEXED BY \"" + indexes.get(a).replace("\"", "\"\"") + "\" LIMIT 1");
+        }
+    }
+
+    private void stepOnce(String sql) throws SQLiteException {
+        SQLitePreparedStatement state = new SQLitePreparedStatement(database, sql);
+        try {
+            state.stepThis();
+        } finally {
+            state.dispose();
+        }
+    }
+
+    private void finish() {
+        ArrayList<Runnable> remaining = new ArrayList<>();
+        synchronized (this) {
+            finished = true;
+            for (ArrayList<Runnable> list : waiting.values()) {
+                remaining.addAll(list);
+            }
+            waiting.clear();
+        }
+        addPhaseTime(PHASE_TOTAL, SystemClock.elapsedRealtime() - startTime);
+        if (BuildVars.LOGS_ENABLED) {
+            Log.d("Debug", "startup open " + getPhaseTime(PHASE_OPEN) + " ms, prepare " + getPhaseTime(PHASE_PREPARE)
+                    + " ms, warm " + getPhaseTime(PHASE_WARM) + " ms, total " + getPhaseTime(PHASE_TOTAL) + " ms");
+        }
+        for (int a = 0; a < remaining.size(); a++) {
+            queue.postRunnable(remaining.get(a));
+        }
+        if (error == null && listener != null) {
+            listener.onFinished(this);
+        }
+    }
+
+    private void markReady(String key) {
+        ArrayList<Runnable> list;
+        synchronized (this) {
+            readyKeys.add(keyOf(key));
+            list = waiting.remove(keyOf(key));
+        }
+        if (list != null) {
+            for (int a = 0; a < list.size(); a++) {
+                queue.postRunnable(list.get(a));
+            }
+        }
+    }
+
+    private void addPhaseTime(int phase, long ms) {
+        synchronized (phaseTimes) {
+            phaseTimes[phase] += ms;
+        }
+    }
+
+    private static String keyOf(String key) {
+        return key != null ? key : "";
+    }
+}
@@ -0,0 +1,103 @@
+package com.thelqn.sqlite3;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of idle prepared statement handles, keyed by SQL text.
+ * Handles stored here are always reset and have their bindings cleared.
+ */
+class SQLiteStatementCache {
+
+    public static final int DEFAULT_MAX_SIZE = 25;
+
+    private final LinkedHashMap<String, Long> statements;
+    private int maxSize;
+
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    SQLiteStatementCache(int maxSize) {
+        this.maxSize = maxSize;
+        statements = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > SQLiteStatementCache.this.maxSize) {
+                    evictions++;
+                    finalizeStatement(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return idle statement handle for sql, or 0 if there is none
+     */
+    synchronized long acquire(String sql) {
+        Long handle = statements.remove(sql);
+        if (handle == null) {
+            misses++;
+            return 0;
+        }
+        hits++;
+        return handle;
+    }
+
+    /**
+     * @return false if the handle was not taken and must be finalized by the caller
+     */
+    synchronized boolean release(String sql, long handle) {
+        if (maxSize <= 0 || statements.containsKey(sql)) {
+            return false;
+        }
+        statements.put(sql, handle);
+        return true;
+    }
+
+    synchronized void setMaxSize(int size) {
+        maxSize = Math.max(size, 0);
+        Iterator<Long> iterator = statements.values().iterator();
+        while (statements.size() > maxSize && iterator.hasNext()) {
+            evictions++;
+            finalizeStatement(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    synchronized int getHitCount() {
+        return hits;
+    }
+
+    synchronized int getMissCount() {
+        return misses;
+    }
+
+    synchronized int getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Finalizes all idle handles, statements disposed afterwards are finalized directly.
+     */
+    synchronized void close() {
+        maxSize = 0;
+        for (Long handle : statements.values()) {
+            finalizeStatement(handle);
+        }
+        statements.clear();
+    }
+
+    static native void finalizeStatement(long statementHandle);
+}
@@ -0,0 +1,75 @@
+package com.thelqn.sqlite3;
+
+import java.util.Locale;
+
+/**
+ * Counters of sqlite3_stmt_status for one prepared statement, accumulated since the statement
+ * was prepared or its counters were last reset.
+ */
+public class SQLiteStatementStats {
+
+    // keep in sync with stmt_status in the native code
+    static final int INDEX_FULLSCAN_STEP = 0;
+    static final int INDEX_SORT = 1;
+    static final int INDEX_AUTOINDEX = 2;
+    static final int INDEX_VM_STEP = 3;
+    static final int INDEX_REPREPARE = 4;
+    static final int INDEX_RUN = 5;
+    static final int INDEX_MEMUSED = 6;
+    static final int COUNT = 7;
+
+    private final String sql;
+    private final long[] values;
+
+    SQLiteStatementStats(String sql, long[] values) {
+        this.sql = sql;
+        this.values = values;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return steps taken by full table scans, a large value relative to the runs suggests a missing index
+     */
+    public long getFullScanSteps() {
+        return values[INDEX_FULLSCAN_STEP];
+    }
+
+    public long getSortCount() {
+        return values[INDEX_SORT];
+    }
+
+    /**
+     * @return rows inserted into transient indexes sqlite built because no index was usable
+     */
+    public long getAutoIndexCount() {
+        return values[INDEX_AUTOINDEX];
+    }
+
+    public long getVmSteps() {
+        return values[INDEX_VM_STEP];
+    }
+
+    public long getReprepareCount() {
+        return values[INDEX_REPREPARE];
+    }
+
+    public long getRunCount() {
+        return values[INDEX_RUN];
+    }
+
+    /**
+     * @return bytes of heap used by the statement, never reset
+     */
+    public long getMemoryUsed() {
+        return values[INDEX_MEMUSED];
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: runs %d, vm steps %d, full scan steps %d, sorts %d, auto index %d, reprepares %d, memory %d",
+                sql, getRunCount(), getVmSteps(), getFullScanSteps(), getSortCount(), getAutoIndexCount(), getReprepareCount(), getMemoryUsed());
+    }
+}
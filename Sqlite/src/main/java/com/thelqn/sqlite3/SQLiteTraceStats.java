@@ -0,0 +1,100 @@
+package com.thelqn.sqlite3;
+
+import java.util.Locale;
+
+/**
+ * Execution statistics of all statements with the same fingerprint, the SQL text with literals
+ * and parameters replaced by ?. Times are measured by sqlite from the first step to the reset
+ * of a statement. Latencies are kept in log-linear buckets, percentiles are accurate to about 20%.
+ */
+public class SQLiteTraceStats {
+
+    static final int BUCKET_COUNT = 128;
+
+    private final String fingerprint;
+    private final long count;
+    private final long rows;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final int[] buckets;
+
+    SQLiteTraceStats(String fingerprint, long count, long rows, long totalNanos, long maxNanos, int[] buckets) {
+        this.fingerprint = fingerprint;
+        this.count = count;
+        this.rows = rows;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.buckets = buckets;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return number of times statements with this fingerprint ran to completion or were reset
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getRowCount() {
+        return rows;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getMeanNanos() {
+        return count > 0 ? totalNanos / count : 0;
+    }
+
+    public long getP50Nanos() {
+        return getPercentileNanos(0.5);
+    }
+
+    public long getP99Nanos() {
+        return getPercentileNanos(0.99);
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return upper bound of the bucket the percentile falls into, never above the maximum
+     */
+    public long getPercentileNanos(double percentile) {
+        long total = 0;
+        for (int count : buckets) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 1) * total);
+        long seen = 0;
+        for (int a = 0; a < buckets.length; a++) {
+            seen += buckets[a];
+            if (seen >= rank && buckets[a] > 0) {
+                return Math.min(bucketLowerMicros(a + 1) * 1000, maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    private static long bucketLowerMicros(int index) {
+        if (index < 4) {
+            return index;
+        }
+        return (4L + index % 4) << (index / 4 - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: count %d, rows %d, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                fingerprint, count, rows, getP50Nanos() / 1e6, getP99Nanos() / 1e6, maxNanos / 1e6);
+    }
+}
@@ -0,0 +1,153 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Statement tracing of a connection built on sqlite3_trace_v2. Statements are grouped by
+ * fingerprint and their execution times and row counts are recorded natively with atomic
+ * counters, only statements slower than the capture threshold call into Java. When disabled
+ * the trace callback is removed from the connection, so tracing costs nothing.
+ */
+public class SQLiteTracer {
+
+    public interface SlowStatementListener {
+        /**
+         * Called on the thread that ran the statement, before the step or reset that finished it
+         * returns. The connection must not be used from here.
+         *
+         * @param argumentTypes type of each value bound through {@link SQLitePreparedStatement}, null,
+         *                      integer, real, text, blob or unknown for slots skipped when binding,
+         *                      empty for statements prepared before the listener was set
+         */
+        void onSlowStatement(String sql, String[] argumentTypes, long nanos, long rows);
+    }
+
+    private final SQLiteDatabase database;
+    private long traceHandle;
+    private boolean enabled;
+    private int slowLogThresholdMs;
+    private volatile SlowStatementListener slowStatementListener;
+
+    SQLiteTracer(SQLiteDatabase db) {
+        database = db;
+        traceHandle = install(db.getSQLiteHandle());
+    }
+
+    public synchronized void setEnabled(boolean value) {
+        if (traceHandle == 0 || enabled == value) {
+            return;
+        }
+        enabled = value;
+        setEnabled(traceHandle, value);
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Logs statements that take longer than ms while tracing is enabled, 0 turns logging off.
+     */
+    public synchronized void setSlowLogThresholdMs(int ms) {
+        slowLogThresholdMs = Math.max(ms, 0);
+        if (traceHandle != 0) {
+            setSlowNanos(traceHandle, slowLogThresholdMs * 1000000L);
+        }
+    }
+
+    public synchronized int getSlowLogThresholdMs() {
+        return slowLogThresholdMs;
+    }
+
+    /**
+     * Passes statements that take at least thresholdMs to listener while tracing is enabled.
+     * Only statements over the threshold call into Java. A null listener stops the captures.
+     */
+    public synchronized void setSlowStatementListener(int thresholdMs, SlowStatementListener listener) {
+        slowStatementListener = listener;
+        database.setCaptureArguments(listener != null);
+        if (traceHandle != 0) {
+            setCaptureNanos(traceHandle, listener != null ? Math.max(thresholdMs, 1) * 1000000L : 0);
+        }
+    }
+
+    /**
+     * Called natively from the trace callback.
+     */
+    void onSlowStatement(String sql, long statementHandle, long nanos, long rows) {
+        SlowStatementListener listener = slowStatementListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onSlowStatement(sql, database.getArgumentTypes(statementHandle), nanos, rows);
+        } catch (Throwable e) {
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", e.getMessage(), e);
+            }
+        }
+    }
+
+    public SQLiteDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * @return statistics of every fingerprint seen since the last reset, slowest total time first
+     */
+    public synchronized ArrayList<SQLiteTraceStats> snapshot() {
+        ArrayList<SQLiteTraceStats> result = new ArrayList<>();
+        if (traceHandle == 0) {
+            return result;
+        }
+        Object[] data = snapshot(traceHandle);
+        if (data == null) {
+            return result;
+        }
+        String[] fingerprints = (String[]) data[0];
+        long[] counters = (long[]) data[1];
+        int[] buckets = (int[]) data[2];
+        for (int a = 0; a < fingerprints.length; a++) {
+            if (counters[a * 4] == 0) {
+                continue;
+            }
+            int offset = a * SQLiteTraceStats.BUCKET_COUNT;
+            result.add(new SQLiteTraceStats(fingerprints[a], counters[a * 4], counters[a * 4 + 1], counters[a * 4 + 2], counters[a * 4 + 3],
+                    Arrays.copyOfRange(buckets, offset, offset + SQLiteTraceStats.BUCKET_COUNT)));
+        }
+        Collections.sort(result, (o1, o2) -> Long.compare(o2.getTotalNanos(), o1.getTotalNanos()));
+        return result;
+    }
+
+    public synchronized void reset() {
+        if (traceHandle != 0) {
+            reset(traceHandle);
+        }
+    }
+
+    synchronized void close() {
+        if (traceHandle != 0) {
+            release(traceHandle);
+            traceHandle = 0;
+            enabled = false;
+            slowStatementListener = null;
+        }
+    }
+
+    /**
+     * @return sql normalized the same way the tracer groups statements
+     */
+    public static native String fingerprint(String sql);
+
+    native long install(long sqliteHandle);
+    native void setEnabled(long traceHandle, boolean enabled);
+    native void setSlowNanos(long traceHandle, long slowNanos);
+    native void setCaptureNanos(long traceHandle, long captureNanos);
+    native Object[] snapshot(long traceHandle);
+    native void reset(long traceHandle);
+    native void release(long traceHandle);
+}
@@ -0,0 +1,219 @@
+package com.thelqn.sqlite3;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Coalesces writes posted within a short window into a single transaction on the queue
+ * that owns the database, so a burst of small writes costs one commit instead of one each.
+ * Every task runs in its own savepoint, a failing task is rolled back without affecting
+ * the rest of the group, unless sqlite rolls back the whole transaction. Then the remaining
+ * tasks are not run and every task of the group gets the error. Callbacks are called on the queue after the group is committed.
+ */
+public class SQLiteWriteScheduler {
+
+    public interface WriteTask {
+        void run(SQLiteDatabase db) throws SQLiteException;
+    }
+
+    public interface Callback {
+        /**
+         * @param error null if the task was committed
+         */
+        void onComplete(SQLiteException error);
+    }
+
+    public static final int DEFAULT_WINDOW_MS = 10;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final SQLiteDatabase database;
+    private final DispatchQueue queue;
+    private final Runnable flushRunnable = this::flush;
+
+    private final Object sync = new Object();
+    private ArrayList<PendingWrite> pending = new ArrayList<>();
+    private ArrayList<PendingWrite> running = new ArrayList<>();
+    private boolean flushPosted;
+    private boolean flushDelayed;
+    private volatile int windowMs = DEFAULT_WINDOW_MS;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private volatile long commitCount;
+    private volatile long taskCount;
+
+    private static class PendingWrite {
+        final WriteTask task;
+        final Callback callback;
+
+        PendingWrite(WriteTask task, Callback callback) {
+            this.task = task;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * @param queue the queue every other access to the database runs on
+     */
+    public SQLiteWriteScheduler(SQLiteDatabase db, DispatchQueue queue) {
+        database = db;
+        this.queue = queue;
+    }
+
+    /**
+     * @param ms how long the first write of a group waits for others, 0 to commit on the next queue turn
+     */
+    public void setWindowMs(int ms) {
+        windowMs = Math.max(ms, 0);
+    }
+
+    public int getWindowMs() {
+        return windowMs;
+    }
+
+    /**
+     * @param size number of writes that commits a group without waiting for the window to end
+     */
+    public void setMaxBatchSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("batch size must be at least 1");
+        }
+        maxBatchSize = size;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void schedule(WriteTask task) {
+        schedule(task, null);
+    }
+
+    public void schedule(WriteTask task, Callback callback) {
+        boolean postNow = false;
+        boolean postDelayed = false;
+        synchronized (sync) {
+            pending.add(new PendingWrite(task, callback));
+            if (pending.size() >= maxBatchSize || windowMs == 0) {
+                if (!flushPosted || flushDelayed) {
+                    postNow = true;
+                    flushPosted = true;
+                    flushDelayed = false;
+                }
+            } else if (!flushPosted) {
+                postDelayed = true;
+                flushPosted = true;
+                flushDelayed = true;
+            }
+        }
+        if (postNow) {
+            queue.cancelRunnable(flushRunnable);
+            queue.postRunnable(flushRunnable);
+        } else if (postDelayed) {
+            queue.postRunnable(flushRunnable, windowMs);
+        }
+    }
+
+    /**
+     * Commits the pending writes on the next queue turn instead of waiting for the window.
+     */
+    public void flushNow() {
+        synchronized (sync) {
+            if (pending.isEmpty() || flushPosted && !flushDelayed) {
+                return;
+            }
+            flushPosted = true;
+            flushDelayed = false;
+        }
+        queue.cancelRunnable(flushRunnable);
+        queue.postRunnable(flushRunnable);
+    }
+
+    /**
+     * @return number of group commits
+     */
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    /**
+     * @return number of writes that were run
+     */
+    public long getTaskCount() {
+        return taskCount;
+    }
+
+    private void flush() {
+        ArrayList<PendingWrite> batch;
+        synchronized (sync) {
+            batch = pending;
+            pending = running;
+            running = batch;
+            flushPosted = false;
+            flushDelayed = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        int count = batch.size();
+        SQLiteException[] errors = new SQLiteException[count];
+        try {
+            database.beginTransaction(SQLiteDatabase.TRANSACTION_IMMEDIATE);
+            for (int a = 0; a < count; a++) {
+                errors[a] = runTask(batch.get(a).task);
+                if (!database.inTransaction()) {
+                    // sqlite rolled back the whole group, for example on SQLITE_FULL or an interrupt,
+                    // the writes of the earlier tasks are lost too
+                    throw errors[a] != null ? errors[a] : new SQLiteException("group transaction ended by a task");
+                }
+            }
+            database.commitTransaction();
+            commitCount++;
+        } catch (SQLiteException e) {
+            if (BuildVars.LOGS_ENABLED) {
+                Log.e("Error", "group commit failed", e);
+            }
+            try {
+                database.rollbackTransaction();
+            } catch (SQLiteException e2) {
+                if (BuildVars.LOGS_ENABLED) {
+                    Log.e("Error", e2.getMessage(), e2);
+                }
+            }
+            for (int a = 0; a < count; a++) {
+                if (errors[a] == null) {
+                    errors[a] = e;
+                }
+            }
+        }
+        taskCount += count;
+        for (int a = 0; a < count; a++) {
+            Callback callback = batch.get(a).callback;
+            if (callback != null) {
+                try {
+                    callback.onComplete(errors[a]);
+                } catch (Exception e) {
+                    if (BuildVars.LOGS_ENABLED) {
+                        Log.e("Error", e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        batch.clear();
+    }
+
+    private SQLiteException runTask(WriteTask task) throws SQLiteException {
+        database.beginTransaction();
+        try {
+            task.run(database);
+        } catch (SQLiteException | RuntimeException e) {
+            database.rollbackTransaction();
+            if (e instanceof SQLiteException) {
+                return (SQLiteException) e;
+            }
+            return new SQLiteException(e.toString());
+        }
+        database.commitTransaction();
+        return null;
+    }
+}
@@ -21,6 +21,7 @@ public class MainActivity extends Activity {
 
     MessagesStorage storage;
     ArrayAdapter<String> adapter;
+    Runnable closeMessagesObserver;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -38,6 +39,16 @@ public class MainActivity extends Activity {
 
     }
 
+    @Override
+    protected void onDestroy() {
+        // the live query holds the adapter of this activity
+        if (closeMessagesObserver != null) {
+            closeMessagesObserver.run();
+            closeMessagesObserver = null;
+        }
+        super.onDestroy();
+    }
+
     private void initUi() {
 
         Button output = findViewById(R.id.send);
@@ -50,7 +61,6 @@ public class MainActivity extends Activity {
             if (input.getText().toString().isEmpty())
                 return;
             storage.insertMessage(new Message(UUID.randomUUID().toString(), input.getText().toString()));
-            loadMessages();
             input.setText("");
 
 
@@ -63,7 +73,7 @@ public class MainActivity extends Activity {
 
     private void loadMessages() {
         Log.e("Timer", "Data is loading... " + System.currentTimeMillis());
-        storage.loadMessagesData(messages -> {
+        closeMessagesObserver = storage.observeMessages(messages -> {
             adapter.clear();
             for (int i = 0; i < messages.size(); i++)
                 adapter.add(messages.get(i).getMessage());
@@ -9,11 +9,18 @@ import com.thelqn.sample.model.EventListener;
 import com.thelqn.sample.model.Message;
 import com.thelqn.sqlite3.BuildVars;
 import com.thelqn.sqlite3.DispatchQueue;
-import com.thelqn.sqlite3.NativeByteBuffer;
+import com.thelqn.sqlite3.SQLiteAsync;
+import com.thelqn.sqlite3.SQLiteBlob;
+import com.thelqn.sqlite3.SQLiteCheckpointManager;
 import com.thelqn.sqlite3.SQLiteCursor;
 import com.thelqn.sqlite3.SQLiteDatabase;
 import com.thelqn.sqlite3.SQLiteException;
+import com.thelqn.sqlite3.SQLiteLiveQuery;
+import com.thelqn.sqlite3.SQLiteOpenOptions;
 import com.thelqn.sqlite3.SQLitePreparedStatement;
+import com.thelqn.sqlite3.SQLiteSlowQueryLog;
+import com.thelqn.sqlite3.SQLiteStartup;
+import com.thelqn.sqlite3.SQLiteWriteScheduler;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -26,8 +33,13 @@ import java.util.concurrent.CountDownLatch;
 public class MessagesStorage {
 
     private DispatchQueue storageQueue = new DispatchQueue("storageQueue");
+    private DispatchQueue checkpointQueue = new DispatchQueue("checkpointQueue");
 
     private SQLiteDatabase database;
+    private SQLiteWriteScheduler writeScheduler;
+    private SQLiteAsync async;
+    private SQLiteCheckpointManager checkpointManager;
+    private SQLiteSlowQueryLog slowQueryLog;
     private File cacheFile;
     private File walCacheFile;
     private File shmCacheFile;
@@ -35,6 +47,10 @@ public class MessagesStorage {
     private byte[] secretPBytes = null;
 
     private CountDownLatch openSync = new CountDownLatch(1);
+    private SQLiteStartup startup;
+
+    private static final String INSERT_MESSAGE = "INSERT INTO messages ('from', 'message') VALUES(?, ?)";
+    private static final String SELECT_MESSAGES = "SELECT `from`, message FROM messages";
 
     private final static int LAST_DB_VERSION = 1;
 
@@ -60,7 +76,14 @@ public class MessagesStorage {
 
     /** Default constructor */
     private MessagesStorage() {
-        storageQueue.postRunnable(() -> openDatabase(1));
+        startup = new SQLiteStartup(storageQueue, () -> {
+            openDatabase(1);
+            return database;
+        })
+                .addStatement(INSERT_MESSAGE)
+                .addStatement(SELECT_MESSAGES)
+                .addTable("messages");
+        startup.start();
     }
 
     /**
@@ -101,11 +124,20 @@ public class MessagesStorage {
         }
         try {
 
-            database = new SQLiteDatabase(cacheFile.getPath(), ApplicationLoader.getFilesDirFixed().getPath());
-            database.executeFast("PRAGMA secure_delete = ON").stepThis().dispose();
-            database.executeFast("PRAGMA temp_store = MEMORY").stepThis().dispose();
-            database.executeFast("PRAGMA journal_mode = WAL").stepThis().dispose();
-            database.executeFast("PRAGMA journal_size_limit = 10485760").stepThis().dispose();
+            SQLiteOpenOptions options = new SQLiteOpenOptions.Builder()
+                    .setSecureDelete(true)
+                    .setTempStore(SQLiteOpenOptions.TEMP_STORE_MEMORY)
+                    .setJournalMode(SQLiteOpenOptions.JOURNAL_MODE_WAL)
+                    .setJournalSizeLimit(10485760)
+                    .build();
+            database = new SQLiteDatabase(cacheFile.getPath(), ApplicationLoader.getFilesDirFixed().getPath(), options);
+            writeScheduler = new SQLiteWriteScheduler(database, storageQueue);
+            async = new SQLiteAsync(database, storageQueue, MessagesStorage::runOnUIThread);
+            checkpointManager = new SQLiteCheckpointManager(database, cacheFile.getPath(), ApplicationLoader.getFilesDirFixed().getPath(), checkpointQueue);
+            if (BuildVars.DEBUG_VERSION) {
+                slowQueryLog = new SQLiteSlowQueryLog(database, cacheFile.getPath(), ApplicationLoader.getFilesDirFixed().getPath(), checkpointQueue);
+                slowQueryLog.start();
+            }
 
             if (createTable) {
                 if (BuildVars.LOGS_ENABLED) {
@@ -224,6 +256,14 @@ public class MessagesStorage {
 
     private void cleanupInternal(boolean deleteFiles) {
         secretPBytes = null;
+        if (checkpointManager != null) {
+            checkpointManager.close();
+            checkpointManager = null;
+        }
+        if (slowQueryLog != null) {
+            slowQueryLog.close();
+            slowQueryLog = null;
+        }
         if (database != null) {
             database.close();
             database = null;
@@ -285,68 +325,100 @@ public class MessagesStorage {
     }
 
     public void insertMessage(Message message) {
-        storageQueue.postRunnable(() -> {
+        startup.whenReady(INSERT_MESSAGE, () -> writeScheduler.schedule(db -> {
+            SQLitePreparedStatement state = db.executeFast(INSERT_MESSAGE);
             try {
-                database.executeFast("INSERT INTO messages ('from', 'message') VALUES('" + message.getFrom() + "', '" + message.getMessage() + "' );").stepThis().dispose();
-            } catch (SQLiteException e) {
-                e.printStackTrace();
+                state.query(new Object[]{message.getFrom(), message.getMessage()});
+                state.stepThis();
+            } finally {
+                state.dispose();
             }
-        });
+        }, error -> {
+            if (error != null) {
+                error.printStackTrace();
+            }
+        }));
     }
 
     public void loadMessagesData(EventListener listener) {
-        storageQueue.postRunnable(() -> {
-            List<Message> messages = new ArrayList<>();
-
-            try {
-                SQLiteCursor cursor = database.queryFinalized("SELECT `from`, message FROM messages");
+        startup.whenReady(SELECT_MESSAGES, () -> async.query(SELECT_MESSAGES, null,
+                cursor -> new Message(cursor.stringValue(0), cursor.stringValue(1))
+        ).addCallback((messages, error) -> {
+            if (error != null) {
+                Log.e("Error", error.getMessage());
+            }
+            Log.e("Timer", "Data is loaded... " + System.currentTimeMillis());
+            listener.processMessageInfo(messages != null ? messages : new ArrayList<>());
+        }));
+    }
 
-                while (cursor.next()) {
-                    String start = cursor.stringValue(0);
-                    String end = cursor.stringValue(1);
-                    messages.add(new Message(start, end));
+    /**
+     * Delivers the messages now and again whenever the messages table changes.
+     *
+     * @return closes the live query, which is only created once the database is ready
+     */
+    public Runnable observeMessages(EventListener listener) {
+        final ArrayList<SQLiteLiveQuery<Message>> query = new ArrayList<>(1);
+        final boolean[] closed = new boolean[1];
+        startup.whenReady(SELECT_MESSAGES, () -> {
+            SQLiteLiveQuery<Message> created = async.observe(SELECT_MESSAGES, null,
+                    cursor -> new Message(cursor.stringValue(0), cursor.stringValue(1)),
+                    listener::processMessageInfo);
+            synchronized (query) {
+                if (closed[0]) {
+                    created.close();
+                } else {
+                    query.add(created);
                 }
-                cursor.dispose();
-
-            } catch (Exception e) {
-                Log.e("Error", e.getMessage());
-            } finally {
-                Log.e("Timer", "Data is loaded... " + System.currentTimeMillis());
-                processMessageInfo(messages, listener);
             }
         });
+        return () -> {
+            synchronized (query) {
+                closed[0] = true;
+                for (SQLiteLiveQuery<Message> item : query) {
+                    item.close();
+                }
+                query.clear();
+            }
+        };
     }
 
     public void putWallpapers(Bitmap wallPaper) {
         storageQueue.postRunnable(() -> {
             try {
-                database.beginTransaction();
-                SQLitePreparedStatement state;
-                state = database.executeFast("INSERT INTO wallpapers(data) VALUES(?)");
-                state.requery();
+                database.beginTransaction(SQLiteDatabase.TRANSACTION_IMMEDIATE);
 
                 //calculate how many bytes our image consists of.
                 int bytes = wallPaper.getByteCount();
                 //or we can calculate bytes this way. Use a different value than 4 if you don't use 32bit images.
                 // int bytes = wallPaper.getWidth()*wallPaper.getHeight()*4;
 
-                ByteBuffer buffer = ByteBuffer.allocate(bytes); //Create a new buffer
-                wallPaper.copyPixelsToBuffer(buffer); //Move the byte data to the buffer
-                byte[] array = buffer.array();
-
-                NativeByteBuffer data = new NativeByteBuffer(bytes);
-                data.writeBytes(array);
-                state.bindByteBuffer(1, data);
+                // reserve the blob first and stream the pixels into it, no intermediate copies
+                SQLitePreparedStatement state = database.executeFast("INSERT INTO wallpapers(data) VALUES(?)");
+                state.requery();
+                state.bindZeroBlob(1, bytes);
                 state.step();
+                state.dispose();
 
-                data.reuse();
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bytes); //Create a new buffer
+                wallPaper.copyPixelsToBuffer(buffer); //Move the byte data to the buffer
+                buffer.rewind();
 
-                state.dispose();
+                SQLiteBlob blob = database.openBlob("wallpapers", "data", database.getLastInsertRowId(), true);
+                try {
+                    blob.write(0, buffer);
+                } finally {
+                    blob.close();
+                }
+                database.commitTransaction();
             } catch (Exception e) {
                 Log.e("Error put wallpaper", e.getMessage());
                 e.printStackTrace();
-            }finally {
-                database.commitTransaction();
+                try {
+                    database.rollbackTransaction();
+                } catch (SQLiteException e2) {
+                    Log.e("Error", e2.getMessage());
+                }
             }
         });
     }
@@ -25,4 +25,22 @@ public class Message {
     public void setMessage(String message) {
         this.message = message;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Message)) {
+            return false;
+        }
+        Message other = (Message) o;
+        return (from != null ? from.equals(other.from) : other.from == null)
+                && (message != null ? message.equals(other.message) : other.message == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (from != null ? from.hashCode() : 0) + (message != null ? message.hashCode() : 0);
+    }
 }